@@ -6,7 +6,11 @@ import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class VoltConfiguration {
-    @Bean
+    /**
+     * One operator for the application, it uses the process-wide VoltDB client and gives it back on
+     * shutdown.
+     */
+    @Bean(destroyMethod = "close")
     public VoltdbOperator voltdbOperator() {
         return new VoltdbOperator();
     }
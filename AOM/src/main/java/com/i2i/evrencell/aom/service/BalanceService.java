@@ -11,9 +11,13 @@ import java.io.IOException;
 
 @Service
 public class BalanceService {
-    private final VoltdbOperator voltdbOperator = new VoltdbOperator();
+    private final VoltdbOperator voltdbOperator;
     private final static Logger logger = LoggerFactory.getLogger(BalanceService.class);
 
+    public BalanceService(VoltdbOperator voltdbOperator) {
+        this.voltdbOperator = voltdbOperator;
+    }
+
     /**
      * This method is used to get the remaining customer balance by customer msisdn
      * @param msisdn
@@ -0,0 +1,103 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.VoiceTransaction;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the charging path of {@link BalanceCalculator} for every transaction type, with an in-memory
+ * balance store and no Kafka. Charges run on the calling thread, so the score is the cost of one charge.
+ *
+ * <p>{@code uniform} spreads the charges over all subscribers, {@code hotkey} sends 90% of them to 1% of
+ * the subscribers, which shows contention on a subscriber's balance. Run with {@code -prof gc} to see the
+ * allocation rate per charge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class BalanceCalculatorBenchmark {
+
+    private static final int SUBSCRIBERS = 100_000;
+    private static final int TRANSACTIONS = 1 << 16;
+
+    @Param({"uniform", "hotkey"})
+    public String distribution;
+
+    private BalanceCalculator calculator;
+    private DataTransaction[] dataTransactions;
+    private VoiceTransaction[] voiceTransactions;
+    private SmsTransaction[] smsTransactions;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (TRANSACTIONS - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] msisdns = new String[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            msisdns[i] = String.valueOf(5_000_000_000L + i);
+        }
+
+        InMemoryBalanceStore store = new InMemoryBalanceStore(msisdns);
+        calculator = BalanceCalculator.builder()
+                .balanceStore(store)
+                .eventSink(new NoOpChargingEventSink())
+                .thresholdState(new ThresholdNotificationState(null))
+                .packageCatalog(new PackageCatalog(store, TimeUnit.HOURS.toMillis(1)))
+                .subscriberCache(new SubscriberCache(store, TimeUnit.MINUTES.toMillis(10), SUBSCRIBERS))
+                .executor(Runnable::run)
+                .build();
+
+        SplittableRandom random = new SplittableRandom(42);
+        dataTransactions = new DataTransaction[TRANSACTIONS];
+        voiceTransactions = new VoiceTransaction[TRANSACTIONS];
+        smsTransactions = new SmsTransaction[TRANSACTIONS];
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String msisdn = msisdns[nextSubscriber(random)];
+            String other = msisdns[random.nextInt(SUBSCRIBERS)];
+            dataTransactions[i] = new DataTransaction(0, msisdn, 1, 1 + random.nextInt(100), 1);
+            voiceTransactions[i] = new VoiceTransaction(0, msisdn, other, 1, 1 + random.nextInt(10));
+            smsTransactions[i] = new SmsTransaction(0, msisdn, other, 1);
+        }
+    }
+
+    private int nextSubscriber(SplittableRandom random) {
+        if ("hotkey".equals(distribution) && random.nextInt(100) < 90) {
+            return random.nextInt(SUBSCRIBERS / 100);
+        }
+        return random.nextInt(SUBSCRIBERS);
+    }
+
+    @Benchmark
+    public void data(Cursor cursor) {
+        calculator.calculateDataRequest(dataTransactions[cursor.next()]).join();
+    }
+
+    @Benchmark
+    public void voice(Cursor cursor) {
+        calculator.calculateVoiceRequest(voiceTransactions[cursor.next()]).join();
+    }
+
+    @Benchmark
+    public void sms(Cursor cursor) {
+        calculator.calculateSmsRequest(smsTransactions[cursor.next()]).join();
+    }
+}
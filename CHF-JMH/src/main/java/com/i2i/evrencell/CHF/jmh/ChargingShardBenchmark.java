@@ -0,0 +1,95 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.routing.ConsistentHashingPool;
+import com.i2i.evrencell.CHF.akka.ChargingActor;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how many charges per second the MSISDN-sharded ChargingActor pool completes for a given
+ * shard count. Each charge simulates a fixed VoltDB round trip, so the result shows how throughput
+ * grows with the number of shards until the cores are saturated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChargingShardBenchmark {
+
+    private static final int TRANSACTIONS = 10_000;
+    private static final int SUBSCRIBERS = 100_000;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int shards;
+
+    @Param({"200000"})
+    public long chargeLatencyNanos;
+
+    private ActorSystem system;
+    private ActorRef router;
+    private ExecutorService ioExecutor;
+    private ChargingExecutor chargingExecutor;
+    private DataTransaction[] transactions;
+    private volatile CountDownLatch completed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create("ChargingShardBenchmark",
+                ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        ioExecutor = Executors.newCachedThreadPool();
+        chargingExecutor = new ChargingExecutor(shards, TRANSACTIONS);
+
+        BalanceCalculator calculator = new BalanceCalculator(BalanceCalculator.builder().executor(chargingExecutor)) {
+            @Override
+            public CompletableFuture<ChargingResult> calculateDataRequest(DataTransaction dataMessage) {
+                return CompletableFuture.supplyAsync(() -> {
+                    LockSupport.parkNanos(chargeLatencyNanos);
+                    completed.countDown();
+                    return null;
+                }, ioExecutor);
+            }
+        };
+
+        router = system.actorOf(new ConsistentHashingPool(shards)
+                .withHashMapper(ChargingActor.hashMapper)
+                .props(ChargingActor.props(calculator, chargingExecutor)), "ChargingActor");
+
+        transactions = new DataTransaction[TRANSACTIONS];
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String msisdn = String.valueOf(5_000_000_000L + (i * 7919L) % SUBSCRIBERS);
+            transactions[i] = new DataTransaction(0, msisdn, 1, 10, 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+        ioExecutor.shutdownNow();
+        chargingExecutor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void chargeThroughShards() throws InterruptedException {
+        completed = new CountDownLatch(TRANSACTIONS);
+        for (DataTransaction transaction : transactions) {
+            router.tell(transaction, ActorRef.noSender());
+        }
+        completed.await();
+    }
+}
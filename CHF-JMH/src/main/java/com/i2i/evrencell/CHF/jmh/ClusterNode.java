@@ -0,0 +1,155 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.ActorSystem;
+import akka.actor.AddressFromURIString;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import com.i2i.evrencell.CHF.akka.ChargingActor;
+import com.i2i.evrencell.CHF.akka.ChargingShardExtractor;
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.calculator.ChargingMode;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A CHF node of {@link ClusterScalingBenchmark}: an actor system in the cluster that hosts charging
+ * entities, each charge running through the real {@link BalanceCalculator} in BLOCKING mode against a
+ * balance store that takes a fixed VoltDB round trip per debit.
+ *
+ * <p>{@link #main} runs a charging node in a JVM of its own, given the address of the node to join, the
+ * number of workers and the round trip in nanoseconds. It leaves the cluster and exits once its standard
+ * input is closed, which happens when the benchmark that started it ends.
+ */
+public class ClusterNode {
+
+    static final String SYSTEM_NAME = "ChargingSystem";
+    static final String SHARDING_TYPE = "Charging";
+    static final String CHARGING_ROLE = "charging";
+    static final int SUBSCRIBERS = 100_000;
+    // transactions of one benchmark operation, all of them may be in flight at once
+    static final int TRANSACTIONS = 20_000;
+
+    private ClusterNode() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        ActorSystem node = startSystem(CHARGING_ROLE);
+        Cluster.get(node).join(AddressFromURIString.parse(args[0]));
+        ChargingExecutor chargingExecutor = startCharging(node, new InMemoryBalanceStore(msisdns()),
+                Integer.parseInt(args[1]), Long.parseLong(args[2]));
+
+        while (System.in.read() >= 0) {
+            // runs until the benchmark closes the pipe
+        }
+        node.terminate();
+        chargingExecutor.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Every benchmark operation sends all its transactions at once, so the Artery send queue is made large
+     * enough to take them instead of dropping the overflow.
+     */
+    static ActorSystem startSystem(String role) {
+        Config config = ConfigFactory.parseString(
+                        "akka.actor.provider = cluster\n"
+                                + "akka.remote.artery.canonical.port = 0\n"
+                                + "akka.remote.artery.advanced.outbound-message-queue-size = " + TRANSACTIONS + "\n"
+                                + "akka.cluster.roles = [" + role + "]\n"
+                                + "akka.cluster.seed-nodes = []\n"
+                                + "akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n"
+                                + "akka.coordinated-shutdown.exit-jvm = off\n"
+                                + "akka.loglevel = WARNING")
+                .withFallback(ConfigFactory.load());
+        return ActorSystem.create(SYSTEM_NAME, config);
+    }
+
+    static ChargingShardExtractor extractor() {
+        return new ChargingShardExtractor(100, 1000);
+    }
+
+    static String[] msisdns() {
+        String[] msisdns = new String[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            msisdns[i] = String.valueOf(5_000_000_000L + i);
+        }
+        return msisdns;
+    }
+
+    /**
+     * Starts the charging entities on {@code node}, debiting {@code balances}.
+     *
+     * @return executor of the node, to be shut down with it
+     */
+    static ChargingExecutor startCharging(ActorSystem node, InMemoryBalanceStore balances, int workers, long roundTripNanos) {
+        ChargingExecutor chargingExecutor = new ChargingExecutor(workers, TRANSACTIONS);
+        BalanceCalculator calculator = BalanceCalculator.builder()
+                .balanceStore(new RoundTripBalanceStore(balances, roundTripNanos))
+                .eventSink(new NoOpChargingEventSink())
+                .thresholdState(new ThresholdNotificationState(null))
+                .packageCatalog(new PackageCatalog(balances, TimeUnit.HOURS.toMillis(1)))
+                .subscriberCache(new SubscriberCache(balances, TimeUnit.MINUTES.toMillis(10), SUBSCRIBERS))
+                .executor(chargingExecutor)
+                .mode(ChargingMode.BLOCKING)
+                .build();
+        ClusterSharding.get(node).start(SHARDING_TYPE, ChargingActor.props(calculator, chargingExecutor),
+                ClusterShardingSettings.create(node).withRole(CHARGING_ROLE), extractor());
+        return chargingExecutor;
+    }
+
+    /**
+     * Blocks the calling worker for the round trip before every debit, like a synchronous VoltDB call.
+     */
+    private static final class RoundTripBalanceStore implements BalanceStore {
+
+        private final InMemoryBalanceStore balances;
+        private final long roundTripNanos;
+
+        RoundTripBalanceStore(InMemoryBalanceStore balances, long roundTripNanos) {
+            this.balances = balances;
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        @Override
+        public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+            LockSupport.parkNanos(roundTripNanos);
+            return balances.debit(type, msisdn, usage);
+        }
+
+        @Override
+        public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+            return balances.refund(msisdns, balanceTypes, amounts, used, periodStarts);
+        }
+
+        @Override
+        public VoltPackageDetails getPackageDetails(int packageId) {
+            return balances.getPackageDetails(packageId);
+        }
+
+        @Override
+        public UserDetails getUserDetails(String msisdn) {
+            return balances.getUserDetails(msisdn);
+        }
+
+        @Override
+        public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+            return balances.getSubscriberSnapshot(msisdn);
+        }
+    }
+}
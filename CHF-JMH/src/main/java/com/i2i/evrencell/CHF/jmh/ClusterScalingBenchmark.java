@@ -0,0 +1,178 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ClusterSharding;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate charges per second of a CHF cluster with 1, 2 and 4 charging nodes. Transactions enter
+ * through a proxy node, as they would from TGF, and every charging node runs the real
+ * {@link com.i2i.evrencell.CHF.calculator.BalanceCalculator} with {@code workersPerNode} workers, each
+ * debit taking a simulated VoltDB round trip, see {@link ClusterNode}. The results are sent back to the
+ * proxy node, and an operation ends when every transaction has its result.
+ *
+ * <p>With {@code deployment = jvm} every charging node is a JVM of its own on this host, so the nodes do
+ * not share heap, GC or JIT and transactions cross the network stack between JVMs like between CHF
+ * processes. Each of those nodes keeps its own in-memory balances, which holds the same balances as a
+ * shared store would because a subscriber is only charged by the node that owns it. With
+ * {@code in-process} the nodes are actor systems in the benchmark JVM sharing one balance store, which
+ * starts faster but lets the nodes compete for one JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ClusterScalingBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int nodes;
+
+    @Param({"jvm", "in-process"})
+    public String deployment;
+
+    @Param({"8"})
+    public int workersPerNode;
+
+    @Param({"1000000"})
+    public long roundTripNanos;
+
+    private final List<ActorSystem> systems = new ArrayList<>();
+    private final List<ChargingExecutor> chargingExecutors = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final LongAdder notGranted = new LongAdder();
+    private ActorRef proxy;
+    private ActorRef results;
+    private DataTransaction[] transactions;
+    private volatile CountDownLatch completed;
+
+    /**
+     * Receives the results of the charging nodes on the proxy node.
+     */
+    private static final class ResultCounter extends AbstractActor {
+
+        private final ClusterScalingBenchmark benchmark;
+
+        ResultCounter(ClusterScalingBenchmark benchmark) {
+            this.benchmark = benchmark;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(ChargingResult.class, result -> {
+                        if (result.getOutcome() != ChargingResult.Outcome.GRANTED) {
+                            benchmark.notGranted.increment();
+                        }
+                        benchmark.completed.countDown();
+                    })
+                    .build();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, IOException {
+        // the proxy node is the first member, the charging nodes join it
+        ActorSystem proxyNode = ClusterNode.startSystem("proxy");
+        Cluster cluster = Cluster.get(proxyNode);
+        cluster.join(cluster.selfAddress());
+        systems.add(proxyNode);
+
+        String[] msisdns = ClusterNode.msisdns();
+        if ("jvm".equals(deployment)) {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            for (int i = 0; i < nodes; i++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ClusterNode.class.getName(), cluster.selfAddress().toString(),
+                        String.valueOf(workersPerNode), String.valueOf(roundTripNanos))
+                        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+        } else {
+            InMemoryBalanceStore balances = new InMemoryBalanceStore(msisdns);
+            for (int i = 0; i < nodes; i++) {
+                ActorSystem node = ClusterNode.startSystem(ClusterNode.CHARGING_ROLE);
+                Cluster.get(node).join(cluster.selfAddress());
+                systems.add(node);
+                chargingExecutors.add(ClusterNode.startCharging(node, balances, workersPerNode, roundTripNanos));
+            }
+        }
+
+        proxy = ClusterSharding.get(proxyNode).startProxy(ClusterNode.SHARDING_TYPE,
+                Optional.of(ClusterNode.CHARGING_ROLE), ClusterNode.extractor());
+        results = proxyNode.actorOf(Props.create(ResultCounter.class, () -> new ResultCounter(this)), "results");
+        awaitMembersUp(cluster, nodes + 1);
+
+        transactions = new DataTransaction[ClusterNode.TRANSACTIONS];
+        for (int i = 0; i < ClusterNode.TRANSACTIONS; i++) {
+            String msisdn = msisdns[(int) ((i * 7919L) % ClusterNode.SUBSCRIBERS)];
+            transactions[i] = new DataTransaction(0, msisdn, 1, 10, 1);
+        }
+    }
+
+    private static void awaitMembersUp(Cluster cluster, int members) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            long up = 0;
+            for (Member member : cluster.state().getMembers()) {
+                if (member.status() == MemberStatus.up()) {
+                    up++;
+                }
+            }
+            if (up == members) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Cluster of " + members + " members did not form");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException, IOException {
+        if (notGranted.sum() > 0) {
+            System.out.println(notGranted.sum() + " charges were not granted, the score includes them");
+        }
+        for (Process process : processes) {
+            process.getOutputStream().close();
+        }
+        for (Process process : processes) {
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        for (int i = systems.size() - 1; i >= 0; i--) {
+            systems.get(i).terminate();
+        }
+        chargingExecutors.forEach(ChargingExecutor::shutdown);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ClusterNode.TRANSACTIONS)
+    public void chargeThroughCluster() throws InterruptedException {
+        completed = new CountDownLatch(ClusterNode.TRANSACTIONS);
+        for (DataTransaction transaction : transactions) {
+            proxy.tell(transaction, results);
+        }
+        completed.await();
+    }
+}
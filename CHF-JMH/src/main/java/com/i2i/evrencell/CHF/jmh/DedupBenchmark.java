@@ -0,0 +1,59 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.dedup.DedupWindow;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicate checks per second of the {@link DedupWindow} for 1 and 8 charging threads. Every check is a
+ * new transaction ID, so the window is full after warm-up and every check also removes the oldest ID,
+ * the steady state of CHF at peak load. Comparing the thread counts shows whether the stripes keep the
+ * check from becoming a point of contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DedupBenchmark {
+
+    @Param({"2000000"})
+    public int capacity;
+
+    @Param({"64"})
+    public int stripes;
+
+    private DedupWindow dedupWindow;
+    private final AtomicLong threadIds = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Ids {
+        long next;
+
+        @Setup(Level.Trial)
+        public void setUp(DedupBenchmark benchmark) {
+            // TGF-shaped IDs: a prefix per thread over a counter
+            next = (benchmark.threadIds.incrementAndGet() << 40) | 1;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dedupWindow = new DedupWindow(TimeUnit.MINUTES.toSeconds(2), capacity, stripes);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean firstSeenOneThread(Ids ids) {
+        return dedupWindow.firstSeen(ids.next++);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean firstSeenEightThreads(Ids ids) {
+        return dedupWindow.firstSeen(ids.next++);
+    }
+}
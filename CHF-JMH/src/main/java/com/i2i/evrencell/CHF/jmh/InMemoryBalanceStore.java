@@ -0,0 +1,74 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Balances of a fixed set of subscribers held in memory, all on one package. A debit that would exhaust a
+ * balance refills it first, so a benchmark can charge for as long as it runs.
+ */
+class InMemoryBalanceStore implements BalanceStore {
+
+    static final int PACKAGE_ID = 1;
+    private static final int PACKAGE_AMOUNT = 1_000_000;
+
+    private final Map<String, int[]> balances = new ConcurrentHashMap<>();
+    private final VoltPackageDetails packageDetails = new VoltPackageDetails(30, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT);
+    private final UserDetails userDetails = new UserDetails("Bench", "Mark", "bench@evrencell.com", PACKAGE_ID);
+    private final Timestamp periodStart = new Timestamp(System.currentTimeMillis());
+
+    InMemoryBalanceStore(String[] msisdns) {
+        for (String msisdn : msisdns) {
+            balances.put(msisdn, new int[]{PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT});
+        }
+    }
+
+    @Override
+    public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+        int[] balance = balances.get(msisdn);
+        if (balance == null) {
+            return null;
+        }
+        synchronized (balance) {
+            int index = type.ordinal();
+            if (balance[index] < usage) {
+                balance[index] = PACKAGE_AMOUNT;
+            }
+            balance[index] -= usage;
+            return new VoltDebitResult(usage, balance[index], PACKAGE_ID, periodStart);
+        }
+    }
+
+    @Override
+    public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        return 0;
+    }
+
+    @Override
+    public VoltPackageDetails getPackageDetails(int packageId) {
+        return packageDetails;
+    }
+
+    @Override
+    public UserDetails getUserDetails(String msisdn) {
+        return userDetails;
+    }
+
+    @Override
+    public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+        int[] balance = balances.get(msisdn);
+        synchronized (balance) {
+            return new VoltSubscriberSnapshot(msisdn, userDetails.getName(), userDetails.getLastName(), userDetails.getEmail(),
+                    PACKAGE_ID, balance[BalanceType.VOICE.ordinal()], balance[BalanceType.SMS.ordinal()], balance[BalanceType.DATA.ordinal()],
+                    PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT, packageDetails.period(), periodStart, null);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.routing.ConsistentHashingPool;
+import akka.stream.javadsl.Source;
+import com.i2i.evrencell.CHF.akka.ChargingActor;
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.calculator.ChargingMode;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.store.DebitOutcome;
+import com.i2i.evrencell.CHF.stream.ChargingStream;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.DataTransaction;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two CHF ingestion modes under the same simulated VoltDB round trip. {@code actor} tells
+ * every transaction to the ChargingActor pool, which debits each one with its own asynchronous call.
+ * {@code stream} runs the transactions through {@link ChargingStream}, which debits a micro-batch per
+ * call, so the round trip is paid once per batch instead of once per charge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestionBenchmark {
+
+    private static final int TRANSACTIONS = 10_000;
+    private static final int SUBSCRIBERS = 100_000;
+    private static final int WORKERS = 16;
+
+    @Param({"actor", "stream"})
+    public String ingestion;
+
+    @Param({"200000"})
+    public long roundTripNanos;
+
+    private ActorSystem system;
+    private ActorRef router;
+    private ChargingStream chargingStream;
+    private ScheduledExecutorService voltdb;
+    private ChargingExecutor chargingExecutor;
+    private List<Object> transactions;
+    private volatile CountDownLatch completed;
+
+    /**
+     * Answers debits after a fixed round trip on a timer thread, like the callbacks of the VoltDB client.
+     * A batch pays the round trip once.
+     */
+    private final class RoundTripBalanceStore implements BalanceStore {
+
+        private final InMemoryBalanceStore balances;
+
+        RoundTripBalanceStore(InMemoryBalanceStore balances) {
+            this.balances = balances;
+        }
+
+        @Override
+        public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+            return balances.debit(type, msisdn, usage);
+        }
+
+        @Override
+        public CompletableFuture<VoltDebitResult> debitAsync(BalanceType type, String msisdn, int usage) {
+            CompletableFuture<VoltDebitResult> result = new CompletableFuture<>();
+            voltdb.schedule(() -> result.complete(balances.debit(type, msisdn, usage)), roundTripNanos, TimeUnit.NANOSECONDS);
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<List<DebitOutcome>> debitBatchAsync(BalanceType[] types, String[] msisdns, int[] usages) {
+            CompletableFuture<List<DebitOutcome>> result = new CompletableFuture<>();
+            voltdb.schedule(() -> result.complete(balances.debitBatch(types, msisdns, usages)), roundTripNanos, TimeUnit.NANOSECONDS);
+            return result;
+        }
+
+        @Override
+        public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+            return balances.refund(msisdns, balanceTypes, amounts, used, periodStarts);
+        }
+
+        @Override
+        public VoltPackageDetails getPackageDetails(int packageId) {
+            return balances.getPackageDetails(packageId);
+        }
+
+        @Override
+        public UserDetails getUserDetails(String msisdn) {
+            return balances.getUserDetails(msisdn);
+        }
+
+        @Override
+        public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+            return balances.getSubscriberSnapshot(msisdn);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create("IngestionBenchmark",
+                ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        voltdb = Executors.newScheduledThreadPool(4);
+        chargingExecutor = new ChargingExecutor(WORKERS, TRANSACTIONS);
+
+        String[] msisdns = new String[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            msisdns[i] = String.valueOf(5_000_000_000L + i);
+        }
+        InMemoryBalanceStore balances = new InMemoryBalanceStore(msisdns);
+        BalanceCalculator calculator = BalanceCalculator.builder()
+                .balanceStore(new RoundTripBalanceStore(balances))
+                .eventSink(new NoOpChargingEventSink() {
+                    @Override
+                    public void sendUpdatedBalance(BalanceType type, String msisdn, int updatedBalance) {
+                        completed.countDown();
+                    }
+                })
+                .thresholdState(new ThresholdNotificationState(null))
+                .packageCatalog(new PackageCatalog(balances, TimeUnit.HOURS.toMillis(1)))
+                .subscriberCache(new SubscriberCache(balances, TimeUnit.MINUTES.toMillis(10), SUBSCRIBERS))
+                .executor(chargingExecutor)
+                .mode(ChargingMode.ASYNC)
+                .build();
+
+        if ("stream".equals(ingestion)) {
+            chargingStream = new ChargingStream(system, calculator, WORKERS, 100, Duration.ofMillis(5), 256);
+        } else {
+            router = system.actorOf(new ConsistentHashingPool(WORKERS)
+                    .withHashMapper(ChargingActor.hashMapper)
+                    .props(ChargingActor.props(calculator, chargingExecutor)), "ChargingActor");
+        }
+
+        Object[] generated = new Object[TRANSACTIONS];
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            generated[i] = new DataTransaction(0, msisdns[(int) ((i * 7919L) % SUBSCRIBERS)], 1, 10, 1);
+        }
+        transactions = List.of(generated);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+        voltdb.shutdownNow();
+        chargingExecutor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void charge() throws InterruptedException {
+        completed = new CountDownLatch(TRANSACTIONS);
+        if (chargingStream != null) {
+            Source.from(transactions).runWith(chargingStream.sink(ActorRef.noSender()), system);
+        } else {
+            for (Object transaction : transactions) {
+                router.tell(transaction, ActorRef.noSender());
+            }
+        }
+        completed.await();
+    }
+}
@@ -0,0 +1,74 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import com.i2i.evrencell.CHF.journal.FsyncPolicy;
+import com.i2i.evrencell.CHF.journal.TransactionJournal;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Journaled charges per second of the {@link TransactionJournal} for 1 and 8 charging threads: every
+ * operation appends a data charge as accepted and journals it as completed, what CHF adds to each charge
+ * with chf.journal enabled. The journal lives in a temporary directory, segments roll and are deleted
+ * during the run. With INTERVAL the flusher forces the segment in the background, the difference to
+ * NEVER is the cost of sharing the disk with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JournalBenchmark {
+
+    @Param({"NEVER", "INTERVAL"})
+    public FsyncPolicy fsync;
+
+    @Param({"67108864"})
+    public int segmentSize;
+
+    private final ChargeRequest request = new ChargeRequest(1L << 40, BalanceType.DATA, "5551234567", 25, null, 3, 2);
+    private Path directory;
+    private TransactionJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("chf-journal-benchmark");
+        journal = new TransactionJournal(directory, segmentSize, fsync, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long appendAndCompleteOneThread() {
+        return appendAndComplete();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long appendAndCompleteEightThreads() {
+        return appendAndComplete();
+    }
+
+    private long appendAndComplete() {
+        long sequence = journal.append(request);
+        journal.complete(sequence, 1);
+        return sequence;
+    }
+}
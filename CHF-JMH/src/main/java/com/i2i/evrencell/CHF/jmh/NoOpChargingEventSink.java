@@ -0,0 +1,24 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.kafka.ChargingEventSink;
+import com.i2i.evrencell.kafka.message.BalanceType;
+
+import java.sql.Timestamp;
+
+/**
+ * Drops every event, so a benchmark measures the charging path without a Kafka producer.
+ */
+class NoOpChargingEventSink implements ChargingEventSink {
+
+    @Override
+    public void sendUsageRecord(BalanceType type, String callerMsisdn, String calleeMsisdn, Integer usageDuration, Timestamp usageDate) {
+    }
+
+    @Override
+    public void sendUpdatedBalance(BalanceType type, String msisdn, int updatedBalance) {
+    }
+
+    @Override
+    public void sendNotification(String name, String lastname, String msisdn, String email, BalanceType type, Integer amount, String threshold, Timestamp notificationTime) {
+    }
+}
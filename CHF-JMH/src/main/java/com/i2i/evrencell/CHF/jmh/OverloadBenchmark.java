@@ -0,0 +1,94 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import akka.routing.ConsistentHashingPool;
+import com.i2i.evrencell.CHF.akka.ChargingActor;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.execution.AdmissionController;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency a sender sees from CHF when 256 senders offer far more concurrent charges than the 16 shards
+ * can run against a simulated VoltDB round trip. Without admission control every charge waits behind the
+ * earlier charges of its shard; with it the excess is answered with OVERLOADED at once and the admitted
+ * charges stay close to the round trip, so the high percentiles of the sample show whether latency
+ * degrades gracefully.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(256)
+@Fork(1)
+public class OverloadBenchmark {
+
+    private static final int SUBSCRIBERS = 100_000;
+
+    @Param({"off", "on"})
+    public String admission;
+
+    @Param({"1000000"})
+    public long roundTripNanos;
+
+    private ActorSystem system;
+    private ActorRef router;
+    private ExecutorService ioExecutor;
+    private ChargingExecutor chargingExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create("OverloadBenchmark",
+                ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        ioExecutor = Executors.newCachedThreadPool();
+        chargingExecutor = new ChargingExecutor(32, 1024);
+
+        BalanceCalculator calculator = new BalanceCalculator(BalanceCalculator.builder().executor(chargingExecutor)) {
+            @Override
+            public CompletableFuture<ChargingResult> calculateDataRequest(DataTransaction dataMessage) {
+                long start = System.nanoTime();
+                return CompletableFuture.supplyAsync(() -> {
+                    LockSupport.parkNanos(roundTripNanos);
+                    return new ChargingResult(dataMessage.getTransactionId(), dataMessage.getMsisdn(), "DATA", ChargingResult.Outcome.GRANTED,
+                            dataMessage.getDataUsage(), System.nanoTime() - start);
+                }, ioExecutor);
+            }
+        };
+
+        AdmissionController admissionController = "on".equals(admission)
+                ? new AdmissionController(64, 16, 1024, 1.5)
+                : null;
+        router = system.actorOf(new ConsistentHashingPool(16)
+                .withHashMapper(ChargingActor.hashMapper)
+                .props(ChargingActor.props(calculator, chargingExecutor, admissionController)), "ChargingActor");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+        ioExecutor.shutdownNow();
+        chargingExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Object charge() throws Exception {
+        String msisdn = String.valueOf(5_000_000_000L + ThreadLocalRandom.current().nextInt(SUBSCRIBERS));
+        return Patterns.ask(router, new DataTransaction(0, msisdn, 1, 10, 1), Duration.ofSeconds(10))
+                .toCompletableFuture()
+                .get();
+    }
+}
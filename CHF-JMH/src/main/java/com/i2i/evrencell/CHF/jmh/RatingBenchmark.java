@@ -0,0 +1,59 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import com.i2i.evrencell.CHF.rating.RatingEngine;
+import com.i2i.evrencell.CHF.rating.TariffTable;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nanoseconds per rating against the packaged tariff, for the three balance types. Locations, rating
+ * groups and usages are drawn like TGF does, so zone, rating group and free-usage lookups all occur.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RatingBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"DATA", "VOICE", "SMS"})
+    public BalanceType type;
+
+    private RatingEngine ratingEngine;
+    private int[] locations;
+    private int[] ratingGroups;
+    private int[] usages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ratingEngine = new RatingEngine(TariffTable.compile(ConfigFactory.parseResources("tariff.conf").resolve()));
+
+        Random random = new Random(42);
+        locations = new int[SAMPLES];
+        ratingGroups = new int[SAMPLES];
+        usages = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            locations[i] = 1 + random.nextInt(9);
+            ratingGroups[i] = 1 + random.nextInt(5);
+            usages[i] = switch (type) {
+                case DATA -> 1 + random.nextInt(49);
+                case VOICE -> 5 + random.nextInt(115);
+                case SMS -> 1;
+            };
+        }
+    }
+
+    @Benchmark
+    public int rate() {
+        int i = next++ & (SAMPLES - 1);
+        return ratingEngine.rate(type, locations[i], ratingGroups[i], usages[i]);
+    }
+}
@@ -0,0 +1,82 @@
+package com.i2i.evrencell.CHF.jmh;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.SerializerWithStringManifest;
+import akka.serialization.jackson.JacksonJsonSerializer;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.VoiceTransaction;
+import org.sk.i2i.evren.serialization.TransactionSerializer;
+
+import java.io.NotSerializableException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary {@link TransactionSerializer} with the Jackson JSON serializer it replaced for the
+ * messages TGF and CHF exchange per transaction. The size of every message is printed at setup, the
+ * scores are the time to serialize and to deserialize one message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+    // shaped like the IDs of TGF: a random 24-bit prefix over a 40-bit counter
+    private static final long TRANSACTION_ID = (0x3A5F1CL << 40) | 123_456L;
+
+    @Param({"binary", "jackson"})
+    public String format;
+
+    @Param({"data", "voice", "sms", "result"})
+    public String message;
+
+    private ActorSystem system;
+    private SerializerWithStringManifest serializer;
+    private Object value;
+    private String manifest;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the transactions are bound to the binary serializer, Jackson has to be allowed to take them
+        system = ActorSystem.create("SerializationBenchmark",
+                ConfigFactory.parseString("akka.actor.provider = local\n"
+                                + "akka.serialization.jackson.allowed-class-prefix = [\"org.sk.i2i.evren\"]")
+                        .withFallback(ConfigFactory.load()));
+        serializer = "jackson".equals(format)
+                ? new JacksonJsonSerializer((ExtendedActorSystem) system, "jackson-json")
+                : new TransactionSerializer();
+
+        value = switch (message) {
+            case "data" -> new DataTransaction(TRANSACTION_ID, "5321234567", 4, 37, 2);
+            case "voice" -> new VoiceTransaction(TRANSACTION_ID, "5321234567", "5427654321", 4, 87);
+            case "sms" -> new SmsTransaction(TRANSACTION_ID, "5321234567", "5427654321", 4);
+            default -> new ChargingResult(TRANSACTION_ID, "5321234567", "DATA", ChargingResult.Outcome.GRANTED, 37, 412_000);
+        };
+        manifest = serializer.manifest(value);
+        bytes = serializer.toBinary(value);
+        System.out.println(format + " " + message + ": " + bytes.length + " bytes per message");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.toBinary(value);
+    }
+
+    @Benchmark
+    public Object deserialize() throws NotSerializableException {
+        return serializer.fromBinary(bytes, manifest);
+    }
+}
@@ -2,16 +2,276 @@ package com.i2i.evrencell.CHF;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
-import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.routing.ConsistentHashingPool;
 import com.i2i.evrencell.CHF.akka.ChargingActor;
+import com.i2i.evrencell.CHF.akka.ChargingShardExtractor;
+import com.i2i.evrencell.CHF.akka.IngressActor;
+import com.i2i.evrencell.CHF.akka.IngressCounters;
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
 import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.calculator.ChargingMode;
+import com.i2i.evrencell.CHF.dedup.DedupWindow;
+import com.i2i.evrencell.CHF.execution.AdmissionController;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.i2i.evrencell.CHF.journal.FsyncPolicy;
+import com.i2i.evrencell.CHF.journal.JournalEntry;
+import com.i2i.evrencell.CHF.journal.TransactionJournal;
+import com.i2i.evrencell.CHF.kafka.KafkaChargingEventSink;
+import com.i2i.evrencell.CHF.kafka.KafkaOperations;
+import com.i2i.evrencell.CHF.metrics.ChargingLatencies;
+import com.i2i.evrencell.CHF.metrics.MetricsHttpServer;
+import com.i2i.evrencell.CHF.quota.QuotaCache;
+import com.i2i.evrencell.CHF.rating.RatingEngine;
+import com.i2i.evrencell.CHF.renewal.BalanceRenewalScheduler;
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.store.VoltBalanceStore;
+import com.i2i.evrencell.CHF.stream.ChargingStream;
+import com.i2i.evrencell.CHF.stream.ChargingStreamEndpoint;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import com.i2i.evrencell.CHF.warmup.WarmUp;
+import com.i2i.evrencell.kafka.message.BalanceType;
 import com.i2i.evrencell.voltdb.VoltdbOperator;
+import com.i2i.evrencell.voltdb.VoltdbOperator2;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Main {
 
-    public static void main(String[] args) {
-        BalanceCalculator balanceCalculator = new BalanceCalculator(new VoltdbOperator());
-        ActorSystem system = ActorSystem.create("ChargingSystem");
-        ActorRef actor = system.actorOf(Props.create(ChargingActor.class), "ChargingActor");
+    private static final Logger logger = Logger.getLogger(Main.class);
+
+    static final String SHARDING_TYPE = "Charging";
+    static final String CHARGING_ROLE = "charging";
+
+    public static void main(String[] args) throws IOException {
+        Config rootConfig = ConfigFactory.load();
+        Config clusterConfig = rootConfig.getConfig("chf.cluster");
+        boolean clustered = clusterConfig.getBoolean("enabled");
+        String role = clusterConfig.getString("role");
+        if (clustered) {
+            rootConfig = ConfigFactory.parseMap(Map.of(
+                    "akka.actor.provider", "cluster",
+                    "akka.cluster.roles", List.of(role))).withFallback(rootConfig);
+        }
+
+        ActorSystem system = ActorSystem.create("ChargingSystem", rootConfig);
+        Config config = system.settings().config().getConfig("chf.charging");
+
+        IngressCounters ingressCounters = new IngressCounters();
+        ingressCounters.registerMBean();
+
+        // set once the node accepts transactions, reported on /ready of the metrics server
+        AtomicBoolean ready = new AtomicBoolean();
+        Config metricsConfig = system.settings().config().getConfig("chf.metrics");
+        if (metricsConfig.getBoolean("enabled")) {
+            ChargingLatencies.startSnapshots(metricsConfig.getDuration("interval", TimeUnit.MILLISECONDS));
+            MetricsHttpServer metricsServer = new MetricsHttpServer(metricsConfig.getInt("port"), ready::get);
+            metricsServer.start();
+            system.registerOnTermination(() -> {
+                metricsServer.stop();
+                ChargingLatencies.stopSnapshots();
+            });
+        }
+
+        ChargingShardExtractor shardExtractor = new ChargingShardExtractor(clusterConfig.getInt("shards"), clusterConfig.getInt("entities"));
+        if (clustered && !CHARGING_ROLE.equals(role)) {
+            // a proxy node does not charge, it only needs the way to the charging nodes
+            ActorRef region = ClusterSharding.get(system).startProxy(SHARDING_TYPE, Optional.of(CHARGING_ROLE), shardExtractor);
+            system.actorOf(IngressActor.props(region, ingressCounters), "ChargingActor");
+            Cluster.get(system).registerOnMemberUp(() -> {
+                ready.set(true);
+                logger.info("CHF proxy is ready");
+            });
+            return;
+        }
+
+        ChargingExecutor chargingExecutor = new ChargingExecutor(
+                config.getInt("workers"),
+                config.getInt("max-in-flight"));
+        chargingExecutor.registerMBean();
+        system.registerOnTermination(chargingExecutor::shutdown);
+
+        AdmissionController admissionController = createAdmissionController(
+                system.settings().config().getConfig("chf.admission"), config.getInt("max-in-flight"));
+        if (admissionController != null) {
+            admissionController.registerMBean();
+        }
+
+        ChargingMode chargingMode = config.getEnum(ChargingMode.class, "mode");
+        BalanceStore voltBalanceStore = new VoltBalanceStore(new VoltdbOperator(),
+                chargingMode == ChargingMode.ASYNC ? new VoltdbOperator2() : null);
+        BalanceStore balanceStore = voltBalanceStore;
+        QuotaCache quotaCache = createQuotaCache(system.settings().config().getConfig("chf.quota"), voltBalanceStore);
+        if (quotaCache != null) {
+            system.registerOnTermination(quotaCache::close);
+            balanceStore = quotaCache;
+        }
+
+        Config thresholdConfig = system.settings().config().getConfig("chf.threshold");
+        ThresholdNotificationState thresholdState = new ThresholdNotificationState(Paths.get(thresholdConfig.getString("state-file")));
+        thresholdState.startSnapshots(thresholdConfig.getDuration("snapshot-interval", TimeUnit.MILLISECONDS));
+        system.registerOnTermination(thresholdState::close);
+
+        Config renewalConfig = system.settings().config().getConfig("chf.renewal");
+        if (renewalConfig.getBoolean("enabled")) {
+            BalanceRenewalScheduler renewalScheduler = new BalanceRenewalScheduler(balanceStore, thresholdState,
+                    renewalConfig.getInt("batch-size"),
+                    renewalConfig.getDuration("batch-pause", TimeUnit.MILLISECONDS),
+                    renewalConfig.getDuration("max-interval", TimeUnit.MILLISECONDS));
+            renewalScheduler.registerMBean();
+            renewalScheduler.start();
+            system.registerOnTermination(renewalScheduler::close);
+        }
+
+        Config balanceConfig = system.settings().config().getConfig("chf.balance-messages");
+        if (balanceConfig.getBoolean("coalesce")) {
+            KafkaOperations.coalesceBalanceMessages(
+                    balanceConfig.getDuration("window", TimeUnit.MILLISECONDS),
+                    balanceConfig.getInt("max-pending")).registerMBean();
+        }
+
+        Config cacheConfig = system.settings().config().getConfig("chf.cache");
+        PackageCatalog packageCatalog = new PackageCatalog(voltBalanceStore, cacheConfig.getDuration("package-ttl", TimeUnit.MILLISECONDS));
+        packageCatalog.getMetrics().registerMBean();
+        SubscriberCache subscriberCache = new SubscriberCache(voltBalanceStore, packageCatalog,
+                cacheConfig.getDuration("subscriber-ttl", TimeUnit.MILLISECONDS),
+                cacheConfig.getInt("subscriber-max-entries"));
+        subscriberCache.getMetrics().registerMBean();
+
+        Config ratingConfig = system.settings().config().getConfig("chf.rating");
+        RatingEngine ratingEngine = RatingEngine.identity();
+        if (ratingConfig.getBoolean("enabled")) {
+            ratingEngine = new RatingEngine(Paths.get(ratingConfig.getString("tariff-file")));
+            ratingEngine.startReloading(ratingConfig.getDuration("reload-interval", TimeUnit.MILLISECONDS));
+            system.registerOnTermination(ratingEngine::close);
+        }
+
+        Config dedupConfig = system.settings().config().getConfig("chf.dedup");
+        DedupWindow dedupWindow = null;
+        if (dedupConfig.getBoolean("enabled")) {
+            dedupWindow = new DedupWindow(dedupConfig.getDuration("window", TimeUnit.SECONDS),
+                    dedupConfig.getInt("capacity"), dedupConfig.getInt("stripes"));
+            dedupWindow.registerMBean();
+        }
+
+        TransactionJournal journal = createJournal(system.settings().config().getConfig("chf.journal"));
+        if (journal != null) {
+            journal.registerMBean();
+            system.registerOnTermination(journal::close);
+        }
+
+        BalanceCalculator balanceCalculator = BalanceCalculator.builder()
+                .balanceStore(balanceStore)
+                .eventSink(new KafkaChargingEventSink())
+                .thresholdState(thresholdState)
+                .packageCatalog(packageCatalog)
+                .subscriberCache(subscriberCache)
+                .executor(chargingExecutor)
+                .mode(chargingMode)
+                .ratingEngine(ratingEngine)
+                .dedupWindow(dedupWindow)
+                .journal(journal)
+                .build();
+
+        Config warmUpConfig = system.settings().config().getConfig("chf.warm-up");
+        if (warmUpConfig.getBoolean("enabled")) {
+            WarmUp warmUp = new WarmUp(voltBalanceStore, packageCatalog, subscriberCache);
+            CompletableFuture<Void> kafkaWarmUp = CompletableFuture.runAsync(warmUp::warmUpKafka);
+            warmUp.preload(warmUpConfig.getInt("preload-threads"), warmUpConfig.getInt("customer-range"));
+            warmUp.warmUpCharging(system, chargingExecutor, chargingMode, ratingEngine, warmUpConfig.getInt("charges"));
+            kafkaWarmUp.join();
+        }
+
+        if (journal != null) {
+            // transactions accepted before a crash without a result are charged before new ones
+            List<JournalEntry> recovered = journal.takeRecovered();
+            if (!recovered.isEmpty()) {
+                long start = System.nanoTime();
+                int replayed = balanceCalculator.replay(recovered).join();
+                logger.info("Replayed " + replayed + " journaled transactions in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        }
+
+        // both entry points are registered as "ChargingActor", so TGF's CHF.path works with either
+        Config ingestionConfig = system.settings().config().getConfig("chf.ingestion");
+        boolean streamIngestion = "STREAM".equalsIgnoreCase(ingestionConfig.getString("mode"));
+        if (streamIngestion && clustered) {
+            logger.warn("Stream ingestion charges on the receiving node only, cluster mode uses actor ingestion");
+            streamIngestion = false;
+        }
+
+        if (clustered) {
+            ActorRef region = ClusterSharding.get(system).start(SHARDING_TYPE,
+                    ChargingActor.props(balanceCalculator, chargingExecutor, admissionController),
+                    ClusterShardingSettings.create(system).withRole(CHARGING_ROLE),
+                    shardExtractor);
+            system.actorOf(IngressActor.props(region, ingressCounters), "ChargingActor");
+        } else if (streamIngestion) {
+            Config streamConfig = ingestionConfig.getConfig("stream");
+            ChargingStream chargingStream = new ChargingStream(system, balanceCalculator,
+                    streamConfig.getInt("partitions"),
+                    streamConfig.getInt("batch-size"),
+                    streamConfig.getDuration("batch-window"),
+                    streamConfig.getInt("producer-buffer"));
+            system.actorOf(ChargingStreamEndpoint.props(chargingStream, streamConfig.getInt("direct-buffer"), ingressCounters, admissionController), "ChargingActor");
+        } else {
+            ActorRef shards = system.actorOf(new ConsistentHashingPool(config.getInt("shards"))
+                    .withHashMapper(ChargingActor.hashMapper)
+                    .props(ChargingActor.props(balanceCalculator, chargingExecutor, admissionController)), "ChargingShards");
+            system.actorOf(IngressActor.props(shards, ingressCounters), "ChargingActor");
+        }
+        ready.set(true);
+        logger.info("CHF is ready");
+    }
+
+    private static TransactionJournal createJournal(Config config) throws IOException {
+        if (!config.getBoolean("enabled")) {
+            return null;
+        }
+        return new TransactionJournal(Paths.get(config.getString("directory")),
+                (int) config.getBytes("segment-size").longValue(),
+                config.getEnum(FsyncPolicy.class, "fsync"),
+                config.getDuration("fsync-interval", TimeUnit.MILLISECONDS));
+    }
+
+    private static AdmissionController createAdmissionController(Config config, int maxInFlight) {
+        if (!config.getBoolean("enabled")) {
+            return null;
+        }
+        return new AdmissionController(config.getInt("initial-limit"), config.getInt("min-limit"), maxInFlight,
+                config.getDouble("tolerance"));
+    }
+
+    private static QuotaCache createQuotaCache(Config config, BalanceStore store) {
+        if (!config.getBoolean("enabled")) {
+            return null;
+        }
+
+        Map<BalanceType, Integer> grantSizes = new EnumMap<>(BalanceType.class);
+        grantSizes.put(BalanceType.DATA, config.getInt("grant-size.data"));
+        grantSizes.put(BalanceType.VOICE, config.getInt("grant-size.voice"));
+        grantSizes.put(BalanceType.SMS, config.getInt("grant-size.sms"));
+
+        return new QuotaCache(store, grantSizes,
+                config.getDuration("validity", TimeUnit.MILLISECONDS),
+                config.getDuration("reservation-grace", TimeUnit.MILLISECONDS),
+                config.getDuration("idle-timeout", TimeUnit.MILLISECONDS),
+                config.getInt("max-grants"),
+                config.getDuration("sweep-interval", TimeUnit.MILLISECONDS));
     }
-}
\ No newline at end of file
+}
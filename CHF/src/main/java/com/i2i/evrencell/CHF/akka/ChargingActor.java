@@ -1,24 +1,82 @@
 package com.i2i.evrencell.CHF.akka;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.routing.ConsistentHashingRouter.ConsistentHashMapper;
 import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
-import com.i2i.evrencell.voltdb.VoltdbOperator;
+import com.i2i.evrencell.CHF.execution.AdmissionController;
+import com.i2i.evrencell.CHF.execution.ChargingExecutor;
+import com.i2i.evrencell.CHF.metrics.ChargingLatencies;
+import com.i2i.evrencell.CHF.metrics.Stage;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.ChargingResult.Outcome;
 import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.SmsTransaction;
 import org.sk.i2i.evren.VoiceTransaction;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
+/**
+ * One charging shard. The router in {@link com.i2i.evrencell.CHF.Main} sends every transaction of a
+ * subscriber to the same shard, and the shard runs its charges one after another, so charges for one
+ * MSISDN are applied in arrival order without any locking. In cluster mode the shards are sharded
+ * entities placed by {@link ChargingShardExtractor} instead.
+ *
+ * <p>A transaction over the limit of the {@link AdmissionController} is answered with
+ * {@link Outcome#OVERLOADED} right away. An admitted charge takes an in-flight slot from the
+ * {@link ChargingExecutor}; while no slot is free transactions are answered with {@link Outcome#REJECTED}
+ * just as fast, so the shard never waits and its mailbox stays short.
+ *
+ * <p>When a transaction has a sender, the shard answers it with a {@link ChargingResult} once the charge
+ * is finished or the transaction was rejected.
+ */
 public class ChargingActor extends AbstractActor {
 
+    public static final ConsistentHashMapper hashMapper = message -> {
+        if (message instanceof DataTransaction dataMessage) {
+            return dataMessage.getMsisdn();
+        } else if (message instanceof VoiceTransaction voiceMessage) {
+            return voiceMessage.getCallerMsisdn();
+        } else if (message instanceof SmsTransaction smsMessage) {
+            return smsMessage.getSenderMsisdn();
+        }
+        return null;
+    };
+
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
-    private final BalanceCalculator balanceCalculator = new BalanceCalculator(new VoltdbOperator());
+    private final BalanceCalculator balanceCalculator;
+    private final ChargingExecutor chargingExecutor;
+    private final AdmissionController admissionController;
 
+    private CompletableFuture<ChargingResult> lastCharge = CompletableFuture.completedFuture(null);
     private int count = 0;
 
+    public ChargingActor(BalanceCalculator balanceCalculator, ChargingExecutor chargingExecutor,
+                         AdmissionController admissionController) {
+        this.balanceCalculator = balanceCalculator;
+        this.chargingExecutor = chargingExecutor;
+        this.admissionController = admissionController;
+    }
+
+    public static Props props(BalanceCalculator balanceCalculator, ChargingExecutor chargingExecutor) {
+        return props(balanceCalculator, chargingExecutor, null);
+    }
+
+    /**
+     * @param admissionController null to admit every transaction the executor has a slot for
+     */
+    public static Props props(BalanceCalculator balanceCalculator, ChargingExecutor chargingExecutor,
+                              AdmissionController admissionController) {
+        return Props.create(ChargingActor.class, () -> new ChargingActor(balanceCalculator, chargingExecutor, admissionController))
+                .withDispatcher("charging-dispatcher")
+                .withMailbox("charging-mailbox");
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder().match(DataTransaction.class, this::handleDataMessage).match(SmsTransaction.class, this::handleSmsMessage).match(VoiceTransaction.class, this::handleVoiceMessage).matchAny(message -> log.warning("Received unknown message: {}", message)).build();
@@ -26,29 +84,65 @@ public class ChargingActor extends AbstractActor {
 
     private void handleDataMessage(DataTransaction dataMessage) {
         count++;
-        processTransaction(() -> balanceCalculator.calculateDataRequest(dataMessage), "Data message received. Total count: " + count);
+        processTransaction(dataMessage.getTransactionId(), BalanceType.DATA, dataMessage.getMsisdn(), () -> balanceCalculator.calculateDataRequest(dataMessage), "Data message received. Total count: " + count);
     }
 
     private void handleSmsMessage(SmsTransaction smsMessage) {
         count++;
-        processTransaction(() -> balanceCalculator.calculateSmsRequest(smsMessage), "SMS message received. Total count: " + count);
+        processTransaction(smsMessage.getTransactionId(), BalanceType.SMS, smsMessage.getSenderMsisdn(), () -> balanceCalculator.calculateSmsRequest(smsMessage), "SMS message received. Total count: " + count);
     }
 
     private void handleVoiceMessage(VoiceTransaction voiceMessage) {
         count++;
-        processTransaction(() -> balanceCalculator.calculateVoiceRequest(voiceMessage), "Voice message received. Total count: " + count);
+        processTransaction(voiceMessage.getTransactionId(), BalanceType.VOICE, voiceMessage.getCallerMsisdn(), () -> balanceCalculator.calculateVoiceRequest(voiceMessage), "Voice message received. Total count: " + count);
     }
 
-    private void processTransaction(Runnable calculationTask, String logMessage) {
-        Executor executor = getContext().dispatcher();
-        CompletableFuture<Void> future = CompletableFuture.runAsync(calculationTask, executor);
-
-        future.whenComplete((result, failure) -> {
-            if (failure != null) {
-                log.error("Failed to process transaction");
-            } else {
-                log.info(logMessage);
+    private void processTransaction(long transactionId, BalanceType type, String msisdn, Supplier<CompletableFuture<ChargingResult>> calculationTask, String logMessage) {
+        long received = System.nanoTime();
+        ActorRef replyTo = getSender() == getContext().getSystem().deadLetters() ? null : getSender();
+        if (admissionController != null && !admissionController.tryAcquire(type)) {
+            long shed = admissionController.getShedCount(type);
+            if (shed % 10_000 == 1) {
+                log.warning("CHF is overloaded, {} transaction shed. Total {} shed: {}", type, type, shed);
             }
-        });
+            reply(replyTo, new ChargingResult(transactionId, msisdn, type.name(), Outcome.OVERLOADED, 0, System.nanoTime() - received));
+            return;
+        }
+        if (!chargingExecutor.tryAcquire()) {
+            releaseAdmission(-1);
+            log.warning("Charging capacity exhausted, transaction rejected. Total rejected: {}", chargingExecutor.getRejectedCount());
+            reply(replyTo, new ChargingResult(transactionId, msisdn, type.name(), Outcome.REJECTED, 0, System.nanoTime() - received));
+            return;
+        }
+
+        // the reply is part of the chain, so results of a subscriber are sent in charging order
+        CompletableFuture<ChargingResult> charge = lastCharge.thenCompose(previous -> calculationTask.get())
+                .whenComplete((result, failure) -> {
+                    chargingExecutor.release();
+                    // measured from arrival, so the wait behind earlier charges of the shard counts too
+                    boolean measured = failure == null && (result == null || result.getOutcome() != Outcome.ERROR);
+                    releaseAdmission(measured ? System.nanoTime() - received : -1);
+                    if (failure != null) {
+                        log.error("Failed to process transaction");
+                        reply(replyTo, new ChargingResult(transactionId, msisdn, type.name(), Outcome.ERROR, 0, System.nanoTime() - received));
+                    } else {
+                        reply(replyTo, result);
+                        log.info(logMessage);
+                    }
+                });
+        lastCharge = charge.exceptionally(failure -> null);
+        ChargingLatencies.record(Stage.ACTOR_RECEIVE, type, received);
+    }
+
+    private void releaseAdmission(long chargeNanos) {
+        if (admissionController != null) {
+            admissionController.release(chargeNanos);
+        }
+    }
+
+    private void reply(ActorRef replyTo, ChargingResult result) {
+        if (replyTo != null) {
+            replyTo.tell(result, ActorRef.noSender());
+        }
     }
 }
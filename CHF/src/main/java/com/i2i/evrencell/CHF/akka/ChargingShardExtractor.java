@@ -0,0 +1,24 @@
+package com.i2i.evrencell.CHF.akka;
+
+import akka.cluster.sharding.ShardRegion;
+
+/**
+ * Places transactions on charging entities in cluster mode. The MSISDN of a transaction is hashed onto
+ * one of {@code entities} {@link ChargingActor}s, and the entities are spread over at most
+ * {@code maxShards} shards, which cluster sharding moves between nodes when nodes join or leave.
+ */
+public class ChargingShardExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+    private final int entities;
+
+    public ChargingShardExtractor(int maxShards, int entities) {
+        super(maxShards);
+        this.entities = entities;
+    }
+
+    @Override
+    public String entityId(Object message) {
+        Object msisdn = ChargingActor.hashMapper.hashKey(message);
+        return msisdn == null ? null : String.valueOf(Math.floorMod(msisdn.hashCode(), entities));
+    }
+}
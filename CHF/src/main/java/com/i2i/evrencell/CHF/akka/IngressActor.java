@@ -0,0 +1,48 @@
+package com.i2i.evrencell.CHF.akka;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import org.sk.i2i.evren.TransactionBatch;
+
+/**
+ * Remote entry point in front of the {@link ChargingActor} shards. A {@link TransactionBatch} is unpacked
+ * and every transaction is routed to its shard as if it had been sent alone, with the batch sender as
+ * sender so results still go back to it. Other messages are forwarded unchanged.
+ *
+ * <p>The ingress runs on a thread of its own, so unpacking a large batch does not hold up the shards.
+ */
+public class IngressActor extends AbstractActor {
+
+    private final ActorRef shards;
+    private final IngressCounters counters;
+
+    public IngressActor(ActorRef shards, IngressCounters counters) {
+        this.shards = shards;
+        this.counters = counters;
+    }
+
+    public static Props props(ActorRef shards, IngressCounters counters) {
+        return Props.create(IngressActor.class, () -> new IngressActor(shards, counters))
+                .withDispatcher("ingress-dispatcher")
+                .withMailbox("charging-mailbox");
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(TransactionBatch.class, this::unpack)
+                .matchAny(message -> {
+                    counters.single();
+                    shards.forward(message, getContext());
+                })
+                .build();
+    }
+
+    private void unpack(TransactionBatch batch) {
+        counters.batch(batch.size());
+        for (Object transaction : batch.getTransactions()) {
+            shards.tell(transaction, getSender());
+        }
+    }
+}
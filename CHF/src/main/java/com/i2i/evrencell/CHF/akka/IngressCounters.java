@@ -0,0 +1,60 @@
+package com.i2i.evrencell.CHF.akka;
+
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts transactions that arrived one per message and in {@link org.sk.i2i.evren.TransactionBatch}es,
+ * published over JMX as {@code com.i2i.evrencell.CHF:type=Ingress}. The average batch size shows how
+ * full the batches of TGF are at the current load.
+ */
+public class IngressCounters implements IngressCountersMBean {
+
+    private static final Logger logger = Logger.getLogger(IngressCounters.class);
+
+    private final LongAdder singles = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedTransactions = new LongAdder();
+
+    public void single() {
+        singles.increment();
+    }
+
+    public void batch(int size) {
+        batches.increment();
+        batchedTransactions.add(size);
+    }
+
+    @Override
+    public long getSingleTransactionCount() {
+        return singles.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getBatchedTransactionCount() {
+        return batchedTransactions.sum();
+    }
+
+    @Override
+    public double getAverageBatchSize() {
+        long batchCount = batches.sum();
+        return batchCount == 0 ? 0 : (double) batchedTransactions.sum() / batchCount;
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=Ingress"));
+        } catch (Exception e) {
+            logger.warn("Could not register Ingress MBean", e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.i2i.evrencell.CHF.akka;
+
+public interface IngressCountersMBean {
+
+    long getSingleTransactionCount();
+
+    long getBatchCount();
+
+    long getBatchedTransactionCount();
+
+    double getAverageBatchSize();
+}
@@ -0,0 +1,66 @@
+package com.i2i.evrencell.CHF.cache;
+
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Hit and miss counters of one CHF cache, published over JMX as
+ * {@code com.i2i.evrencell.CHF:type=Cache,name=<name>}.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    private static final Logger logger = Logger.getLogger(CacheMetrics.class);
+
+    private final String name;
+    private final IntSupplier size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CacheMetrics(String name, IntSupplier size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=Cache,name=" + name));
+        } catch (Exception e) {
+            logger.warn("Could not register " + name + " cache MBean", e);
+        }
+    }
+}
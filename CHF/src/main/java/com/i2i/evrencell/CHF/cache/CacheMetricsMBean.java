@@ -0,0 +1,12 @@
+package com.i2i.evrencell.CHF.cache;
+
+public interface CacheMetricsMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    int getSize();
+}
@@ -0,0 +1,81 @@
+package com.i2i.evrencell.CHF.cache;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package definitions by package ID. A definition is read from VoltDB the first time it is needed and
+ * again after {@code ttlMillis}, so a changed tariff is picked up without a restart.
+ */
+public class PackageCatalog {
+
+    private final BalanceStore store;
+    private final long ttlMillis;
+    private final Map<Integer, Entry> packages = new ConcurrentHashMap<>();
+    private final CacheMetrics metrics = new CacheMetrics("PackageCatalog", packages::size);
+
+    private record Entry(VoltPackageDetails details, long loadedAt) {
+    }
+
+    public PackageCatalog(BalanceStore store, long ttlMillis) {
+        this.store = store;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public VoltPackageDetails get(int packageId) {
+        long now = System.currentTimeMillis();
+        Entry entry = packages.get(packageId);
+        if (entry != null && now - entry.loadedAt() < ttlMillis) {
+            metrics.hit();
+            return entry.details();
+        }
+
+        metrics.miss();
+        entry = new Entry(store.getPackageDetails(packageId), now);
+        packages.put(packageId, entry);
+        return entry.details();
+    }
+
+    /**
+     * @return whether the package is cached and has not expired, so {@link #get} will not read it
+     */
+    public boolean isFresh(int packageId) {
+        Entry entry = packages.get(packageId);
+        return entry != null && System.currentTimeMillis() - entry.loadedAt() < ttlMillis;
+    }
+
+    /**
+     * Amount of the given balance type that the package grants per period.
+     */
+    public int packageAmount(int packageId, BalanceType type) {
+        VoltPackageDetails details = get(packageId);
+        return switch (type) {
+            case DATA -> details.amountData();
+            case VOICE -> details.amountMinutes();
+            case SMS -> details.amountSms();
+        };
+    }
+
+    /**
+     * Adds package definitions read in bulk, e.g. all packages at startup.
+     */
+    public void putAll(Map<Integer, VoltPackageDetails> details) {
+        long now = System.currentTimeMillis();
+        details.forEach((packageId, packageDetails) -> packages.put(packageId, new Entry(packageDetails, now)));
+    }
+
+    /**
+     * Adds a package definition read along with something else, e.g. a subscriber snapshot.
+     */
+    public void put(int packageId, VoltPackageDetails details) {
+        packages.put(packageId, new Entry(details, System.currentTimeMillis()));
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,150 @@
+package com.i2i.evrencell.CHF.cache;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Subscriber details (name, e-mail and package ID) by MSISDN, used when a usage notification is sent.
+ *
+ * <p>Entries expire after {@code ttlMillis}. Every charge reports the package ID of the subscriber, and
+ * an entry with a different package ID is dropped and read again, so a package change is seen on the
+ * next charge.
+ *
+ * <p>The entries are kept in striped LRU maps, each holding its share of {@code maxEntries}. A new entry
+ * in a full stripe pushes out the least recently used one, so a full cache costs no more per miss than an
+ * empty one and still caches every subscriber that was read.
+ *
+ * <p>With a {@link PackageCatalog} a missing subscriber is read as a subscriber snapshot, which also
+ * brings the definition of its package into the catalog, so both are read in one call.
+ */
+public class SubscriberCache {
+
+    private static final int STRIPES = 64;
+
+    private final BalanceStore store;
+    private final PackageCatalog packageCatalog;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final CacheMetrics metrics = new CacheMetrics("SubscriberCache", this::size);
+
+    private record Entry(UserDetails details, long loadedAt) {
+    }
+
+    // entries in access order, the first one is the least recently used
+    private static final class Stripe {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private Entry get(String msisdn) {
+            return entries.get(msisdn);
+        }
+
+        private void put(String msisdn, Entry entry) {
+            entries.put(msisdn, entry);
+            if (entries.size() > capacity) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    public SubscriberCache(BalanceStore store, long ttlMillis, int maxEntries) {
+        this(store, null, ttlMillis, maxEntries);
+    }
+
+    /**
+     * @param packageCatalog catalog that gets the package of every subscriber read, or null to read only
+     *                       the subscriber details
+     */
+    public SubscriberCache(BalanceStore store, PackageCatalog packageCatalog, long ttlMillis, int maxEntries) {
+        this.store = store;
+        this.packageCatalog = packageCatalog;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        int stripeCapacity = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * @param packageId package ID reported by the charge, a cached entry for another package is reloaded
+     */
+    public UserDetails get(String msisdn, int packageId) {
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripe(msisdn);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(msisdn);
+        }
+        if (entry != null && now - entry.loadedAt() < ttlMillis && entry.details().getPackageId() == packageId) {
+            metrics.hit();
+            return entry.details();
+        }
+
+        metrics.miss();
+        UserDetails details = load(msisdn);
+        synchronized (stripe) {
+            stripe.put(msisdn, new Entry(details, now));
+        }
+        return details;
+    }
+
+    private Stripe stripe(String msisdn) {
+        int hash = msisdn.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private UserDetails load(String msisdn) {
+        if (packageCatalog == null) {
+            return store.getUserDetails(msisdn);
+        }
+        VoltSubscriberSnapshot snapshot = store.getSubscriberSnapshot(msisdn);
+        packageCatalog.put(snapshot.packageId(), snapshot.packageDetails());
+        return snapshot.userDetails();
+    }
+
+    /**
+     * Adds subscriber details read in bulk, e.g. at startup. Subscribers beyond the maximum number of
+     * entries are left out and read on their first charge.
+     *
+     * @return number of subscribers added
+     */
+    public int putAll(Map<String, UserDetails> details) {
+        long now = System.currentTimeMillis();
+        int added = 0;
+        for (Map.Entry<String, UserDetails> subscriber : details.entrySet()) {
+            if (added >= maxEntries) {
+                break;
+            }
+            Stripe stripe = stripe(subscriber.getKey());
+            synchronized (stripe) {
+                stripe.put(subscriber.getKey(), new Entry(subscriber.getValue(), now));
+            }
+            added++;
+        }
+        return added;
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+}
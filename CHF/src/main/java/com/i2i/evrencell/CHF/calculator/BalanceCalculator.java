@@ -1,89 +1,493 @@
 package com.i2i.evrencell.CHF.calculator;
 
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
+import com.i2i.evrencell.CHF.dedup.DedupWindow;
+import com.i2i.evrencell.CHF.journal.JournalEntry;
+import com.i2i.evrencell.CHF.journal.TransactionJournal;
+import com.i2i.evrencell.CHF.kafka.ChargingEventSink;
+import com.i2i.evrencell.CHF.metrics.ChargingLatencies;
+import com.i2i.evrencell.CHF.metrics.Stage;
+import com.i2i.evrencell.CHF.rating.RatingEngine;
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.store.DebitOutcome;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
 import com.i2i.evrencell.kafka.message.BalanceType;
 import com.i2i.evrencell.voltdb.UserDetails;
-import com.i2i.evrencell.voltdb.VoltdbOperator;
+import com.i2i.evrencell.voltdb.VoltCallRejectedException;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
 import org.apache.log4j.Logger;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.ChargingResult.Outcome;
 import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.SmsTransaction;
 import org.sk.i2i.evren.VoiceTransaction;
 
 import java.sql.Timestamp;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import static com.i2i.evrencell.CHF.kafka.KafkaOperations.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 public class BalanceCalculator {
 
     private static final Logger logger = Logger.getLogger(BalanceCalculator.class);
+    private static final int DUPLICATE_UNITS = -1;
+    private static final int REPLAY_BATCH_SIZE = 100;
 
-    private final VoltdbOperator voltdbOperator;
-    private final Map<String, Boolean> threshold80SentMap = new HashMap<>();
-    private final Map<String, Boolean> threshold100SentMap = new HashMap<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final BalanceStore balanceStore;
+    private final ChargingEventSink eventSink;
+    private final ThresholdNotificationState thresholdState;
+    private final PackageCatalog packageCatalog;
+    private final SubscriberCache subscriberCache;
+    private final Executor executor;
+    private final ChargingMode mode;
+    private final RatingEngine ratingEngine;
+    private final DedupWindow dedupWindow;
+    private final TransactionJournal journal;
 
-    public BalanceCalculator(VoltdbOperator voltdbOperator) {
-        this.voltdbOperator = voltdbOperator;
+    /**
+     * Use {@link #builder()}, or this constructor from a subclass.
+     */
+    public BalanceCalculator(Builder builder) {
+        this.balanceStore = builder.balanceStore;
+        this.eventSink = builder.eventSink;
+        this.thresholdState = builder.thresholdState;
+        this.packageCatalog = builder.packageCatalog;
+        this.subscriberCache = builder.subscriberCache;
+        this.executor = builder.executor;
+        this.mode = builder.mode;
+        this.ratingEngine = builder.ratingEngine;
+        this.dedupWindow = builder.dedupWindow;
+        this.journal = builder.journal;
     }
 
-    public void calculateDataRequest(DataTransaction dataMessage) {
-        processRequest(BalanceType.DATA, dataMessage.getMsisdn(), dataMessage.getDataUsage());
+    public static Builder builder() {
+        return new Builder();
     }
 
-    public void calculateVoiceRequest(VoiceTransaction voiceMessage) {
-        processRequest(BalanceType.VOICE, voiceMessage.getCallerMsisdn(), voiceMessage.getDuration(), voiceMessage.getCalleeMsisdn());
+    /**
+     * Parts of a {@link BalanceCalculator}. The mode is {@link ChargingMode#BLOCKING} and the rating
+     * engine {@link RatingEngine#identity()} unless set, a calculator without dedup window or journal
+     * charges every transaction and keeps no journal.
+     */
+    public static class Builder {
+        private BalanceStore balanceStore;
+        private ChargingEventSink eventSink;
+        private ThresholdNotificationState thresholdState;
+        private PackageCatalog packageCatalog;
+        private SubscriberCache subscriberCache;
+        private Executor executor;
+        private ChargingMode mode = ChargingMode.BLOCKING;
+        private RatingEngine ratingEngine = RatingEngine.identity();
+        private DedupWindow dedupWindow;
+        private TransactionJournal journal;
+
+        private Builder() {
+        }
+
+        /**
+         * @param balanceStore store the balances are debited from, VoltDB or local quota grants in front of it
+         */
+        public Builder balanceStore(BalanceStore balanceStore) {
+            this.balanceStore = balanceStore;
+            return this;
+        }
+
+        /**
+         * @param eventSink receives the usage record, balance and notification events of every charge
+         */
+        public Builder eventSink(ChargingEventSink eventSink) {
+            this.eventSink = eventSink;
+            return this;
+        }
+
+        public Builder thresholdState(ThresholdNotificationState thresholdState) {
+            this.thresholdState = thresholdState;
+            return this;
+        }
+
+        public Builder packageCatalog(PackageCatalog packageCatalog) {
+            this.packageCatalog = packageCatalog;
+            return this;
+        }
+
+        public Builder subscriberCache(SubscriberCache subscriberCache) {
+            this.subscriberCache = subscriberCache;
+            return this;
+        }
+
+        /**
+         * @param executor runs the blocking debits in {@link ChargingMode#BLOCKING} mode and the work after
+         *                 the debit in {@link ChargingMode#ASYNC} mode, which keeps it off the VoltDB
+         *                 callback thread
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder mode(ChargingMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param ratingEngine turns the usage of a transaction into the balance units that are debited
+         */
+        public Builder ratingEngine(RatingEngine ratingEngine) {
+            this.ratingEngine = ratingEngine;
+            return this;
+        }
+
+        /**
+         * @param dedupWindow drops transactions whose ID was already charged, null to charge every transaction
+         */
+        public Builder dedupWindow(DedupWindow dedupWindow) {
+            this.dedupWindow = dedupWindow;
+            return this;
+        }
+
+        /**
+         * @param journal records every charge before it runs until it has a result, null to charge without
+         *                a journal
+         */
+        public Builder journal(TransactionJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        public BalanceCalculator build() {
+            return new BalanceCalculator(this);
+        }
     }
 
-    public void calculateSmsRequest(SmsTransaction smsMessage) {
-        processRequest(BalanceType.SMS, smsMessage.getSenderMsisdn(), 1, smsMessage.getReceiverMsisdn());
+    public CompletableFuture<ChargingResult> calculateDataRequest(DataTransaction dataMessage) {
+        return journaled(dataMessage, () -> {
+            int units = ratingEngine.rate(BalanceType.DATA, dataMessage.getLocation(), dataMessage.getRatingGroup(), dataMessage.getDataUsage());
+            return processRequest(dataMessage.getTransactionId(), BalanceType.DATA, dataMessage.getMsisdn(), units);
+        });
+    }
+
+    public CompletableFuture<ChargingResult> calculateVoiceRequest(VoiceTransaction voiceMessage) {
+        return journaled(voiceMessage, () -> {
+            int units = ratingEngine.rate(BalanceType.VOICE, voiceMessage.getLocation(), 0, voiceMessage.getDuration());
+            return processRequest(voiceMessage.getTransactionId(), BalanceType.VOICE, voiceMessage.getCallerMsisdn(), units, voiceMessage.getCalleeMsisdn());
+        });
+    }
+
+    public CompletableFuture<ChargingResult> calculateSmsRequest(SmsTransaction smsMessage) {
+        return journaled(smsMessage, () -> {
+            int units = ratingEngine.rate(BalanceType.SMS, smsMessage.getLocation(), 0, 1);
+            return processRequest(smsMessage.getTransactionId(), BalanceType.SMS, smsMessage.getSenderMsisdn(), units, smsMessage.getReceiverMsisdn());
+        });
+    }
+
+    /**
+     * Journals the transaction as accepted, runs the charge once the journal has it and journals it as
+     * completed when the charge has a result. A transaction the journal cannot take is not charged.
+     */
+    private CompletableFuture<ChargingResult> journaled(Object transaction, Supplier<CompletableFuture<ChargingResult>> charge) {
+        if (journal == null) {
+            return charge.get();
+        }
+
+        ChargeRequest request = ChargeRequest.of(transaction);
+        long sequence;
+        try {
+            sequence = journal.append(request);
+        } catch (RuntimeException e) {
+            logger.error("Could not journal transaction of " + request.msisdn() + ": " + e.getMessage(), e);
+            return CompletableFuture.completedFuture(chargingResult(request.transactionId(), request.type(), request.msisdn(), Outcome.ERROR, 0, System.nanoTime()));
+        }
+        return journal.whenDurable(sequence)
+                .thenCompose(durable -> charge.get())
+                .whenComplete((result, failure) -> journal.complete(sequence, 1));
     }
 
-    private void processRequest(BalanceType type, String msisdn, int usage, String... otherMsisdn) {
-        CompletableFuture.supplyAsync(() -> getUserBalance(type, msisdn), executor).thenAccept(userBalance -> {
-            if (userBalance >= usage) {
-                int updatedBalance = userBalance - usage;
-                updateUserBalance(type, msisdn, updatedBalance, otherMsisdn);
-                sendUpdatedBalanceMessage(type, msisdn, updatedBalance);
-                checkUsageThreshold(type, msisdn, updatedBalance);
-            } else {
-                logger.warn("Insufficient balance: Requested " + usage + " but only " + userBalance + " available for " + msisdn);
-                handlePartialUsage(type, msisdn, userBalance, usage, otherMsisdn);
+    /**
+     * @param usage rated balance units, free usage (0) is granted without touching the balance
+     */
+    private CompletableFuture<ChargingResult> processRequest(long transactionId, BalanceType type, String msisdn, int usage, String... otherMsisdn) {
+        long chargeStart = System.nanoTime();
+        if (isDuplicate(transactionId, msisdn)) {
+            return CompletableFuture.completedFuture(chargingResult(transactionId, type, msisdn, Outcome.DUPLICATE, 0, chargeStart));
+        }
+        if (usage == 0) {
+            return CompletableFuture.completedFuture(chargingResult(transactionId, type, msisdn, Outcome.GRANTED, 0, chargeStart));
+        }
+
+        CompletableFuture<VoltDebitResult> debit;
+        try {
+            debit = debitUserBalance(type, msisdn, usage);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Charging queue is full, transaction of " + msisdn + " rejected");
+            forget(transactionId);
+            return CompletableFuture.completedFuture(chargingResult(transactionId, type, msisdn, Outcome.REJECTED, 0, chargeStart));
+        }
+        return debit
+                .thenApply(debitResult -> onDebited(transactionId, type, msisdn, usage, debitResult, chargeStart, otherMsisdn))
+                .exceptionally(ex -> onDebitFailed(transactionId, type, msisdn, ex, chargeStart))
+                .whenComplete((result, failure) -> ChargingLatencies.record(Stage.CHARGE, type, chargeStart));
+    }
+
+    /**
+     * Charges a batch of requests with one balance store call. Requests are debited in list order, so
+     * charges of the same subscriber keep their order within and across batches of one caller. Free and
+     * duplicate requests are left out of the debit.
+     *
+     * @return one result per request, in list order
+     */
+    public CompletableFuture<List<ChargingResult>> calculateBatch(List<ChargeRequest> requests) {
+        if (journal == null || requests.isEmpty()) {
+            return chargeBatch(requests);
+        }
+
+        long first;
+        try {
+            first = journal.appendAll(requests);
+        } catch (RuntimeException e) {
+            logger.error("Could not journal batch of " + requests.size() + " requests: " + e.getMessage(), e);
+            long chargeStart = System.nanoTime();
+            List<ChargingResult> results = new ArrayList<>(requests.size());
+            for (ChargeRequest request : requests) {
+                results.add(chargingResult(request.transactionId(), request.type(), request.msisdn(), Outcome.ERROR, 0, chargeStart));
             }
+            return CompletableFuture.completedFuture(results);
+        }
+        return journal.whenDurable(first + requests.size() - 1)
+                .thenCompose(durable -> chargeBatch(requests))
+                .whenComplete((results, failure) -> journal.complete(first, requests.size()));
+    }
+
+    /**
+     * Charges the transactions the journal recovered at startup, in batches and in the order they were
+     * accepted, and journals each batch as completed.
+     */
+    public CompletableFuture<Integer> replay(List<JournalEntry> entries) {
+        CompletableFuture<Integer> replayed = CompletableFuture.completedFuture(0);
+        for (int from = 0; from < entries.size(); from += REPLAY_BATCH_SIZE) {
+            List<JournalEntry> batch = entries.subList(from, Math.min(from + REPLAY_BATCH_SIZE, entries.size()));
+            List<ChargeRequest> requests = batch.stream().map(JournalEntry::request).toList();
+            replayed = replayed.thenCompose(count -> chargeBatch(requests).thenApply(results -> {
+                for (JournalEntry entry : batch) {
+                    journal.complete(entry.sequence(), 1);
+                }
+                return count + results.size();
+            }));
+        }
+        return replayed;
+    }
+
+    private CompletableFuture<List<ChargingResult>> chargeBatch(List<ChargeRequest> requests) {
+        int size = requests.size();
+        // rated units, DUPLICATE_UNITS for requests that are dropped
+        int[] units = new int[size];
+        int debited = 0;
+        for (int i = 0; i < size; i++) {
+            ChargeRequest request = requests.get(i);
+            units[i] = isDuplicate(request.transactionId(), request.msisdn())
+                    ? DUPLICATE_UNITS
+                    : ratingEngine.rate(request.type(), request.location(), request.ratingGroup(), request.usage());
+            if (units[i] > 0) {
+                debited++;
+            }
+        }
+
+        BalanceType[] types = new BalanceType[debited];
+        String[] msisdns = new String[debited];
+        int[] usages = new int[debited];
+        for (int i = 0, d = 0; i < size; i++) {
+            if (units[i] > 0) {
+                ChargeRequest request = requests.get(i);
+                types[d] = request.type();
+                msisdns[d] = request.msisdn();
+                usages[d] = units[i];
+                d++;
+            }
+        }
+
+        long chargeStart = System.nanoTime();
+        CompletableFuture<List<DebitOutcome>> debit;
+        if (debited == 0) {
+            debit = CompletableFuture.completedFuture(List.of());
+        } else if (mode == ChargingMode.BLOCKING) {
+            try {
+                debit = CompletableFuture.supplyAsync(() -> balanceStore.debitBatch(types, msisdns, usages), executor);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Charging queue is full, batch of " + size + " requests rejected");
+                return CompletableFuture.completedFuture(failedBatch(requests, units, Outcome.REJECTED, chargeStart));
+            }
+        } else {
+            debit = balanceStore.debitBatchAsync(types, msisdns, usages).thenApplyAsync(debitOutcomes -> debitOutcomes, executor);
+        }
+
+        return debit.thenApply(debitOutcomes -> {
+            List<ChargingResult> results = new ArrayList<>(size);
+            for (int i = 0, d = 0; i < size; i++) {
+                ChargeRequest request = requests.get(i);
+                if (units[i] <= 0) {
+                    Outcome outcome = units[i] == DUPLICATE_UNITS ? Outcome.DUPLICATE : Outcome.GRANTED;
+                    results.add(chargingResult(request.transactionId(), request.type(), request.msisdn(), outcome, 0, chargeStart));
+                    continue;
+                }
+                ChargingLatencies.record(Stage.BALANCE_DEBIT, request.type(), chargeStart);
+                DebitOutcome debitOutcome = debitOutcomes.get(d++);
+                if (debitOutcome.failure() != null) {
+                    results.add(onDebitFailed(request.transactionId(), request.type(), request.msisdn(), debitOutcome.failure(), chargeStart));
+                    ChargingLatencies.record(Stage.CHARGE, request.type(), chargeStart);
+                    continue;
+                }
+                try {
+                    VoltDebitResult debitResult = debitOutcome.debitResult();
+                    if (request.otherMsisdn() != null) {
+                        results.add(onDebited(request.transactionId(), request.type(), request.msisdn(), units[i], debitResult, chargeStart, request.otherMsisdn()));
+                    } else {
+                        results.add(onDebited(request.transactionId(), request.type(), request.msisdn(), units[i], debitResult, chargeStart));
+                    }
+                } catch (RuntimeException e) {
+                    // the debit went through, the ID is kept so that a retry is not charged again
+                    logger.error("Error processing request: " + e.getMessage(), e);
+                    results.add(chargingResult(request.transactionId(), request.type(), request.msisdn(), Outcome.ERROR, 0, chargeStart));
+                }
+                ChargingLatencies.record(Stage.CHARGE, request.type(), chargeStart);
+            }
+            return results;
         }).exceptionally(ex -> {
-            logger.error("Error processing request: " + ex.getMessage(), ex);
-            return null;
+            Outcome outcome = failureOutcome(ex);
+            if (outcome == Outcome.ERROR) {
+                logger.error("Error processing batch of " + size + " requests: " + ex.getMessage(), ex);
+            }
+            return failedBatch(requests, units, outcome, chargeStart);
         });
     }
 
-    private int getUserBalance(BalanceType type, String msisdn) {
-        return switch (type) {
-            case DATA -> voltdbOperator.getDataBalance(msisdn);
-            case VOICE -> voltdbOperator.getVoiceBalance(msisdn);
-            case SMS -> voltdbOperator.getSmsBalance(msisdn);
-            default -> 0;
-        };
+    /**
+     * Results of a batch whose debit failed with {@code outcome}. The IDs are forgotten only when the
+     * debit was certainly not sent, see {@link #forget}.
+     */
+    private List<ChargingResult> failedBatch(List<ChargeRequest> requests, int[] units, Outcome outcome, long chargeStart) {
+        List<ChargingResult> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            ChargeRequest request = requests.get(i);
+            if (units[i] == DUPLICATE_UNITS) {
+                results.add(chargingResult(request.transactionId(), request.type(), request.msisdn(), Outcome.DUPLICATE, 0, chargeStart));
+                continue;
+            }
+            if (outcome != Outcome.ERROR) {
+                forget(request.transactionId());
+            }
+            results.add(chargingResult(request.transactionId(), request.type(), request.msisdn(), outcome, 0, chargeStart));
+        }
+        return results;
+    }
+
+    /**
+     * Result of a charge whose debit failed. The ID is forgotten only when the debit was certainly not
+     * sent, see {@link #forget}.
+     */
+    private ChargingResult onDebitFailed(long transactionId, BalanceType type, String msisdn, Throwable failure, long chargeStart) {
+        Outcome outcome = failureOutcome(failure);
+        if (outcome == Outcome.ERROR) {
+            logger.error("Error processing request of " + msisdn + ": " + failure.getMessage(), failure);
+        } else {
+            forget(transactionId);
+        }
+        return chargingResult(transactionId, type, msisdn, outcome, 0, chargeStart);
+    }
+
+    /**
+     * OVERLOADED when VoltDB was not called because too many calls were in flight, ERROR otherwise.
+     */
+    private static Outcome failureOutcome(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        return cause instanceof VoltCallRejectedException ? Outcome.OVERLOADED : Outcome.ERROR;
+    }
+
+    private boolean isDuplicate(long transactionId, String msisdn) {
+        if (dedupWindow == null || dedupWindow.firstSeen(transactionId)) {
+            return false;
+        }
+        logger.warn("Duplicate transaction " + transactionId + " for " + msisdn + " dropped");
+        return true;
+    }
+
+    /**
+     * Lets a transaction whose charge was not sent be charged when it is sent again. Only for failures
+     * where the balance store was certainly not called: the VoltDB call or the charging queue was
+     * rejected. After a timeout or a lost connection the debit may have committed, the ID is then kept
+     * and a retry stays a duplicate. Journal and admission rejections come before the dedup check and
+     * never record the ID.
+     */
+    private void forget(long transactionId) {
+        if (dedupWindow != null) {
+            dedupWindow.forget(transactionId);
+        }
+    }
+
+    private ChargingResult onDebited(long transactionId, BalanceType type, String msisdn, int usage, VoltDebitResult debitResult, long chargeStart, String... otherMsisdn) {
+        if (debitResult == null) {
+            logger.warn("Customer balance not found for msisdn: " + msisdn);
+            return chargingResult(transactionId, type, msisdn, Outcome.DENIED, 0, chargeStart);
+        }
+
+        int granted = debitResult.grantedAmount();
+        if (granted == usage) {
+            onBalanceUpdated(type, msisdn, debitResult, otherMsisdn);
+            return chargingResult(transactionId, type, msisdn, Outcome.GRANTED, granted, chargeStart);
+        }
+
+        logger.warn("Insufficient balance: Requested " + usage + " but only " + granted + " available for " + msisdn);
+        handlePartialUsage(type, msisdn, debitResult, usage, otherMsisdn);
+        return chargingResult(transactionId, type, msisdn, granted > 0 ? Outcome.PARTIAL : Outcome.DENIED, granted, chargeStart);
+    }
+
+    private static ChargingResult chargingResult(long transactionId, BalanceType type, String msisdn, Outcome outcome, int granted, long chargeStart) {
+        return new ChargingResult(transactionId, msisdn, type.name(), outcome, granted, System.nanoTime() - chargeStart);
     }
 
-    private void updateUserBalance(BalanceType type, String msisdn, int updatedBalance, String... otherMsisdn) {
-        switch (type) {
-            case DATA -> voltdbOperator.updateDataBalance(updatedBalance, msisdn);
-            case VOICE -> voltdbOperator.updateVoiceBalance(updatedBalance, msisdn);
-            case SMS -> voltdbOperator.updateSmsBalance(updatedBalance, msisdn);
+    private CompletableFuture<VoltDebitResult> debitUserBalance(BalanceType type, String msisdn, int usage) {
+        if (mode == ChargingMode.BLOCKING) {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return balanceStore.debit(type, msisdn, usage);
+                } finally {
+                    ChargingLatencies.record(Stage.BALANCE_DEBIT, type, start);
+                }
+            }, executor);
         }
-        sendUsageRecordMessage(type, msisdn, otherMsisdn.length > 0 ? otherMsisdn[0] : null, updatedBalance, new Timestamp(System.currentTimeMillis()));
+
+        long start = System.nanoTime();
+        return balanceStore.debitAsync(type, msisdn, usage)
+                .whenComplete((debitResult, failure) -> ChargingLatencies.record(Stage.BALANCE_DEBIT, type, start))
+                .thenApplyAsync(debitResult -> debitResult, executor);
+    }
+
+    private void onBalanceUpdated(BalanceType type, String msisdn, VoltDebitResult debitResult, String... otherMsisdn) {
+        int updatedBalance = debitResult.remainingBalance();
+        long start = System.nanoTime();
+        eventSink.sendUsageRecord(type, msisdn, otherMsisdn.length > 0 ? otherMsisdn[0] : null, updatedBalance, new Timestamp(System.currentTimeMillis()));
+        ChargingLatencies.record(Stage.USAGE_RECORD_SEND, type, start);
         logger.info("Updated balance for " + msisdn + ": " + updatedBalance + " " + type);
+
+        start = System.nanoTime();
+        eventSink.sendUpdatedBalance(type, msisdn, updatedBalance);
+        ChargingLatencies.record(Stage.BALANCE_SEND, type, start);
+
+        start = System.nanoTime();
+        checkUsageThreshold(type, msisdn, updatedBalance, debitResult.packageId(), debitResult.periodStart());
+        ChargingLatencies.record(Stage.THRESHOLD_EVALUATION, type, start);
     }
 
-    private void handlePartialUsage(BalanceType type, String msisdn, int userBalance, int usage, String... otherMsisdn) {
-        if (userBalance > 0) {
-            updateUserBalance(type, msisdn, 0, otherMsisdn);
-            sendUpdatedBalanceMessage(type, msisdn, 0);
-            checkUsageThreshold(type, msisdn, 0);
-            logger.info("User " + msisdn + " used remaining balance of " + userBalance + " " + type + ". Request for " + usage + " was partially fulfilled.");
+    private void handlePartialUsage(BalanceType type, String msisdn, VoltDebitResult debitResult, int usage, String... otherMsisdn) {
+        int granted = debitResult.grantedAmount();
+        if (granted > 0) {
+            onBalanceUpdated(type, msisdn, debitResult, otherMsisdn);
+            logger.info("User " + msisdn + " used remaining balance of " + granted + " " + type + ". Request for " + usage + " was partially fulfilled.");
         } else {
             insufficientBalance(type, msisdn);
         }
@@ -93,41 +497,33 @@ public class BalanceCalculator {
         logger.warn("No sufficient " + type + " balance for " + msisdn);
     }
 
-    private void checkUsageThreshold(BalanceType type, String msisdn, int currentBalance) {
-        int packageBalance;
-        int threshold80;
-        int threshold1;
-
-        switch (type) {
-            case DATA:
-                packageBalance = voltdbOperator.getPackageDataBalance(msisdn);
-                threshold80 = (int) (packageBalance * 0.20);
-                threshold1 = (int) (packageBalance * 0.01);
-                break;
-            case SMS:
-                packageBalance = voltdbOperator.getPackageSmsBalance(msisdn);
-                threshold80 = (int) (packageBalance * 0.20);
-                threshold1 = (int) (packageBalance * 0.01);
-                break;
-            case VOICE:
-                packageBalance = voltdbOperator.getPackageVoiceBalance(msisdn);
-                threshold80 = (int) (packageBalance * 0.20);
-                threshold1 = (int) (packageBalance * 0.01);
-                break;
-            default:
-                return;
-        }
-
-        UserDetails userDetails = voltdbOperator.getUserDetails(msisdn);
-
-        if (currentBalance <= threshold80 && !threshold80SentMap.getOrDefault(msisdn, false)) {
-            sendNotificationMessage(userDetails.getName(), userDetails.getLastName(), msisdn, userDetails.getEmail(), type, packageBalance, "%80", new Timestamp(System.currentTimeMillis()));
-            threshold80SentMap.put(msisdn, true);
+    private void checkUsageThreshold(BalanceType type, String msisdn, int currentBalance, int packageId, Timestamp periodStart) {
+        if (!packageCatalog.isFresh(packageId)) {
+            // the subscriber snapshot brings the package along, one call instead of a package and a subscriber read
+            subscriberCache.get(msisdn, packageId);
+        }
+        int packageBalance = packageCatalog.packageAmount(packageId, type);
+        int threshold80 = (int) (packageBalance * 0.20);
+        int threshold1 = (int) (packageBalance * 0.01);
+
+        if (currentBalance > threshold80) {
+            return;
+        }
+
+        long period = periodStart != null ? periodStart.getTime() / 1000 : 0;
+        if (thresholdState.markSent(msisdn, period, type, ThresholdNotificationState.THRESHOLD_80)) {
+            sendThresholdNotification(type, msisdn, packageId, packageBalance, "%80");
             logger.info("80% usage notification sent for " + msisdn);
-        } else if (currentBalance <= threshold1 && !threshold100SentMap.getOrDefault(msisdn, false)) {
-            sendNotificationMessage(userDetails.getName(), userDetails.getLastName(), msisdn, userDetails.getEmail(), type, packageBalance, "%100", new Timestamp(System.currentTimeMillis()));
-            threshold100SentMap.put(msisdn, true);
+        } else if (currentBalance <= threshold1 && thresholdState.markSent(msisdn, period, type, ThresholdNotificationState.THRESHOLD_100)) {
+            sendThresholdNotification(type, msisdn, packageId, packageBalance, "%100");
             logger.info("100% usage notification sent for " + msisdn);
         }
     }
+
+    private void sendThresholdNotification(BalanceType type, String msisdn, int packageId, int packageBalance, String threshold) {
+        UserDetails userDetails = subscriberCache.get(msisdn, packageId);
+        long start = System.nanoTime();
+        eventSink.sendNotification(userDetails.getName(), userDetails.getLastName(), msisdn, userDetails.getEmail(), type, packageBalance, threshold, new Timestamp(System.currentTimeMillis()));
+        ChargingLatencies.record(Stage.NOTIFICATION_SEND, type, start);
+    }
 }
@@ -0,0 +1,34 @@
+package com.i2i.evrencell.CHF.calculator;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.VoiceTransaction;
+
+/**
+ * One charge taken from a TGF transaction.
+ *
+ * @param transactionId 0 if the transaction has no ID
+ * @param usage         usage before rating: megabytes, seconds or 1 SMS
+ * @param otherMsisdn   callee or receiver, null for data
+ * @param ratingGroup   0 for voice and SMS
+ */
+public record ChargeRequest(long transactionId, BalanceType type, String msisdn, int usage, String otherMsisdn, int location, int ratingGroup) {
+
+    /**
+     * @return the charge of a Data, Voice or SMS transaction, null for any other message
+     */
+    public static ChargeRequest of(Object transaction) {
+        if (transaction instanceof DataTransaction dataMessage) {
+            return new ChargeRequest(dataMessage.getTransactionId(), BalanceType.DATA, dataMessage.getMsisdn(), dataMessage.getDataUsage(), null,
+                    dataMessage.getLocation(), dataMessage.getRatingGroup());
+        } else if (transaction instanceof VoiceTransaction voiceMessage) {
+            return new ChargeRequest(voiceMessage.getTransactionId(), BalanceType.VOICE, voiceMessage.getCallerMsisdn(), voiceMessage.getDuration(), voiceMessage.getCalleeMsisdn(),
+                    voiceMessage.getLocation(), 0);
+        } else if (transaction instanceof SmsTransaction smsMessage) {
+            return new ChargeRequest(smsMessage.getTransactionId(), BalanceType.SMS, smsMessage.getSenderMsisdn(), 1, smsMessage.getReceiverMsisdn(),
+                    smsMessage.getLocation(), 0);
+        }
+        return null;
+    }
+}
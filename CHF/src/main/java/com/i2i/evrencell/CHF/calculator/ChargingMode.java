@@ -0,0 +1,11 @@
+package com.i2i.evrencell.CHF.calculator;
+
+/**
+ * How {@link BalanceCalculator} waits for the balance debit.
+ */
+public enum ChargingMode {
+    /** A charging worker thread makes the debit call and waits for VoltDB. */
+    BLOCKING,
+    /** The debit is sent with the callback based VoltDB client, no thread waits for the response. */
+    ASYNC
+}
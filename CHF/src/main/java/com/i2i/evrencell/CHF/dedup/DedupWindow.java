@@ -0,0 +1,212 @@
+package com.i2i.evrencell.CHF.dedup;
+
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transaction IDs charged within the last {@code windowSeconds}, used to drop a transaction that is
+ * sent again before it reaches VoltDB.
+ *
+ * <p>The IDs are spread over striped tables by hash, so charges of different IDs rarely wait for each
+ * other. Every stripe holds an open-addressing set of the IDs and a ring of the same IDs in arrival
+ * order with their arrival second. IDs older than the window are removed from the head of the ring when
+ * the stripe is next used, and when the ring is full the oldest ID is removed early, so the memory stays
+ * at 28 to 44 bytes per remembered ID however high the load is. Early removals are counted; if they grow,
+ * the capacity is too small for the window at the current load.
+ */
+public class DedupWindow implements DedupWindowMBean {
+
+    private static final Logger logger = Logger.getLogger(DedupWindow.class);
+
+    private final Stripe[] stripes;
+    private final long windowSeconds;
+    private final int capacity;
+    private final long origin = System.nanoTime();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder earlyEvictions = new LongAdder();
+
+    private static final class Stripe {
+        private final long[] keys;
+        private final long[] ring;
+        private final int[] ringSeconds;
+        private int head;
+        private int size;
+
+        private Stripe(int ringCapacity) {
+            keys = new long[Integer.highestOneBit(ringCapacity * 2 - 1) << 1];
+            ring = new long[ringCapacity];
+            ringSeconds = new int[ringCapacity];
+        }
+    }
+
+    /**
+     * @param capacity IDs remembered at most, split evenly over the stripes
+     * @param stripes  rounded up to a power of two
+     */
+    public DedupWindow(long windowSeconds, int capacity, int stripes) {
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        int ringCapacity = Math.max(16, capacity / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(ringCapacity);
+        }
+        this.windowSeconds = windowSeconds;
+        this.capacity = ringCapacity * stripeCount;
+    }
+
+    /**
+     * Remembers the ID of a transaction that is about to be charged.
+     *
+     * @param transactionId 0 for a transaction without ID, which is never a duplicate
+     * @return false if the ID was already charged within the window, the transaction must be dropped
+     */
+    public boolean firstSeen(long transactionId) {
+        if (transactionId == 0) {
+            return true;
+        }
+        int now = nowSeconds();
+        long hash = mix(transactionId);
+        Stripe stripe = stripes[(int) (hash >>> 40) & (stripes.length - 1)];
+
+        synchronized (stripe) {
+            expire(stripe, now);
+            int mask = stripe.keys.length - 1;
+            int index = (int) hash & mask;
+            while (stripe.keys[index] != 0) {
+                if (stripe.keys[index] == transactionId) {
+                    duplicates.increment();
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+
+            if (stripe.size == stripe.ring.length) {
+                removeOldest(stripe);
+                earlyEvictions.increment();
+                // the removal may have shifted entries into the probe path, look for a free slot again
+                index = (int) hash & mask;
+                while (stripe.keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+            }
+            stripe.keys[index] = transactionId;
+            int tail = (stripe.head + stripe.size) % stripe.ring.length;
+            stripe.ring[tail] = transactionId;
+            stripe.ringSeconds[tail] = now;
+            stripe.size++;
+            return true;
+        }
+    }
+
+    /**
+     * Forgets the ID of a charge that failed, so that sending the transaction again charges it.
+     */
+    public void forget(long transactionId) {
+        if (transactionId == 0) {
+            return;
+        }
+        long hash = mix(transactionId);
+        Stripe stripe = stripes[(int) (hash >>> 40) & (stripes.length - 1)];
+        synchronized (stripe) {
+            // the ring keeps the ID until it expires, removing an ID that is not in the set does nothing
+            remove(stripe, transactionId, hash);
+        }
+    }
+
+    private void expire(Stripe stripe, int now) {
+        while (stripe.size > 0 && now - stripe.ringSeconds[stripe.head] > windowSeconds) {
+            removeOldest(stripe);
+        }
+    }
+
+    private static void removeOldest(Stripe stripe) {
+        long transactionId = stripe.ring[stripe.head];
+        stripe.head = (stripe.head + 1) % stripe.ring.length;
+        stripe.size--;
+        remove(stripe, transactionId, mix(transactionId));
+    }
+
+    private static void remove(Stripe stripe, long transactionId, long hash) {
+        long[] keys = stripe.keys;
+        int mask = keys.length - 1;
+        int index = (int) hash & mask;
+        while (keys[index] != transactionId) {
+            if (keys[index] == 0) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // shift the following entries of the probe run back, so no lookup stops at the gap
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == 0) {
+                break;
+            }
+            int home = (int) mix(keys[next]) & mask;
+            boolean between = index <= next ? index < home && home <= next : index < home || home <= next;
+            if (!between) {
+                keys[index] = keys[next];
+                index = next;
+            }
+        }
+        keys[index] = 0;
+    }
+
+    private int nowSeconds() {
+        return (int) ((System.nanoTime() - origin) / 1_000_000_000L);
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=DedupWindow"));
+        } catch (Exception e) {
+            logger.warn("Could not register DedupWindow MBean", e);
+        }
+    }
+
+    @Override
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getEarlyEvictionCount() {
+        return earlyEvictions.sum();
+    }
+}
@@ -0,0 +1,14 @@
+package com.i2i.evrencell.CHF.dedup;
+
+public interface DedupWindowMBean {
+
+    long getWindowSeconds();
+
+    int getCapacity();
+
+    int getSize();
+
+    long getDuplicateCount();
+
+    long getEarlyEvictionCount();
+}
@@ -0,0 +1,175 @@
+package com.i2i.evrencell.CHF.execution;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the charges CHF admits at a time, in the style of the Vegas and gradient concurrency
+ * limiters.
+ * A transaction over the limit is shed at once instead of waiting in a mailbox, so the sender gets an
+ * overload answer within microseconds and the latency of the admitted charges stays close to the
+ * VoltDB round trip.
+ *
+ * <p>The limit follows the charge latency. A short average of the latest charges is compared with the
+ * baseline, the lowest short average seen so far. The limit is adjusted once per limit's worth of
+ * finished charges, about one round trip at full load: while the two are close it grows by its square
+ * root, and when VoltDB or Kafka slow down and the short average rises it shrinks by their ratio, to at
+ * most half per adjustment. The baseline creeps up towards the current latency over about
+ * ten thousand adjustments, so a VoltDB that became slower for good is learned again. Shed transactions are counted per {@link BalanceType} and published over JMX as
+ * {@code com.i2i.evrencell.CHF:type=AdmissionController}.
+ */
+public class AdmissionController implements AdmissionControllerMBean {
+
+    private static final Logger logger = Logger.getLogger(AdmissionController.class);
+
+    private static final double SHORT_WINDOW = 10;
+    private static final double BASELINE_WINDOW = 10_000;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder[] shed = new LongAdder[BalanceType.values().length];
+
+    private volatile int limit;
+    // guarded by this, only the sample path writes them
+    private double estimatedLimit;
+    private double shortRtt;
+    private double baselineRtt;
+    private int samplesSinceUpdate;
+
+    /**
+     * @param initialLimit charges admitted before the first latency samples arrived
+     * @param minLimit     the limit never shrinks below this, so a slow VoltDB still gets some load
+     * @param maxLimit     the limit never grows above this, normally the in-flight slots of the executor
+     * @param tolerance    how much the short latency may exceed the baseline before the limit shrinks
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.estimatedLimit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.limit = (int) estimatedLimit;
+        for (int i = 0; i < shed.length; i++) {
+            shed[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Admits a charge when fewer than the current limit are in flight, without waiting.
+     *
+     * @return false if the transaction must be shed, {@link #release(long)} must follow a true
+     */
+    public boolean tryAcquire(BalanceType type) {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                shed[type.ordinal()].increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives the slot of a finished charge back.
+     *
+     * @param chargeNanos how long the charge took, negative when it has no usable latency (failed charges)
+     */
+    public void release(long chargeNanos) {
+        int current = inFlight.getAndDecrement();
+        if (chargeNanos > 0) {
+            sample(chargeNanos, current);
+        }
+    }
+
+    private synchronized void sample(long chargeNanos, int inFlightAtFinish) {
+        if (baselineRtt == 0) {
+            shortRtt = chargeNanos;
+            baselineRtt = chargeNanos;
+            return;
+        }
+        shortRtt += (chargeNanos - shortRtt) / SHORT_WINDOW;
+        baselineRtt = Math.min(baselineRtt, shortRtt);
+
+        if (++samplesSinceUpdate < estimatedLimit) {
+            return;
+        }
+        samplesSinceUpdate = 0;
+        baselineRtt += (shortRtt - baselineRtt) / BASELINE_WINDOW;
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * baselineRtt / shortRtt));
+        // only grow when the limit is actually used, an idle CHF would otherwise raise it without bound
+        if (gradient == 1.0 && inFlightAtFinish < estimatedLimit / 2) {
+            return;
+        }
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Counts a transaction that was shed somewhere else, like a full stream buffer.
+     */
+    public void shed(BalanceType type) {
+        shed[type.ordinal()].increment();
+    }
+
+    public long getShedCount(BalanceType type) {
+        return shed[type.ordinal()].sum();
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=AdmissionController"));
+        } catch (Exception e) {
+            logger.warn("Could not register AdmissionController MBean", e);
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public synchronized double getShortRttMillis() {
+        return shortRtt / 1_000_000;
+    }
+
+    @Override
+    public synchronized double getBaselineRttMillis() {
+        return baselineRtt / 1_000_000;
+    }
+
+    @Override
+    public long getShedData() {
+        return getShedCount(BalanceType.DATA);
+    }
+
+    @Override
+    public long getShedVoice() {
+        return getShedCount(BalanceType.VOICE);
+    }
+
+    @Override
+    public long getShedSms() {
+        return getShedCount(BalanceType.SMS);
+    }
+}
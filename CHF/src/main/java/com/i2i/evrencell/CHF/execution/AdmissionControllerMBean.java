@@ -0,0 +1,18 @@
+package com.i2i.evrencell.CHF.execution;
+
+public interface AdmissionControllerMBean {
+
+    int getLimit();
+
+    int getInFlight();
+
+    double getShortRttMillis();
+
+    double getBaselineRttMillis();
+
+    long getShedData();
+
+    long getShedVoice();
+
+    long getShedSms();
+}
@@ -0,0 +1,112 @@
+package com.i2i.evrencell.CHF.execution;
+
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool that runs the charges of CHF. At most {@code maxInFlight} charges are admitted at a
+ * time; a ChargingActor that cannot get a slot answers the transaction with REJECTED at once, so no
+ * dispatcher thread waits for a slot and the sender learns about the overload without delay.
+ */
+public class ChargingExecutor implements Executor, ChargingExecutorMBean {
+
+    private static final Logger logger = Logger.getLogger(ChargingExecutor.class);
+
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ThreadPoolExecutor pool;
+    private final LongAdder rejected = new LongAdder();
+
+    public ChargingExecutor(int workers, int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxInFlight),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "charging-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Charging queue is full");
+                });
+    }
+
+    /**
+     * Reserves a slot for one charge without waiting.
+     *
+     * @return false if every slot is taken, the charge must then be rejected
+     */
+    public boolean tryAcquire() {
+        if (inFlight.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        inFlight.release();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=ChargingExecutor"));
+        } catch (Exception e) {
+            logger.warn("Could not register ChargingExecutor MBean", e);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return pool.getCompletedTaskCount();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
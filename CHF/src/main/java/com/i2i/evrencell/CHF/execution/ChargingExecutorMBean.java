@@ -0,0 +1,16 @@
+package com.i2i.evrencell.CHF.execution;
+
+public interface ChargingExecutorMBean {
+
+    int getMaxInFlight();
+
+    int getInFlight();
+
+    int getQueueDepth();
+
+    int getActiveWorkers();
+
+    long getCompletedCount();
+
+    long getRejectedCount();
+}
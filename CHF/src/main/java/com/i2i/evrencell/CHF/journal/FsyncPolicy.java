@@ -0,0 +1,25 @@
+package com.i2i.evrencell.CHF.journal;
+
+/**
+ * When the journal forces its records to disk. Records are in the page cache as soon as they are
+ * appended, so they survive a crash of the JVM with every policy, the policy decides what survives a crash
+ * of the machine.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Never forced, the operating system writes the pages back on its own.
+     */
+    NEVER,
+
+    /**
+     * Forced every fsync interval, a machine crash loses at most the charges of the last interval.
+     */
+    INTERVAL,
+
+    /**
+     * A charge starts only after its record was forced. Records appended while a force runs are forced
+     * together by the next one.
+     */
+    EVERY_COMMIT
+}
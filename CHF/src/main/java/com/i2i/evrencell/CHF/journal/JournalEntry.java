@@ -0,0 +1,11 @@
+package com.i2i.evrencell.CHF.journal;
+
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+
+/**
+ * A charge found in the journal that was accepted but not completed.
+ *
+ * @param sequence journal sequence of the charge, completes it with {@link TransactionJournal#complete}
+ */
+public record JournalEntry(long sequence, ChargeRequest request) {
+}
@@ -0,0 +1,548 @@
+package com.i2i.evrencell.CHF.journal;
+
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the charges CHF accepted, kept in memory-mapped segment files.
+ *
+ * <p>A charge is appended as accepted before it runs and as completed once it has a result. Charges that
+ * were accepted but not completed when CHF stopped are read back when the journal is opened, see
+ * {@link #takeRecovered()}. The completion of a charge often lands in a later segment than the charge,
+ * so segments are deleted oldest first: a full segment goes once every charge accepted in it has
+ * completed and every older segment is gone. The journal then only holds the charges in flight and the
+ * segments after the oldest of them.
+ *
+ * <p>A record is length, CRC32C, kind, sequence and payload. The length is written last, so a record cut
+ * off by a crash reads as the end of the segment. An append copies the record into the mapped segment
+ * under a lock and does no I/O, the flusher thread forces the segment to disk as the {@link FsyncPolicy}
+ * asks.
+ *
+ * <p>A charge that was debited but not yet journaled as completed when CHF stopped is replayed and debited
+ * again: no accepted charge is lost, but one can be charged twice.
+ */
+public class TransactionJournal implements TransactionJournalMBean {
+
+    private static final Logger logger = Logger.getLogger(TransactionJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte ACCEPTED = 1;
+    private static final byte COMPLETED = 2;
+    // length and CRC32C of the record
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024;
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final int recoveredCount;
+    private final Thread flusher;
+
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+    // oldest first, the last one is the one appended to
+    private final List<Segment> segments = new ArrayList<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private Segment active;
+    private long nextSequence;
+    private long durableSequence;
+    private long pending;
+    private List<JournalEntry> recovered;
+    private boolean closed;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+
+    private static final class Segment {
+        private final Path path;
+        // accepted records in this segment have this sequence or a higher one
+        private final long firstSequence;
+        private MappedByteBuffer buffer;
+        private int position;
+        private int forcedPosition;
+        private int pending;
+
+        private Segment(Path path, long firstSequence) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+        }
+    }
+
+    private record Waiter(long sequence, CompletableFuture<Void> durable) {
+    }
+
+    /**
+     * Opens the journal in {@code directory} and reads back the charges that were not completed.
+     *
+     * @param segmentSize         bytes per segment file
+     * @param fsyncIntervalMillis how often {@link FsyncPolicy#INTERVAL} forces the journal
+     */
+    public TransactionJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+
+        Files.createDirectories(directory);
+        recovered = recover();
+        recoveredCount = recovered.size();
+        openSegment();
+
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            flusher = new Thread(this::flushLoop, "journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Journals a charge as accepted.
+     *
+     * @return sequence of the charge, passed to {@link #complete} once the charge has a result
+     */
+    public synchronized long append(ChargeRequest request) {
+        long sequence = nextSequence;
+        record.clear();
+        record.put(ACCEPTED).putLong(sequence);
+        encode(request);
+        write();
+
+        nextSequence++;
+        active.pending++;
+        pending++;
+        appends.increment();
+        return sequence;
+    }
+
+    /**
+     * Journals the charges as accepted, with consecutive sequences.
+     *
+     * @return sequence of the first charge
+     */
+    public synchronized long appendAll(List<ChargeRequest> requests) {
+        long first = nextSequence;
+        try {
+            for (ChargeRequest request : requests) {
+                append(request);
+            }
+        } catch (RuntimeException e) {
+            // the batch is not charged, so the part that made it into the journal must not be replayed
+            if (nextSequence > first) {
+                complete(first, (int) (nextSequence - first));
+            }
+            throw e;
+        }
+        return first;
+    }
+
+    /**
+     * Completes until the charges up to {@code sequence} are on disk. Completes right away unless the
+     * policy is {@link FsyncPolicy#EVERY_COMMIT}.
+     */
+    public CompletableFuture<Void> whenDurable(long sequence) {
+        if (fsyncPolicy != FsyncPolicy.EVERY_COMMIT) {
+            return DURABLE;
+        }
+
+        synchronized (this) {
+            if (sequence <= durableSequence || closed) {
+                return DURABLE;
+            }
+            CompletableFuture<Void> durable = new CompletableFuture<>();
+            waiters.addLast(new Waiter(sequence, durable));
+            if (waiters.size() == 1) {
+                notifyAll();
+            }
+            return durable;
+        }
+    }
+
+    /**
+     * Journals the charges {@code firstSequence} to {@code firstSequence + count - 1} as completed. A
+     * failure is logged, the charges are then replayed after a restart.
+     */
+    public synchronized void complete(long firstSequence, int count) {
+        try {
+            record.clear();
+            record.put(COMPLETED).putLong(firstSequence).putInt(count);
+            write();
+        } catch (RuntimeException e) {
+            logger.error("Could not journal the completion of " + count + " charges: " + e.getMessage(), e);
+            return;
+        }
+
+        for (long sequence = firstSequence; sequence < firstSequence + count; sequence++) {
+            Segment segment = segmentOf(sequence);
+            if (segment == null || segment.pending == 0) {
+                continue;
+            }
+            segment.pending--;
+            pending--;
+        }
+        deleteCompletedSegments();
+    }
+
+    /**
+     * Charges that were accepted but not completed before the journal was opened, in the order they were
+     * accepted. Returns them once, complete each with {@link #complete} after it was replayed.
+     */
+    public synchronized List<JournalEntry> takeRecovered() {
+        List<JournalEntry> entries = recovered;
+        recovered = List.of();
+        return entries;
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        if (flusher != null) {
+            try {
+                flusher.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<Waiter> released;
+        synchronized (this) {
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                active.buffer.force();
+            }
+            released = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        released.forEach(waiter -> waiter.durable().complete(null));
+    }
+
+    private void write() {
+        record.flip();
+        int length = record.remaining();
+        if (active.position + HEADER_SIZE + length > segmentSize) {
+            roll();
+        }
+
+        crc.reset();
+        crc.update(record.array(), 0, length);
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.position;
+        buffer.put(position + HEADER_SIZE, record.array(), 0, length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, length);
+        active.position = position + HEADER_SIZE + length;
+    }
+
+    /**
+     * Seals the full segment and continues in a new one. The full segment is forced first unless the
+     * policy is {@link FsyncPolicy#NEVER}, and deleted right away when it is the oldest one and none of
+     * its charges is pending.
+     */
+    private void roll() {
+        Segment full = active;
+        if (fsyncPolicy != FsyncPolicy.NEVER && full.position > full.forcedPosition) {
+            full.buffer.force(full.forcedPosition, full.position - full.forcedPosition);
+            full.forcedPosition = full.position;
+            fsyncs.increment();
+        }
+        try {
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open a new journal segment in " + directory, e);
+        }
+        full.buffer = null;
+        deleteCompletedSegments();
+    }
+
+    private void openSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, nextSequence);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.add(segment);
+        active = segment;
+    }
+
+    private Segment segmentOf(long sequence) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstSequence <= sequence) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the oldest segments as long as none of their charges is pending. A segment that follows one
+     * with pending charges is kept even when its own charges have completed: it may hold the completions
+     * of the older charges, and without it they would be replayed after a restart.
+     */
+    private void deleteCompletedSegments() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.get(0);
+            if (oldest == active || oldest.pending > 0) {
+                return;
+            }
+            delete(oldest);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment);
+        try {
+            Files.deleteIfExists(segment.path);
+            deletedSegments.increment();
+        } catch (IOException e) {
+            logger.warn("Could not delete journal segment " + segment.path, e);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            try {
+                MappedByteBuffer buffer;
+                Segment segment;
+                int from;
+                int to;
+                long sequence;
+                synchronized (this) {
+                    if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT) {
+                        while (!closed && waiters.isEmpty()) {
+                            wait();
+                        }
+                    } else if (!closed) {
+                        wait(fsyncIntervalMillis);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    segment = active;
+                    buffer = segment.buffer;
+                    from = segment.forcedPosition;
+                    to = segment.position;
+                    sequence = nextSequence - 1;
+                }
+
+                // appends go on meanwhile, the ones that arrive now are forced with the next round
+                if (to > from) {
+                    buffer.force(from, to - from);
+                    fsyncs.increment();
+                }
+
+                List<Waiter> done = new ArrayList<>();
+                synchronized (this) {
+                    segment.forcedPosition = Math.max(segment.forcedPosition, to);
+                    durableSequence = Math.max(durableSequence, sequence);
+                    while (!waiters.isEmpty() && waiters.peekFirst().sequence() <= sequence) {
+                        done.add(waiters.pollFirst());
+                    }
+                }
+                done.forEach(waiter -> waiter.durable().complete(null));
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Error while forcing the journal to disk: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Reads the existing segments, deletes the oldest ones up to the first with pending charges and
+     * returns the pending charges.
+     */
+    private List<JournalEntry> recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+
+        Map<Long, JournalEntry> open = new LinkedHashMap<>();
+        long lastSequence = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long firstSequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            segments.add(new Segment(file, firstSequence));
+            // a segment may hold completions only, its name is taken all the same
+            lastSequence = Math.max(lastSequence, firstSequence);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                lastSequence = Math.max(lastSequence, read(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), open));
+            }
+        }
+
+        for (JournalEntry entry : open.values()) {
+            segmentOf(entry.sequence()).pending++;
+        }
+        deleteCompletedSegments();
+
+        pending = open.size();
+        nextSequence = lastSequence + 1;
+        durableSequence = lastSequence;
+        if (!open.isEmpty()) {
+            logger.info("Journal has " + open.size() + " charges that were accepted but not completed");
+        }
+        return new ArrayList<>(open.values());
+    }
+
+    /**
+     * Adds the accepted charges of the segment to {@code open} and removes the completed ones.
+     *
+     * @return highest sequence accepted in the segment
+     */
+    private long read(Path file, MappedByteBuffer buffer, Map<Long, JournalEntry> open) {
+        long lastSequence = 0;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+
+            byte[] body = new byte[length];
+            buffer.get(position + HEADER_SIZE, body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logger.warn("Journal segment " + file + " ends with a damaged record at " + position);
+                break;
+            }
+
+            ByteBuffer in = ByteBuffer.wrap(body);
+            byte kind = in.get();
+            long sequence = in.getLong();
+            if (kind == ACCEPTED) {
+                open.put(sequence, new JournalEntry(sequence, decode(in)));
+                lastSequence = Math.max(lastSequence, sequence);
+            } else if (kind == COMPLETED) {
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    open.remove(sequence + i);
+                }
+            }
+            position += HEADER_SIZE + length;
+        }
+        return lastSequence;
+    }
+
+    private void encode(ChargeRequest request) {
+        record.putLong(request.transactionId());
+        record.put((byte) request.type().ordinal());
+        record.putInt(request.usage());
+        record.putInt(request.location());
+        record.putInt(request.ratingGroup());
+        putString(request.msisdn());
+        putString(request.otherMsisdn());
+    }
+
+    private static ChargeRequest decode(ByteBuffer in) {
+        long transactionId = in.getLong();
+        BalanceType type = BalanceType.values()[in.get()];
+        int usage = in.getInt();
+        int location = in.getInt();
+        int ratingGroup = in.getInt();
+        String msisdn = getString(in);
+        String otherMsisdn = getString(in);
+        return new ChargeRequest(transactionId, type, msisdn, usage, otherMsisdn, location, ratingGroup);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            record.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        record.putShort((short) bytes.length);
+        record.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=TransactionJournal"));
+        } catch (Exception e) {
+            logger.warn("Could not register TransactionJournal MBean", e);
+        }
+    }
+
+    @Override
+    public String getFsyncPolicy() {
+        return fsyncPolicy.name();
+    }
+
+    @Override
+    public long getAppendCount() {
+        return appends.sum();
+    }
+
+    @Override
+    public synchronized long getPendingCount() {
+        return pending;
+    }
+
+    @Override
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public long getFsyncCount() {
+        return fsyncs.sum();
+    }
+
+    @Override
+    public long getDeletedSegmentCount() {
+        return deletedSegments.sum();
+    }
+
+    @Override
+    public int getRecoveredCount() {
+        return recoveredCount;
+    }
+}
@@ -0,0 +1,18 @@
+package com.i2i.evrencell.CHF.journal;
+
+public interface TransactionJournalMBean {
+
+    String getFsyncPolicy();
+
+    long getAppendCount();
+
+    long getPendingCount();
+
+    int getSegmentCount();
+
+    long getFsyncCount();
+
+    long getDeletedSegmentCount();
+
+    int getRecoveredCount();
+}
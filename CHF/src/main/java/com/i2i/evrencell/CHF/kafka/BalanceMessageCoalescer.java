@@ -0,0 +1,112 @@
+package com.i2i.evrencell.CHF.kafka;
+
+import com.i2i.evrencell.kafka.message.BalanceMessage;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps only the latest balance per MSISDN and balance type and publishes the pending balances every
+ * {@code windowMillis}, or earlier when {@code maxPending} subscribers are waiting. Balances are absolute
+ * values, so a balance that is replaced before the flush never needs to reach ABMF.
+ */
+public class BalanceMessageCoalescer implements BalanceMessageCoalescerMBean {
+
+    private static final Logger logger = Logger.getLogger(BalanceMessageCoalescer.class);
+
+    private final Consumer<BalanceMessage> publisher;
+    private final int maxPending;
+    private final Map<BalanceType, Map<String, Integer>> pending = new EnumMap<>(BalanceType.class);
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "balance-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BalanceMessageCoalescer(Consumer<BalanceMessage> publisher, long windowMillis, int maxPending) {
+        this.publisher = publisher;
+        this.maxPending = maxPending;
+
+        for (BalanceType type : BalanceType.values()) {
+            pending.put(type, new ConcurrentHashMap<>());
+        }
+        flusher.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void offer(BalanceType type, String msisdn, int balance) {
+        offered.increment();
+        if (pending.get(type).put(msisdn, balance) == null
+                && pendingCount.incrementAndGet() >= maxPending
+                && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Publishes every pending balance. A balance offered while the flush runs is either published now or
+     * stays pending for the next flush, it is never lost.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        try {
+            for (Map.Entry<BalanceType, Map<String, Integer>> typePending : pending.entrySet()) {
+                Map<String, Integer> balances = typePending.getValue();
+                for (String msisdn : balances.keySet()) {
+                    Integer balance = balances.remove(msisdn);
+                    if (balance != null) {
+                        pendingCount.decrementAndGet();
+                        publisher.accept(new BalanceMessage(msisdn, typePending.getKey(), balance));
+                        published.increment();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error while publishing coalesced balances: " + e.getMessage(), e);
+        }
+    }
+
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    @Override
+    public long getOfferedCount() {
+        return offered.sum();
+    }
+
+    @Override
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=BalanceMessageCoalescer"));
+        } catch (Exception e) {
+            logger.warn("Could not register BalanceMessageCoalescer MBean", e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.i2i.evrencell.CHF.kafka;
+
+public interface BalanceMessageCoalescerMBean {
+
+    long getOfferedCount();
+
+    long getPublishedCount();
+
+    int getPendingCount();
+}
@@ -0,0 +1,17 @@
+package com.i2i.evrencell.CHF.kafka;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+
+import java.sql.Timestamp;
+
+/**
+ * Receives the events a charge produces. {@link KafkaChargingEventSink} publishes them to Kafka.
+ */
+public interface ChargingEventSink {
+
+    void sendUsageRecord(BalanceType type, String callerMsisdn, String calleeMsisdn, Integer usageDuration, Timestamp usageDate);
+
+    void sendUpdatedBalance(BalanceType type, String msisdn, int updatedBalance);
+
+    void sendNotification(String name, String lastname, String msisdn, String email, BalanceType type, Integer amount, String threshold, Timestamp notificationTime);
+}
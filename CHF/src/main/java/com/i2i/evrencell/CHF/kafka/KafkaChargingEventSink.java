@@ -0,0 +1,23 @@
+package com.i2i.evrencell.CHF.kafka;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+
+import java.sql.Timestamp;
+
+public class KafkaChargingEventSink implements ChargingEventSink {
+
+    @Override
+    public void sendUsageRecord(BalanceType type, String callerMsisdn, String calleeMsisdn, Integer usageDuration, Timestamp usageDate) {
+        KafkaOperations.sendUsageRecordMessage(type, callerMsisdn, calleeMsisdn, usageDuration, usageDate);
+    }
+
+    @Override
+    public void sendUpdatedBalance(BalanceType type, String msisdn, int updatedBalance) {
+        KafkaOperations.sendUpdatedBalanceMessage(type, msisdn, updatedBalance);
+    }
+
+    @Override
+    public void sendNotification(String name, String lastname, String msisdn, String email, BalanceType type, Integer amount, String threshold, Timestamp notificationTime) {
+        KafkaOperations.sendNotificationMessage(name, lastname, msisdn, email, type, amount, threshold, notificationTime);
+    }
+}
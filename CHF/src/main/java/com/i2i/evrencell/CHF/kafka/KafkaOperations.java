@@ -14,6 +14,7 @@ public class KafkaOperations {
     private static final Publisher<BalanceMessage> balanceMessagePublisher;
     private static final Publisher<UsageRecordMessage> usageRecordMessagePublisher;
     private static final Publisher<NotificationMessage> notificationMessagePublisher;
+    private static volatile BalanceMessageCoalescer balanceMessageCoalescer;
 
     static {
         balanceMessagePublisher = new Publisher<>();
@@ -26,18 +27,46 @@ public class KafkaOperations {
         notificationMessagePublisher.createNotificationMessageProducer();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (balanceMessageCoalescer != null) {
+                balanceMessageCoalescer.close();
+            }
             balanceMessagePublisher.close();
             usageRecordMessagePublisher.close();
             notificationMessagePublisher.close();
         }));
     }
 
+    /**
+     * Creates the producers, if that has not happened yet, and fetches the metadata of their topics, so
+     * the first charges do not wait for either.
+     */
+    public static void warmUp() {
+        balanceMessagePublisher.fetchMetadata(KafkaTopicConstants.BALANCE_TOPIC);
+        usageRecordMessagePublisher.fetchMetadata(KafkaTopicConstants.USAGE_RECORD_TOPIC);
+        notificationMessagePublisher.fetchMetadata(KafkaTopicConstants.NOTIFICATION_TOPIC);
+    }
+
     public static void sendUsageRecordMessage(BalanceType type, String callerMsisdn, String calleeMsisdn, Integer usageDuration, Timestamp usageDate) {
         usageRecordMessagePublisher.send(new UsageRecordMessage(callerMsisdn, calleeMsisdn, type, usageDuration, usageDate), KafkaTopicConstants.USAGE_RECORD_TOPIC);
     }
 
+    /**
+     * From now on balance messages keep only the latest balance per MSISDN and balance type and are
+     * published every {@code windowMillis} or when {@code maxPending} subscribers are waiting.
+     */
+    public static BalanceMessageCoalescer coalesceBalanceMessages(long windowMillis, int maxPending) {
+        balanceMessageCoalescer = new BalanceMessageCoalescer(
+                message -> balanceMessagePublisher.send(message, KafkaTopicConstants.BALANCE_TOPIC), windowMillis, maxPending);
+        return balanceMessageCoalescer;
+    }
+
     public static void sendUpdatedBalanceMessage(BalanceType type, String msisdn, int updatedBalance) {
-        balanceMessagePublisher.send(new BalanceMessage(msisdn, type, updatedBalance), KafkaTopicConstants.BALANCE_TOPIC);
+        BalanceMessageCoalescer coalescer = balanceMessageCoalescer;
+        if (coalescer != null) {
+            coalescer.offer(type, msisdn, updatedBalance);
+        } else {
+            balanceMessagePublisher.send(new BalanceMessage(msisdn, type, updatedBalance), KafkaTopicConstants.BALANCE_TOPIC);
+        }
     }
 
     public static void sendNotificationMessage(String name, String lastname, String msisdn, String email, BalanceType type, Integer amount, String threshold, Timestamp notificationTime) {
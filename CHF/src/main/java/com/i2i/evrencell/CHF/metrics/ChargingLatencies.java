@@ -0,0 +1,112 @@
+package com.i2i.evrencell.CHF.metrics;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of every charging {@link Stage}, split by {@link BalanceType}.
+ *
+ * <p>Charging threads record into HdrHistogram {@link Recorder}s, which is wait-free and does not
+ * allocate. Every interval the recorders are swapped and the percentiles of the finished interval are
+ * computed once, so a scrape only formats numbers that are already there.
+ */
+public final class ChargingLatencies {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private static final Recorder[][] recorders = new Recorder[Stage.values().length][BalanceType.values().length];
+    private static final Histogram[][] intervalHistograms = new Histogram[Stage.values().length][BalanceType.values().length];
+    private static final long[][] totalCounts = new long[Stage.values().length][BalanceType.values().length];
+    private static final double[][] totalSeconds = new double[Stage.values().length][BalanceType.values().length];
+    private static volatile String prometheusText = "";
+    private static ScheduledExecutorService snapshotter;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            for (BalanceType type : BalanceType.values()) {
+                recorders[stage.ordinal()][type.ordinal()] = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+            }
+        }
+    }
+
+    private ChargingLatencies() {
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    public static void record(Stage stage, BalanceType type, long startNanos) {
+        long nanos = Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS);
+        recorders[stage.ordinal()][type.ordinal()].recordValue(Math.max(nanos, 0));
+    }
+
+    public static synchronized void startSnapshots(long intervalMillis) {
+        if (snapshotter != null) {
+            return;
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "latency-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleAtFixedRate(ChargingLatencies::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopSnapshots() {
+        if (snapshotter != null) {
+            snapshotter.shutdown();
+            snapshotter = null;
+        }
+    }
+
+    /**
+     * Latest snapshot in the Prometheus text exposition format. The quantiles cover the last interval,
+     * count and sum are totals since startup.
+     */
+    public static String prometheusText() {
+        return prometheusText;
+    }
+
+    private static synchronized void snapshot() {
+        StringBuilder text = new StringBuilder(8192);
+        text.append("# HELP chf_stage_latency_seconds Latency of a charging stage, quantiles over the last interval.\n");
+        text.append("# TYPE chf_stage_latency_seconds summary\n");
+
+        for (Stage stage : Stage.values()) {
+            for (BalanceType type : BalanceType.values()) {
+                int s = stage.ordinal();
+                int t = type.ordinal();
+                Histogram histogram = recorders[s][t].getIntervalHistogram(intervalHistograms[s][t]);
+                intervalHistograms[s][t] = histogram;
+
+                totalCounts[s][t] += histogram.getTotalCount();
+                totalSeconds[s][t] += histogram.getMean() * histogram.getTotalCount() / 1e9;
+
+                String labels = "stage=\"" + stage.label() + "\",type=\"" + type.name() + "\"";
+                for (double quantile : QUANTILES) {
+                    double seconds = histogram.getTotalCount() == 0
+                            ? Double.NaN
+                            : histogram.getValueAtPercentile(quantile * 100) / 1e9;
+                    text.append("chf_stage_latency_seconds{").append(labels)
+                            .append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(format(seconds)).append('\n');
+                }
+                text.append("chf_stage_latency_seconds_count{").append(labels).append("} ").append(totalCounts[s][t]).append('\n');
+                text.append("chf_stage_latency_seconds_sum{").append(labels).append("} ").append(format(totalSeconds[s][t])).append('\n');
+            }
+        }
+
+        prometheusText = text.toString();
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "NaN" : String.format(Locale.ROOT, "%.9f", value);
+    }
+}
@@ -0,0 +1,68 @@
+package com.i2i.evrencell.CHF.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serves the charging latencies on {@code GET /metrics} for Prometheus, and on {@code GET /ready} 200 once
+ * CHF accepts transactions and 503 before.
+ */
+public class MetricsHttpServer {
+
+    private static final Logger logger = Logger.getLogger(MetricsHttpServer.class);
+
+    private final HttpServer server;
+    private final BooleanSupplier ready;
+
+    public MetricsHttpServer(int port) throws IOException {
+        this(port, () -> true);
+    }
+
+    public MetricsHttpServer(int port, BooleanSupplier ready) throws IOException {
+        this.ready = ready;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/ready", this::handleReady);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Metrics endpoint listening on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        byte[] body = ChargingLatencies.prometheusText().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleReady(HttpExchange exchange) throws IOException {
+        boolean isReady = ready.getAsBoolean();
+        byte[] body = (isReady ? "ready\n" : "warming up\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(isReady ? 200 : 503, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
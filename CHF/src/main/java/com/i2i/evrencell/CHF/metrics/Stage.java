@@ -0,0 +1,27 @@
+package com.i2i.evrencell.CHF.metrics;
+
+/**
+ * Stages of a charge whose latency is recorded in {@link ChargingLatencies}.
+ */
+public enum Stage {
+    /** ChargingActor handling of an admitted transaction, from arrival until its charge is queued on the shard. */
+    ACTOR_RECEIVE("actor_receive"),
+    /** Balance read and update, one debit procedure call or a charge against a local quota grant. */
+    BALANCE_DEBIT("balance_debit"),
+    USAGE_RECORD_SEND("usage_record_send"),
+    BALANCE_SEND("balance_send"),
+    NOTIFICATION_SEND("notification_send"),
+    THRESHOLD_EVALUATION("threshold_evaluation"),
+    /** From the start of the debit until the charge is completed. */
+    CHARGE("charge");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,520 @@
+package com.i2i.evrencell.CHF.quota;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.store.DebitOutcome;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltRenewalBatch;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import org.apache.log4j.Logger;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local credit grants per MSISDN and balance type, in the style of Diameter Gy quota reservations.
+ *
+ * <p>The first charge of a subscriber reserves a block of units from VoltDB. Later charges are served
+ * from that block in memory. When the block runs out a new one is reserved, and when a grant expires or
+ * the subscriber goes idle the units that were not used are given back to VoltDB together with the other
+ * expired grants in one refund call. A refund call that fails is tried again with the next sweep.
+ *
+ * <p>VoltDB records the reserved units with the balance until {@code reservationGraceMillis} after the
+ * grant expires, each reservation and refund reports the units charged from the grant since the last one.
+ * Whatever is still recorded after that, the grants of a CHF node that crashed or whose refund kept
+ * failing, is given back by {@link #reclaimExpiredReservations}. A failed refund is therefore only tried
+ * again during the first half of that time.
+ *
+ * <p>Units only go back into the balance period they were reserved from. A debit renews all balance types
+ * of a subscriber together, so when a reservation reports a new period the grants of the other types are
+ * dropped, and VoltDB skips the refund of a grant whose period ended meanwhile, for renewals made by
+ * another CHF node or the renewal scheduler.
+ */
+public class QuotaCache implements BalanceStore {
+
+    private static final Logger logger = Logger.getLogger(QuotaCache.class);
+
+    private static final int CLOSE_REFUND_ATTEMPTS = 3;
+    private static final long CLOSE_REFUND_RETRY_MILLIS = 1000;
+
+    private final BalanceStore store;
+    private final Map<BalanceType, Integer> grantSizes;
+    private final long validityMillis;
+    private final long reservationGraceMillis;
+    private final long idleTimeoutMillis;
+    private final int maxGrants;
+    private final Map<BalanceType, Map<String, Grant>> grants = new EnumMap<>(BalanceType.class);
+    // units of closed grants whose refund call failed, sent again with the next refund
+    private final Queue<Refund> failedRefunds = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "quota-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Grant {
+        private final String msisdn;
+        private final BalanceType type;
+        private int available;
+        // units charged from the grant that VoltDB still counts as reserved
+        private int used;
+        private int voltRemaining;
+        private int packageId;
+        private Timestamp periodStart;
+        private long expiresAt;
+        private long lastUsedAt;
+        private boolean closed;
+
+        private Grant(String msisdn, BalanceType type) {
+            this.msisdn = msisdn;
+            this.type = type;
+        }
+    }
+
+    private record Refund(String msisdn, BalanceType type, int amount, int used, Timestamp periodStart, long retryUntil) {
+    }
+
+    /**
+     * @param store the store grants are reserved from and refunded to
+     * @param reservationGraceMillis how long after the end of a grant VoltDB keeps its reservation
+     */
+    public QuotaCache(BalanceStore store, Map<BalanceType, Integer> grantSizes, long validityMillis,
+                      long reservationGraceMillis, long idleTimeoutMillis, int maxGrants, long sweepIntervalMillis) {
+        this.store = store;
+        this.grantSizes = grantSizes;
+        this.validityMillis = validityMillis;
+        this.reservationGraceMillis = reservationGraceMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxGrants = maxGrants;
+
+        for (BalanceType type : BalanceType.values()) {
+            grants.put(type, new ConcurrentHashMap<>());
+        }
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Charges {@code usage} units, from the local grant when it covers them and otherwise by reserving a
+     * new block. The remaining balance in the result includes the units still held in the grant.
+     *
+     * <p>VoltDB is called without holding the grant, so a slow call does not keep the sweeper from the
+     * other grants. Charges of one subscriber must not overlap, which the charging shards guarantee.
+     *
+     * @return null when the MSISDN has no balance
+     */
+    @Override
+    public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+        Map<String, Grant> typeGrants = grants.get(type);
+        long now = System.currentTimeMillis();
+        int request;
+        int used;
+
+        while (true) {
+            Grant grant = typeGrants.computeIfAbsent(msisdn, key -> new Grant(key, type));
+            synchronized (grant) {
+                if (grant.closed) {
+                    continue;
+                }
+                if (!needsReservation(grant, usage, now)) {
+                    return take(grant, usage, now);
+                }
+                request = reservation(grant, usage);
+                used = grant.used;
+                grant.used = 0;
+                grant.lastUsedAt = now;
+            }
+            break;
+        }
+
+        VoltDebitResult debitResult = store.reserve(type, msisdn, request, used, holdMillis());
+        if (debitResult == null) {
+            return null;
+        }
+        VoltDebitResult result = applyAndTake(typeGrants, type, msisdn, debitResult, usage, now, true);
+        if (result != null) {
+            return result;
+        }
+        // units of the period that ended made up part of the request, the rest comes from the new one
+        VoltDebitResult renewed = store.reserve(type, msisdn, usage + grantSizes.get(type), 0, holdMillis());
+        return renewed == null ? null : applyAndTake(typeGrants, type, msisdn, renewed, usage, now, false);
+    }
+
+    /**
+     * Same as {@link #debit}, a new block is reserved with {@link BalanceStore#reserveAsync} so no thread
+     * waits for VoltDB.
+     */
+    @Override
+    public CompletableFuture<VoltDebitResult> debitAsync(BalanceType type, String msisdn, int usage) {
+        Map<String, Grant> typeGrants = grants.get(type);
+        long now = System.currentTimeMillis();
+        int request;
+        int used;
+
+        while (true) {
+            Grant grant = typeGrants.computeIfAbsent(msisdn, key -> new Grant(key, type));
+            synchronized (grant) {
+                if (grant.closed) {
+                    continue;
+                }
+                if (!needsReservation(grant, usage, now)) {
+                    return CompletableFuture.completedFuture(take(grant, usage, now));
+                }
+                request = reservation(grant, usage);
+                used = grant.used;
+                grant.used = 0;
+                grant.lastUsedAt = now;
+            }
+            break;
+        }
+
+        return store.reserveAsync(type, msisdn, request, used, holdMillis()).thenCompose(debitResult -> {
+            if (debitResult == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            VoltDebitResult result = applyAndTake(typeGrants, type, msisdn, debitResult, usage, now, true);
+            if (result != null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            // units of the period that ended made up part of the request, the rest comes from the new one
+            return store.reserveAsync(type, msisdn, usage + grantSizes.get(type), 0, holdMillis())
+                    .thenApply(renewed -> renewed == null ? null : applyAndTake(typeGrants, type, msisdn, renewed, usage, now, false));
+        });
+    }
+
+    /**
+     * Adds a reserved block to the grant of the subscriber and charges {@code usage} from it.
+     *
+     * @return null if {@code reserveAgain} and the block came from a new balance period that does not
+     * cover the usage on its own, the units left from the old period having been dropped
+     */
+    private VoltDebitResult applyAndTake(Map<String, Grant> typeGrants, BalanceType type, String msisdn,
+                                         VoltDebitResult debitResult, int usage, long now, boolean reserveAgain) {
+        VoltDebitResult result;
+        while (true) {
+            // the sweeper may have closed the grant meanwhile, then the block goes into a new one
+            Grant grant = typeGrants.computeIfAbsent(msisdn, key -> new Grant(key, type));
+            synchronized (grant) {
+                if (!grant.closed) {
+                    boolean renewed = applyReservation(grant, debitResult, now);
+                    result = renewed && reserveAgain && grant.available < usage ? null : take(grant, usage, now);
+                    break;
+                }
+            }
+        }
+        dropEndedGrants(msisdn, type, debitResult.periodStart());
+        return result;
+    }
+
+    /**
+     * Drops the grants of the other balance types of the subscriber that were reserved before the period
+     * that starts at {@code periodStart}. Their units belong to the period that ended, so they are neither
+     * granted nor refunded.
+     */
+    private void dropEndedGrants(String msisdn, BalanceType type, Timestamp periodStart) {
+        if (periodStart == null) {
+            return;
+        }
+        for (Map.Entry<BalanceType, Map<String, Grant>> typeGrants : grants.entrySet()) {
+            Grant grant = typeGrants.getKey() == type ? null : typeGrants.getValue().get(msisdn);
+            if (grant == null) {
+                continue;
+            }
+            synchronized (grant) {
+                if (!grant.closed && grant.periodStart != null && grant.periodStart.before(periodStart)) {
+                    grant.closed = true;
+                    typeGrants.getValue().remove(msisdn, grant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Charges the batch one request after the other with {@link #debitAsync}, most of them are served
+     * from local grants without a VoltDB call. A request whose reservation fails keeps its failure, the
+     * others are still charged.
+     */
+    @Override
+    public CompletableFuture<List<DebitOutcome>> debitBatchAsync(BalanceType[] types, String[] msisdns, int[] usages) {
+        CompletableFuture<List<DebitOutcome>> batch = CompletableFuture.completedFuture(new ArrayList<>(msisdns.length));
+        for (int i = 0; i < msisdns.length; i++) {
+            int index = i;
+            batch = batch.thenCompose(outcomes -> debitAsync(types[index], msisdns[index], usages[index])
+                    .handle((debitResult, failure) -> {
+                        outcomes.add(failure == null ? DebitOutcome.of(debitResult) : DebitOutcome.failed(failure));
+                        return outcomes;
+                    }));
+        }
+        return batch;
+    }
+
+    // VoltDB keeps the reservation past the validity of the grant, until the sweeper has surely refunded it
+    private long holdMillis() {
+        return validityMillis + reservationGraceMillis;
+    }
+
+    private boolean needsReservation(Grant grant, int usage, long now) {
+        return grant.available < usage || grant.expiresAt <= now;
+    }
+
+    private int reservation(Grant grant, int usage) {
+        int missing = Math.max(usage - grant.available, 0);
+        return missing + grantSizes.get(grant.type);
+    }
+
+    /**
+     * Adds the reserved block to the grant. When the debit renewed the balance, the units still held were
+     * reserved from the period that ended and are dropped: granting or refunding them would credit them to
+     * the new period.
+     *
+     * @return whether units of an ended period were dropped
+     */
+    private boolean applyReservation(Grant grant, VoltDebitResult debitResult, long now) {
+        boolean renewed = grant.periodStart != null && !grant.periodStart.equals(debitResult.periodStart());
+        if (renewed) {
+            grant.available = 0;
+            grant.used = 0;
+        }
+        grant.available += debitResult.grantedAmount();
+        grant.voltRemaining = debitResult.remainingBalance();
+        grant.packageId = debitResult.packageId();
+        grant.periodStart = debitResult.periodStart();
+        grant.expiresAt = now + validityMillis;
+        return renewed;
+    }
+
+    private VoltDebitResult take(Grant grant, int usage, long now) {
+        int granted = Math.min(grant.available, usage);
+        grant.available -= granted;
+        grant.used += granted;
+        grant.lastUsedAt = now;
+        return new VoltDebitResult(granted, grant.voltRemaining + grant.available, grant.packageId, grant.periodStart);
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Grant> released = new ArrayList<>();
+
+            for (Map<String, Grant> typeGrants : grants.values()) {
+                for (Grant grant : typeGrants.values()) {
+                    close(typeGrants, grant, released, now);
+                }
+            }
+
+            evictOverflow(released);
+            refund(released);
+        } catch (RuntimeException e) {
+            logger.error("Error while sweeping quota grants: " + e.getMessage(), e);
+        }
+    }
+
+    private void evictOverflow(List<Grant> released) {
+        int size = grants.values().stream().mapToInt(Map::size).sum();
+        if (size <= maxGrants) {
+            return;
+        }
+
+        List<Grant> all = new ArrayList<>(size);
+        grants.values().forEach(typeGrants -> all.addAll(typeGrants.values()));
+        all.sort(Comparator.comparingLong(grant -> grant.lastUsedAt));
+
+        for (int i = 0; i < size - maxGrants; i++) {
+            Grant grant = all.get(i);
+            close(grants.get(grant.type), grant, released, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Closes the grant if it expired or went idle before {@code now}; {@code Long.MAX_VALUE} closes it
+     * unconditionally.
+     */
+    private void close(Map<String, Grant> typeGrants, Grant grant, List<Grant> released, long now) {
+        synchronized (grant) {
+            if (grant.closed || (grant.expiresAt > now && now - grant.lastUsedAt < idleTimeoutMillis)) {
+                return;
+            }
+            grant.closed = true;
+            typeGrants.remove(grant.msisdn, grant);
+        }
+        if (grant.available > 0 || grant.used > 0) {
+            released.add(grant);
+        }
+    }
+
+    /**
+     * Returns the unused units of the released grants, together with the ones whose refund failed before.
+     * When the call fails they all go back to {@link #failedRefunds}. A failed refund is dropped once VoltDB
+     * may have given its units back by itself.
+     *
+     * @return false if the refund call failed
+     */
+    private boolean refund(List<Grant> released) {
+        List<Refund> refunds = new ArrayList<>(released.size());
+        for (Grant grant : released) {
+            refunds.add(new Refund(grant.msisdn, grant.type, grant.available, grant.used, grant.periodStart,
+                    grant.expiresAt + reservationGraceMillis / 2));
+        }
+        long now = System.currentTimeMillis();
+        Refund failed;
+        while ((failed = failedRefunds.poll()) != null) {
+            if (failed.retryUntil() > now) {
+                refunds.add(failed);
+            } else {
+                logger.warn("Unused quota of " + failed.msisdn() + " is left to VoltDB to give back: "
+                        + failed.amount() + " " + failed.type());
+            }
+        }
+        if (refunds.isEmpty()) {
+            return true;
+        }
+
+        String[] msisdns = new String[refunds.size()];
+        String[] balanceTypes = new String[refunds.size()];
+        int[] amounts = new int[refunds.size()];
+        int[] used = new int[refunds.size()];
+        Timestamp[] periodStarts = new Timestamp[refunds.size()];
+        for (int i = 0; i < refunds.size(); i++) {
+            Refund refund = refunds.get(i);
+            msisdns[i] = refund.msisdn();
+            balanceTypes[i] = refund.type().name();
+            amounts[i] = refund.amount();
+            used[i] = refund.used();
+            periodStarts[i] = refund.periodStart();
+        }
+
+        try {
+            store.refund(msisdns, balanceTypes, amounts, used, periodStarts);
+        } catch (RuntimeException e) {
+            failedRefunds.addAll(refunds);
+            logger.error("Could not return unused quota of " + refunds.size() + " grants, will try again: " + e.getMessage(), e);
+            return false;
+        }
+        logger.info("Returned unused quota of " + refunds.size() + " grants");
+        return true;
+    }
+
+    @Override
+    public VoltDebitResult reserve(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        return store.reserve(type, msisdn, amount, used, holdMillis);
+    }
+
+    @Override
+    public CompletableFuture<VoltDebitResult> reserveAsync(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        return store.reserveAsync(type, msisdn, amount, used, holdMillis);
+    }
+
+    @Override
+    public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        return store.refund(msisdns, balanceTypes, amounts, used, periodStarts);
+    }
+
+    @Override
+    public long reclaimExpiredReservations(int limit) {
+        return store.reclaimExpiredReservations(limit);
+    }
+
+    /**
+     * Renews the balances in the store and drops the grants and the failed refunds of the renewed
+     * subscribers. Their units were reserved from the period that ended, so they are not refunded into the
+     * new one.
+     */
+    @Override
+    public VoltRenewalBatch renewExpiredBalances(int limit) {
+        VoltRenewalBatch batch = store.renewExpiredBalances(limit);
+        if (!failedRefunds.isEmpty() && !batch.msisdns().isEmpty()) {
+            Set<String> renewed = new HashSet<>(batch.msisdns());
+            failedRefunds.removeIf(refund -> renewed.contains(refund.msisdn()));
+        }
+        for (String msisdn : batch.msisdns()) {
+            for (Map<String, Grant> typeGrants : grants.values()) {
+                Grant grant = typeGrants.get(msisdn);
+                if (grant == null) {
+                    continue;
+                }
+                synchronized (grant) {
+                    grant.closed = true;
+                    typeGrants.remove(msisdn, grant);
+                }
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public VoltPackageDetails getPackageDetails(int packageId) {
+        return store.getPackageDetails(packageId);
+    }
+
+    @Override
+    public UserDetails getUserDetails(String msisdn) {
+        return store.getUserDetails(msisdn);
+    }
+
+    // the balances are those of the store, units reserved for local grants are already taken off them
+    @Override
+    public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+        return store.getSubscriberSnapshot(msisdn);
+    }
+
+    @Override
+    public Map<Integer, VoltPackageDetails> getAllPackageDetails() {
+        return store.getAllPackageDetails();
+    }
+
+    @Override
+    public int getMaxCustomerId() {
+        return store.getMaxCustomerId();
+    }
+
+    @Override
+    public Map<String, UserDetails> getUserDetails(int fromCustomerId, int toCustomerId) {
+        return store.getUserDetails(fromCustomerId, toCustomerId);
+    }
+
+    /**
+     * Stops the sweeper and gives every outstanding grant, and every refund that failed before, back to
+     * VoltDB. A failing refund call is tried a few times, after that the units are left to
+     * {@link #reclaimExpiredReservations}.
+     */
+    public void close() {
+        sweeper.shutdown();
+        List<Grant> released = new ArrayList<>();
+        for (Map<String, Grant> typeGrants : grants.values()) {
+            for (Grant grant : typeGrants.values()) {
+                close(typeGrants, grant, released, Long.MAX_VALUE);
+            }
+        }
+
+        for (int attempt = 1; !refund(released); attempt++) {
+            if (attempt == CLOSE_REFUND_ATTEMPTS) {
+                break;
+            }
+            released = List.of();
+            try {
+                Thread.sleep(CLOSE_REFUND_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Refund refund : failedRefunds) {
+            logger.warn("Unused quota was not returned, VoltDB gives it back when the reservation ends: "
+                    + refund.amount() + " " + refund.type() + " of " + refund.msisdn());
+        }
+    }
+}
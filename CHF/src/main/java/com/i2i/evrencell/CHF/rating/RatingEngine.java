@@ -0,0 +1,116 @@
+package com.i2i.evrencell.CHF.rating;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.typesafe.config.ConfigFactory;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rates transactions against the current {@link TariffTable}. The table is replaced as a whole when the
+ * tariff file changes, so a charge always sees one complete tariff and rating itself never reads a file
+ * or takes a lock.
+ *
+ * <p>Until the tariff file exists the {@code tariff.conf} packaged with CHF is used. A tariff file that
+ * cannot be read or compiled is logged once and the previous table stays in use.
+ */
+public class RatingEngine {
+
+    private static final Logger logger = Logger.getLogger(RatingEngine.class);
+    private static final String DEFAULT_TARIFF = "tariff.conf";
+
+    private final Path tariffFile;
+    private volatile TariffTable table;
+    private long loadedModified = Long.MIN_VALUE;
+    private ScheduledExecutorService reloader;
+
+    /**
+     * @throws com.typesafe.config.ConfigException if neither the tariff file nor the packaged tariff can be used
+     */
+    public RatingEngine(Path tariffFile) {
+        this.tariffFile = tariffFile;
+        if (!reload()) {
+            this.table = TariffTable.compile(ConfigFactory.parseResources(DEFAULT_TARIFF).resolve());
+            logger.info("Tariff file " + tariffFile + " not loaded, using the packaged " + DEFAULT_TARIFF);
+        }
+    }
+
+    public RatingEngine(TariffTable table) {
+        this.tariffFile = null;
+        this.table = table;
+    }
+
+    public static RatingEngine identity() {
+        return new RatingEngine(TariffTable.IDENTITY);
+    }
+
+    public int rate(BalanceType type, int location, int ratingGroup, int usage) {
+        return table.rate(type, location, ratingGroup, usage);
+    }
+
+    public TariffTable table() {
+        return table;
+    }
+
+    /**
+     * Replaces the tariff, charges already being rated finish with the previous one.
+     */
+    public void swap(TariffTable newTable) {
+        table = newTable;
+    }
+
+    /**
+     * Loads the tariff file again if it changed since the last load.
+     *
+     * @return true if a new tariff is in use
+     */
+    public synchronized boolean reload() {
+        if (tariffFile == null) {
+            return false;
+        }
+
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(tariffFile).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+        if (modified == loadedModified) {
+            return false;
+        }
+
+        // a broken file is not tried again until it is changed
+        loadedModified = modified;
+        try {
+            swap(TariffTable.compile(ConfigFactory.parseFile(tariffFile.toFile()).resolve()));
+            logger.info("Loaded tariff from " + tariffFile);
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("Could not load tariff from " + tariffFile + ", keeping the current tariff", e);
+            return false;
+        }
+    }
+
+    public void startReloading(long intervalMillis) {
+        if (tariffFile == null) {
+            return;
+        }
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tariff-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reload, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (reloader != null) {
+            reloader.shutdown();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.i2i.evrencell.CHF.rating;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable tariff, compiled from a tariff file into flat arrays so that rating a transaction is a few
+ * array reads and integer operations. Multipliers are kept in thousandths and results are rounded up to
+ * whole balance units.
+ *
+ * <p>Locations are grouped into zones, every zone has a multiplier per balance type; locations not listed
+ * belong to the default zone. Data is multiplied by the rating group as well, and free rating groups cost
+ * nothing. Voice durations are raised to the minimum and rounded up to the increment before they are
+ * converted to balance units.
+ */
+public final class TariffTable {
+
+    static final int SCALE = 1000;
+    private static final int MAX_INDEX = 65_535;
+
+    /** Charges every unit of usage as one unit of balance, the behaviour without a tariff. */
+    public static final TariffTable IDENTITY = new TariffTable(
+            new int[BalanceType.values().length][0], new int[]{SCALE, SCALE, SCALE},
+            new int[0], SCALE, 0, 1, 1);
+
+    // [balance type][location]
+    private final int[][] locationMultipliers;
+    // [balance type]
+    private final int[] defaultMultipliers;
+    private final int[] ratingGroupMultipliers;
+    private final int defaultRatingGroupMultiplier;
+    private final int voiceMinimumSeconds;
+    private final int voiceIncrementSeconds;
+    private final int voiceSecondsPerUnit;
+
+    private TariffTable(int[][] locationMultipliers, int[] defaultMultipliers,
+                        int[] ratingGroupMultipliers, int defaultRatingGroupMultiplier,
+                        int voiceMinimumSeconds, int voiceIncrementSeconds, int voiceSecondsPerUnit) {
+        this.locationMultipliers = locationMultipliers;
+        this.defaultMultipliers = defaultMultipliers;
+        this.ratingGroupMultipliers = ratingGroupMultipliers;
+        this.defaultRatingGroupMultiplier = defaultRatingGroupMultiplier;
+        this.voiceMinimumSeconds = voiceMinimumSeconds;
+        this.voiceIncrementSeconds = voiceIncrementSeconds;
+        this.voiceSecondsPerUnit = voiceSecondsPerUnit;
+    }
+
+    /**
+     * @param usage       megabytes for data, seconds for voice, 1 for SMS
+     * @param ratingGroup only used for data
+     * @return balance units to debit, 0 for free usage
+     */
+    public int rate(BalanceType type, int location, int ratingGroup, int usage) {
+        if (usage <= 0) {
+            return 0;
+        }
+        long multiplier = locationMultiplier(type, location);
+        return switch (type) {
+            case DATA -> scaleUp(usage * multiplier, ratingGroupMultiplier(ratingGroup), (long) SCALE * SCALE);
+            case VOICE -> scaleUp(roundVoice(usage), multiplier, (long) SCALE * voiceSecondsPerUnit);
+            case SMS -> scaleUp(usage, multiplier, SCALE);
+        };
+    }
+
+    private int locationMultiplier(BalanceType type, int location) {
+        int[] multipliers = locationMultipliers[type.ordinal()];
+        if (location >= 0 && location < multipliers.length) {
+            int multiplier = multipliers[location];
+            if (multiplier >= 0) {
+                return multiplier;
+            }
+        }
+        return defaultMultipliers[type.ordinal()];
+    }
+
+    private int ratingGroupMultiplier(int ratingGroup) {
+        if (ratingGroup >= 0 && ratingGroup < ratingGroupMultipliers.length) {
+            int multiplier = ratingGroupMultipliers[ratingGroup];
+            if (multiplier >= 0) {
+                return multiplier;
+            }
+        }
+        return defaultRatingGroupMultiplier;
+    }
+
+    private long roundVoice(int seconds) {
+        long billed = Math.max(seconds, voiceMinimumSeconds);
+        return (billed + voiceIncrementSeconds - 1) / voiceIncrementSeconds * voiceIncrementSeconds;
+    }
+
+    /**
+     * {@code value * multiplier / divisor} rounded up, capped at the largest int.
+     */
+    private static int scaleUp(long value, long multiplier, long divisor) {
+        long product;
+        try {
+            product = Math.multiplyExact(value, multiplier);
+        } catch (ArithmeticException e) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (product + divisor - 1) / divisor);
+    }
+
+    /**
+     * Compiles the {@code tariff} block of a tariff file.
+     *
+     * @throws ConfigException if the tariff is incomplete or has values out of range
+     */
+    public static TariffTable compile(Config config) {
+        Config tariff = config.getConfig("tariff");
+        Config zones = tariff.getConfig("zones");
+        String defaultZone = tariff.getString("default-zone");
+        if (!zones.hasPath(defaultZone)) {
+            throw new ConfigException.BadValue("tariff.default-zone", "Unknown zone " + defaultZone);
+        }
+
+        int[] defaultMultipliers = new int[BalanceType.values().length];
+        for (BalanceType type : BalanceType.values()) {
+            defaultMultipliers[type.ordinal()] = multiplier(zones.getConfig(defaultZone), type.name().toLowerCase());
+        }
+
+        int maxLocation = -1;
+        for (String zone : zones.root().keySet()) {
+            for (int location : zones.getConfig(zone).getIntList("locations")) {
+                maxLocation = Math.max(maxLocation, index(location, "tariff.zones." + zone + ".locations"));
+            }
+        }
+        int[][] locationMultipliers = new int[BalanceType.values().length][maxLocation + 1];
+        for (int[] multipliers : locationMultipliers) {
+            Arrays.fill(multipliers, -1);
+        }
+        for (String zone : zones.root().keySet()) {
+            Config zoneConfig = zones.getConfig(zone);
+            for (int location : zoneConfig.getIntList("locations")) {
+                for (BalanceType type : BalanceType.values()) {
+                    locationMultipliers[type.ordinal()][location] = multiplier(zoneConfig, type.name().toLowerCase());
+                }
+            }
+        }
+
+        Config ratingGroups = tariff.getConfig("rating-groups");
+        int maxRatingGroup = -1;
+        for (String ratingGroup : ratingGroups.root().keySet()) {
+            maxRatingGroup = Math.max(maxRatingGroup, index(parseIndex(ratingGroup), "tariff.rating-groups"));
+        }
+        for (int ratingGroup : tariff.getIntList("free-rating-groups")) {
+            maxRatingGroup = Math.max(maxRatingGroup, index(ratingGroup, "tariff.free-rating-groups"));
+        }
+        int[] ratingGroupMultipliers = new int[maxRatingGroup + 1];
+        Arrays.fill(ratingGroupMultipliers, -1);
+        for (String ratingGroup : ratingGroups.root().keySet()) {
+            ratingGroupMultipliers[parseIndex(ratingGroup)] = multiplier(ratingGroups, ratingGroup);
+        }
+        for (int ratingGroup : tariff.getIntList("free-rating-groups")) {
+            ratingGroupMultipliers[ratingGroup] = 0;
+        }
+
+        Config voice = tariff.getConfig("voice");
+        int minimum = (int) voice.getDuration("minimum", TimeUnit.SECONDS);
+        int increment = (int) voice.getDuration("increment", TimeUnit.SECONDS);
+        int unit = (int) voice.getDuration("unit", TimeUnit.SECONDS);
+        if (increment < 1 || unit < 1) {
+            throw new ConfigException.BadValue("tariff.voice", "increment and unit must be at least 1s");
+        }
+
+        return new TariffTable(locationMultipliers, defaultMultipliers, ratingGroupMultipliers, SCALE,
+                minimum, increment, unit);
+    }
+
+    private static int multiplier(Config config, String path) {
+        double multiplier = config.getDouble(path);
+        if (multiplier < 0 || multiplier > 1000) {
+            throw new ConfigException.BadValue(config.origin(), path, "Multiplier must be between 0 and 1000");
+        }
+        return (int) Math.round(multiplier * SCALE);
+    }
+
+    private static int parseIndex(String key) {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new ConfigException.BadValue("tariff.rating-groups", key + " is not a rating group number");
+        }
+    }
+
+    private static int index(int value, String path) {
+        if (value < 0 || value > MAX_INDEX) {
+            throw new ConfigException.BadValue(path, value + " is not between 0 and " + MAX_INDEX);
+        }
+        return value;
+    }
+}
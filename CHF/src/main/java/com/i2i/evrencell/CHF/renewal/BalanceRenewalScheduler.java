@@ -0,0 +1,145 @@
+package com.i2i.evrencell.CHF.renewal;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import com.i2i.evrencell.voltdb.VoltRenewalBatch;
+import org.apache.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts the next balance period of expired balances and clears the usage notifications sent in the
+ * period that ended.
+ *
+ * <p>The scheduler sleeps until the earliest period end VoltDB reports, so it wakes once per expiry
+ * instead of scanning subscribers. Expired balances are renewed in batches of {@code batchSize} with a
+ * pause between them, which spreads a midnight expiry of millions of balances over short transactions
+ * that charges can run between. Charges of a subscriber whose turn has not come yet are not held up, the
+ * debit procedures renew an expired balance themselves.
+ *
+ * <p>Every run first gives back up to {@code batchSize} quota reservations whose hold has ended, those of
+ * a CHF node that stopped without returning its grants.
+ */
+public class BalanceRenewalScheduler implements BalanceRenewalSchedulerMBean {
+
+    private static final Logger logger = Logger.getLogger(BalanceRenewalScheduler.class);
+
+    // VoltDB and CHF clocks may differ slightly, an expiry that is due by our clock is retried after this
+    private static final long MIN_WAIT_MILLIS = 1000;
+
+    private final BalanceStore store;
+    private final ThresholdNotificationState thresholdState;
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final long maxIntervalMillis;
+    private final LongAdder renewed = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long nextRunMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "balance-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param batchPauseMillis wait after a full batch before the next one
+     * @param maxIntervalMillis longest wait between two checks, also after a failed renewal
+     */
+    public BalanceRenewalScheduler(BalanceStore store, ThresholdNotificationState thresholdState,
+                                   int batchSize, long batchPauseMillis, long maxIntervalMillis) {
+        this.store = store;
+        this.thresholdState = thresholdState;
+        this.batchSize = batchSize;
+        this.batchPauseMillis = batchPauseMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public void start() {
+        schedule(0);
+    }
+
+    private void schedule(long delayMillis) {
+        nextRunMillis = System.currentTimeMillis() + delayMillis;
+        scheduler.schedule(this::renew, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void renew() {
+        long delay = maxIntervalMillis;
+        try {
+            long reclaimedBalances = store.reclaimExpiredReservations(batchSize);
+            reclaimed.add(reclaimedBalances);
+            if (reclaimedBalances > 0) {
+                logger.info("Gave back the expired quota reservations of " + reclaimedBalances + " balances");
+            }
+
+            VoltRenewalBatch batch = store.renewExpiredBalances(batchSize);
+            for (String msisdn : batch.msisdns()) {
+                thresholdState.reset(msisdn);
+            }
+            renewed.add(batch.msisdns().size());
+            batches.increment();
+
+            if (batch.msisdns().size() >= batchSize || reclaimedBalances >= batchSize) {
+                delay = batchPauseMillis;
+            } else if (batch.nextExpiry() != null) {
+                long untilExpiry = batch.nextExpiry().getTime() - System.currentTimeMillis();
+                delay = Math.min(Math.max(untilExpiry, MIN_WAIT_MILLIS), maxIntervalMillis);
+            }
+            if (!batch.msisdns().isEmpty()) {
+                logger.debug("Renewed " + batch.msisdns().size() + " balances, next expiry " + batch.nextExpiry());
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+            logger.error("Error while renewing expired balances: " + e.getMessage(), e);
+        } finally {
+            if (!scheduler.isShutdown()) {
+                schedule(delay);
+            }
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.i2i.evrencell.CHF:type=BalanceRenewalScheduler"));
+        } catch (Exception e) {
+            logger.warn("Could not register BalanceRenewalScheduler MBean", e);
+        }
+    }
+
+    @Override
+    public long getRenewedCount() {
+        return renewed.sum();
+    }
+
+    @Override
+    public long getReclaimedCount() {
+        return reclaimed.sum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getNextRunMillis() {
+        return nextRunMillis;
+    }
+}
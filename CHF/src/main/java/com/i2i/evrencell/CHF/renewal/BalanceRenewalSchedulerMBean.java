@@ -0,0 +1,14 @@
+package com.i2i.evrencell.CHF.renewal;
+
+public interface BalanceRenewalSchedulerMBean {
+
+    long getRenewedCount();
+
+    long getReclaimedCount();
+
+    long getBatchCount();
+
+    long getFailureCount();
+
+    long getNextRunMillis();
+}
@@ -0,0 +1,140 @@
+package com.i2i.evrencell.CHF.store;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltRenewalBatch;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where CHF reads and changes subscriber balances. {@link VoltBalanceStore} is the VoltDB implementation,
+ * {@link com.i2i.evrencell.CHF.quota.QuotaCache} serves debits from local grants in front of another store.
+ */
+public interface BalanceStore {
+
+    /**
+     * Deducts up to {@code usage} units and reports how many were granted.
+     *
+     * @return null when the MSISDN has no balance
+     */
+    VoltDebitResult debit(BalanceType type, String msisdn, int usage);
+
+    /**
+     * Same as {@link #debit} without blocking the calling thread. The default runs the blocking debit,
+     * stores that can talk to their backend asynchronously override it.
+     */
+    default CompletableFuture<VoltDebitResult> debitAsync(BalanceType type, String msisdn, int usage) {
+        return CompletableFuture.completedFuture(debit(type, msisdn, usage));
+    }
+
+    /**
+     * Debits a batch, entry i deducts up to {@code usages[i]} units of {@code types[i]} from
+     * {@code msisdns[i]}, in array order. The result has one entry per request, with the failure of a
+     * request that could not be charged. The default debits the requests one by one.
+     */
+    default List<DebitOutcome> debitBatch(BalanceType[] types, String[] msisdns, int[] usages) {
+        List<DebitOutcome> outcomes = new ArrayList<>(msisdns.length);
+        for (int i = 0; i < msisdns.length; i++) {
+            try {
+                outcomes.add(DebitOutcome.of(debit(types[i], msisdns[i], usages[i])));
+            } catch (RuntimeException e) {
+                outcomes.add(DebitOutcome.failed(e));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Same as {@link #debitBatch} without blocking the calling thread. The default runs the blocking batch.
+     */
+    default CompletableFuture<List<DebitOutcome>> debitBatchAsync(BalanceType[] types, String[] msisdns, int[] usages) {
+        return CompletableFuture.completedFuture(debitBatch(types, msisdns, usages));
+    }
+
+    /**
+     * Deducts up to {@code amount} units for a local grant and records them as reserved for
+     * {@code holdMillis}, after which the store gives back what was not refunded or reported as used.
+     * {@code used} units of the earlier reservations of this balance type were charged since they were
+     * last reported. The default debits the units, for stores that do not record reservations.
+     *
+     * @return null when the MSISDN has no balance
+     */
+    default VoltDebitResult reserve(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        return debit(type, msisdn, amount);
+    }
+
+    /**
+     * Same as {@link #reserve} without blocking the calling thread. The default runs the blocking
+     * reservation.
+     */
+    default CompletableFuture<VoltDebitResult> reserveAsync(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        return CompletableFuture.completedFuture(reserve(type, msisdn, amount, used, holdMillis));
+    }
+
+    /**
+     * Adds {@code amounts[i]} units of {@code balanceTypes[i]} back to {@code msisdns[i]}, unless the
+     * balance has left the period {@code periodStarts[i]} the units were reserved from. {@code used[i]}
+     * reserved units were charged and stay off the balance.
+     *
+     * @return number of balances that were refunded
+     */
+    long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts);
+
+    /**
+     * Gives back up to {@code limit} reservations whose hold has ended without a refund, the reservations
+     * of a CHF node that stopped. The default reclaims nothing, for stores that do not record reservations.
+     *
+     * @return number of balances whose reservations were given back
+     */
+    default long reclaimExpiredReservations(int limit) {
+        return 0;
+    }
+
+    /**
+     * Starts the next balance period for up to {@code limit} balances whose period has ended, their
+     * levels go back to the package amounts. The default renews nothing, for stores without periods.
+     */
+    default VoltRenewalBatch renewExpiredBalances(int limit) {
+        return new VoltRenewalBatch(List.of(), null);
+    }
+
+    VoltPackageDetails getPackageDetails(int packageId);
+
+    UserDetails getUserDetails(String msisdn);
+
+    /**
+     * Contact details, package definition, remaining balances and balance period of the subscriber, read
+     * together so that a subscriber and its package missing from the caches cost one call.
+     */
+    VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn);
+
+    /**
+     * Every package definition by package ID, to fill the package catalog at startup. The default returns
+     * none, packages are then read when they are first needed.
+     */
+    default Map<Integer, VoltPackageDetails> getAllPackageDetails() {
+        return Map.of();
+    }
+
+    /**
+     * Highest customer ID, the end of the ranges given to {@link #getUserDetails(int, int)}. The default
+     * is 0, for stores that cannot list their subscribers.
+     */
+    default int getMaxCustomerId() {
+        return 0;
+    }
+
+    /**
+     * Subscriber details by MSISDN for the customers with {@code fromCustomerId <= ID < toCustomerId}.
+     */
+    default Map<String, UserDetails> getUserDetails(int fromCustomerId, int toCustomerId) {
+        return Map.of();
+    }
+}
@@ -0,0 +1,34 @@
+package com.i2i.evrencell.CHF.store;
+
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What became of one request of a batch debit, see {@link BalanceStore#debitBatch}.
+ *
+ * @param debitResult null when the MSISDN has no balance or the request failed
+ * @param failure     why the request could not be charged, null when it was
+ */
+public record DebitOutcome(VoltDebitResult debitResult, Throwable failure) {
+
+    public static DebitOutcome of(VoltDebitResult debitResult) {
+        return new DebitOutcome(debitResult, null);
+    }
+
+    public static DebitOutcome failed(Throwable failure) {
+        return new DebitOutcome(null, failure);
+    }
+
+    /**
+     * Outcomes of a batch whose requests were all charged.
+     */
+    public static List<DebitOutcome> of(List<VoltDebitResult> debitResults) {
+        List<DebitOutcome> outcomes = new ArrayList<>(debitResults.size());
+        for (VoltDebitResult debitResult : debitResults) {
+            outcomes.add(of(debitResult));
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,138 @@
+package com.i2i.evrencell.CHF.store;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltRenewalBatch;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import com.i2i.evrencell.voltdb.VoltdbOperator;
+import com.i2i.evrencell.voltdb.VoltdbOperator2;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class VoltBalanceStore implements BalanceStore {
+
+    private final VoltdbOperator voltdbOperator;
+    private final VoltdbOperator2 asyncOperator;
+
+    public VoltBalanceStore(VoltdbOperator voltdbOperator) {
+        this(voltdbOperator, null);
+    }
+
+    /**
+     * @param asyncOperator callback based client used by {@link #debitAsync}, or null to debit with the
+     *                      blocking client
+     */
+    public VoltBalanceStore(VoltdbOperator voltdbOperator, VoltdbOperator2 asyncOperator) {
+        this.voltdbOperator = voltdbOperator;
+        this.asyncOperator = asyncOperator;
+    }
+
+    @Override
+    public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+        return switch (type) {
+            case DATA -> voltdbOperator.debitDataBalance(usage, msisdn);
+            case VOICE -> voltdbOperator.debitVoiceBalance(usage, msisdn);
+            case SMS -> voltdbOperator.debitSmsBalance(usage, msisdn);
+        };
+    }
+
+    @Override
+    public CompletableFuture<VoltDebitResult> debitAsync(BalanceType type, String msisdn, int usage) {
+        if (asyncOperator == null) {
+            return BalanceStore.super.debitAsync(type, msisdn, usage);
+        }
+        return switch (type) {
+            case DATA -> asyncOperator.debitDataBalance(usage, msisdn);
+            case VOICE -> asyncOperator.debitVoiceBalance(usage, msisdn);
+            case SMS -> asyncOperator.debitSmsBalance(usage, msisdn);
+        };
+    }
+
+    @Override
+    public List<DebitOutcome> debitBatch(BalanceType[] types, String[] msisdns, int[] usages) {
+        return DebitOutcome.of(voltdbOperator.debitBalances(msisdns, typeNames(types), usages));
+    }
+
+    @Override
+    public CompletableFuture<List<DebitOutcome>> debitBatchAsync(BalanceType[] types, String[] msisdns, int[] usages) {
+        if (asyncOperator == null) {
+            return BalanceStore.super.debitBatchAsync(types, msisdns, usages);
+        }
+        return asyncOperator.debitBalances(msisdns, typeNames(types), usages).thenApply(DebitOutcome::of);
+    }
+
+    private static String[] typeNames(BalanceType[] types) {
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            names[i] = types[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public VoltDebitResult reserve(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        return voltdbOperator.reserveBalance(type.name(), msisdn, amount, used, holdMillis);
+    }
+
+    @Override
+    public CompletableFuture<VoltDebitResult> reserveAsync(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+        if (asyncOperator == null) {
+            return BalanceStore.super.reserveAsync(type, msisdn, amount, used, holdMillis);
+        }
+        return asyncOperator.reserveBalance(type.name(), msisdn, amount, used, holdMillis);
+    }
+
+    @Override
+    public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        return voltdbOperator.refundBalances(msisdns, balanceTypes, amounts, used, periodStarts);
+    }
+
+    @Override
+    public long reclaimExpiredReservations(int limit) {
+        return voltdbOperator.reclaimExpiredReservations(limit);
+    }
+
+    @Override
+    public VoltRenewalBatch renewExpiredBalances(int limit) {
+        return voltdbOperator.renewExpiredBalances(limit);
+    }
+
+    @Override
+    public VoltPackageDetails getPackageDetails(int packageId) {
+        try {
+            return voltdbOperator.getPackageInfoByPackageId(packageId);
+        } catch (Exception e) {
+            throw new RuntimeException("Error while loading package " + packageId, e);
+        }
+    }
+
+    @Override
+    public UserDetails getUserDetails(String msisdn) {
+        return voltdbOperator.getUserDetails(msisdn);
+    }
+
+    @Override
+    public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+        return voltdbOperator.getSubscriberSnapshot(msisdn);
+    }
+
+    @Override
+    public Map<Integer, VoltPackageDetails> getAllPackageDetails() {
+        return voltdbOperator.getAllPackageDetails();
+    }
+
+    @Override
+    public int getMaxCustomerId() {
+        return voltdbOperator.getMaxCustomerId();
+    }
+
+    @Override
+    public Map<String, UserDetails> getUserDetails(int fromCustomerId, int toCustomerId) {
+        return voltdbOperator.getUserDetailsByCustomerIdRange(fromCustomerId, toCustomerId);
+    }
+}
@@ -0,0 +1,92 @@
+package com.i2i.evrencell.CHF.stream;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.ActorAttributes;
+import akka.stream.Supervision;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.MergeHub;
+import akka.stream.javadsl.Sink;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import org.apache.log4j.Logger;
+import org.sk.i2i.evren.ChargingResult;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Akka Streams alternative to the ChargingActor pool.
+ *
+ * <p>Every producer runs its transactions into {@link #sink()}. The transactions are split into
+ * {@code partitions} substreams by MSISDN, each substream collects up to {@code batchSize} charges or
+ * waits at most {@code batchWindow}, and charges the batch with one VoltDB call. A substream has one
+ * batch in flight at a time, so charges of a subscriber stay in order and at most {@code partitions}
+ * batches are in flight. When they are all busy the stream stops pulling, and the demand that is
+ * missing reaches every producer, including TGF through its stream reference.
+ *
+ * <p>Every transaction carries the actor its {@link ChargingResult} is sent to, or null for no result.
+ */
+public class ChargingStream {
+
+    private static final Logger logger = Logger.getLogger(ChargingStream.class);
+
+    private final Sink<Pair<Object, ActorRef>, NotUsed> sink;
+
+    public ChargingStream(ActorSystem system, BalanceCalculator balanceCalculator,
+                          int partitions, int batchSize, Duration batchWindow, int producerBuffer) {
+        @SuppressWarnings("unchecked")
+        Class<Pair<Object, ActorRef>> transactionClass = (Class<Pair<Object, ActorRef>>) (Class<?>) Pair.class;
+        sink = MergeHub.of(transactionClass, producerBuffer)
+                .mapConcat(transaction -> {
+                    ChargeRequest request = ChargeRequest.of(transaction.first());
+                    if (request == null) {
+                        logger.warn("Received unknown message: " + transaction.first());
+                        return List.<Pair<ChargeRequest, ActorRef>>of();
+                    }
+                    return List.of(Pair.create(request, transaction.second()));
+                })
+                .groupBy(partitions, request -> Math.floorMod(request.first().msisdn().hashCode(), partitions))
+                .groupedWithin(batchSize, batchWindow)
+                .mapAsync(1, batch -> balanceCalculator
+                        .calculateBatch(batch.stream().map(Pair::first).toList())
+                        .thenAccept(results -> reply(batch, results)))
+                .mergeSubstreams()
+                .withAttributes(ActorAttributes.withSupervisionStrategy(failure -> {
+                    logger.error("Error in charging stream, element dropped", failure);
+                    return Supervision.resume();
+                }))
+                .to(Sink.ignore())
+                .run(system);
+    }
+
+    private static void reply(List<Pair<ChargeRequest, ActorRef>> batch, List<ChargingResult> results) {
+        for (int i = 0; i < results.size(); i++) {
+            ActorRef replyTo = batch.get(i).second();
+            if (replyTo != null) {
+                replyTo.tell(results.get(i), ActorRef.noSender());
+            }
+        }
+    }
+
+    /**
+     * Entry point of the stream for transactions paired with the actor their result is sent to. It can
+     * be materialized any number of times.
+     */
+    public Sink<Pair<Object, ActorRef>, NotUsed> sink() {
+        return sink;
+    }
+
+    /**
+     * Entry point of the stream for transactions whose results all go to {@code replyTo}.
+     *
+     * @param replyTo receives the results, null for no results
+     */
+    public Sink<Object, NotUsed> sink(ActorRef replyTo) {
+        return Flow.of(Object.class)
+                .map(transaction -> Pair.create(transaction, replyTo))
+                .to(sink);
+    }
+}
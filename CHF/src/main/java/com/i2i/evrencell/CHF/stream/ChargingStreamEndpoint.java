@@ -0,0 +1,109 @@
+package com.i2i.evrencell.CHF.stream;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.japi.Pair;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.QueueOfferResult;
+import akka.stream.SinkRef;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import com.i2i.evrencell.CHF.akka.IngressCounters;
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import com.i2i.evrencell.CHF.execution.AdmissionController;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.ChargingStreamRequest;
+import org.sk.i2i.evren.TransactionBatch;
+
+/**
+ * Remote entry point of the {@link ChargingStream}. A {@link ChargingStreamRequest} is answered with a
+ * {@link SinkRef} into the stream, which gives the sender demand-driven backpressure over the network.
+ * Transactions sent as plain messages are still accepted, they go through a bounded buffer and are
+ * shed with an {@link ChargingResult.Outcome#OVERLOADED} result when it is full, because a tell cannot be
+ * pushed back. Results of streamed transactions go to
+ * the {@code replyTo} of the request, results of plain messages to their sender. A
+ * {@link TransactionBatch} is unpacked into the buffer.
+ */
+public class ChargingStreamEndpoint extends AbstractActor {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final ChargingStream chargingStream;
+    private final IngressCounters counters;
+    private final AdmissionController admissionController;
+    private final BoundedSourceQueue<Pair<Object, ActorRef>> directQueue;
+    private long dropped = 0;
+
+    public ChargingStreamEndpoint(ChargingStream chargingStream, int directBuffer, IngressCounters counters,
+                                  AdmissionController admissionController) {
+        this.chargingStream = chargingStream;
+        this.counters = counters;
+        this.admissionController = admissionController;
+        this.directQueue = Source.<Pair<Object, ActorRef>>queue(directBuffer)
+                .to(chargingStream.sink())
+                .run(getContext().getSystem());
+    }
+
+    /**
+     * @param admissionController counts the shed transactions, may be null
+     */
+    public static Props props(ChargingStream chargingStream, int directBuffer, IngressCounters counters,
+                              AdmissionController admissionController) {
+        return Props.create(ChargingStreamEndpoint.class, () -> new ChargingStreamEndpoint(chargingStream, directBuffer, counters, admissionController));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(ChargingStreamRequest.class, this::openStream)
+                .match(TransactionBatch.class, batch -> {
+                    counters.batch(batch.size());
+                    batch.getTransactions().forEach(this::offerDirect);
+                })
+                .matchAny(transaction -> {
+                    counters.single();
+                    offerDirect(transaction);
+                })
+                .build();
+    }
+
+    private void openStream(ChargingStreamRequest request) {
+        ActorRef replyTo = request.getReplyTo() == null ? null
+                : ((ExtendedActorSystem) getContext().getSystem()).provider().resolveActorRef(request.getReplyTo());
+        SinkRef<Object> sinkRef = StreamRefs.<Object>sinkRef()
+                .to(chargingStream.sink(replyTo))
+                .run(getContext().getSystem());
+        getSender().tell(sinkRef, getSelf());
+        log.info("Opened charging stream, results go to {}", request.getReplyTo());
+    }
+
+    private void offerDirect(Object transaction) {
+        ActorRef replyTo = getSender() == getContext().getSystem().deadLetters() ? null : getSender();
+        long received = System.nanoTime();
+        QueueOfferResult result = directQueue.offer(Pair.create(transaction, replyTo));
+        if (result == QueueOfferResult.enqueued()) {
+            return;
+        }
+        if (++dropped % 10_000 == 1) {
+            log.warning("Charging stream is full, transactions sent without a stream are shed. Total shed: {}", dropped);
+        }
+        ChargeRequest request = ChargeRequest.of(transaction);
+        if (request != null) {
+            if (admissionController != null) {
+                admissionController.shed(request.type());
+            }
+            if (replyTo != null) {
+                replyTo.tell(new ChargingResult(request.transactionId(), request.msisdn(), request.type().name(),
+                        ChargingResult.Outcome.OVERLOADED, 0, System.nanoTime() - received), ActorRef.noSender());
+            }
+        }
+    }
+
+    @Override
+    public void postStop() {
+        directQueue.complete();
+    }
+}
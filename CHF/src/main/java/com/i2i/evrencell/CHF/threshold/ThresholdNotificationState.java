@@ -0,0 +1,273 @@
+package com.i2i.evrencell.CHF.threshold;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which usage notifications were already sent to a subscriber in the current balance period.
+ *
+ * <p>Every subscriber takes one entry of two longs: the MSISDN key and a word that holds the period
+ * start (SDATE in epoch seconds) above six flag bits, one bit per balance type and threshold. When a
+ * charge reports a different period start the flags are cleared, so the notifications are sent again in
+ * the new period. The entries live in striped open-addressing tables, and the whole state is written to
+ * a file periodically and on shutdown so that a restarted CHF does not notify again.
+ *
+ * <p>An MSISDN of up to 18 digits without a leading zero is its own key. Any other MSISDN (leading zero,
+ * non-digit characters, longer, or "0") is keyed by a 63-bit hash with the sign bit set, so it never
+ * equals a numeric key or the empty slot. Two such MSISDNs may share flags if their hashes collide, which
+ * at most suppresses a notification and never fails the charge that triggered it.
+ */
+public class ThresholdNotificationState {
+
+    public static final int THRESHOLD_80 = 0;
+    public static final int THRESHOLD_100 = 1;
+
+    private static final Logger logger = Logger.getLogger(ThresholdNotificationState.class);
+
+    private static final int FLAG_BITS = 6;
+    private static final long FLAG_MASK = (1L << FLAG_BITS) - 1;
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Path stateFile;
+    private ScheduledExecutorService snapshotter;
+
+    private static final class Stripe {
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] values = new long[INITIAL_STRIPE_CAPACITY];
+        private int size;
+    }
+
+    /**
+     * @param stateFile file the state is loaded from and saved to, or null to keep it in memory only
+     */
+    public ThresholdNotificationState(Path stateFile) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stateFile = stateFile;
+        load();
+    }
+
+    /**
+     * Records that the notification for the given balance type and threshold was sent in the period
+     * starting at {@code periodStartSeconds}.
+     *
+     * @return true if it had not been sent in this period yet, the caller should send it now
+     */
+    public boolean markSent(String msisdn, long periodStartSeconds, BalanceType type, int threshold) {
+        long key = key(msisdn);
+        long flag = 1L << (type.ordinal() * 2 + threshold);
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            int mask = stripe.keys.length - 1;
+            int index = (int) hash & mask;
+            while (stripe.keys[index] != 0 && stripe.keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+
+            if (stripe.keys[index] == 0) {
+                stripe.keys[index] = key;
+                stripe.values[index] = (periodStartSeconds << FLAG_BITS) | flag;
+                if (++stripe.size * 4 > stripe.keys.length * 3) {
+                    resize(stripe);
+                }
+                return true;
+            }
+
+            long value = stripe.values[index];
+            if ((value >>> FLAG_BITS) != periodStartSeconds) {
+                value = periodStartSeconds << FLAG_BITS;
+            }
+            if ((value & flag) != 0) {
+                return false;
+            }
+            stripe.values[index] = value | flag;
+            return true;
+        }
+    }
+
+    /**
+     * Clears the flags of a subscriber, e.g. when the balance period is renewed.
+     */
+    public void reset(String msisdn) {
+        long key = key(msisdn);
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            int mask = stripe.keys.length - 1;
+            int index = (int) hash & mask;
+            while (stripe.keys[index] != 0) {
+                if (stripe.keys[index] == key) {
+                    stripe.values[index] &= ~FLAG_MASK;
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private void resize(Stripe stripe) {
+        long[] oldKeys = stripe.keys;
+        long[] oldValues = stripe.values;
+        stripe.keys = new long[oldKeys.length * 2];
+        stripe.values = new long[oldValues.length * 2];
+        int mask = stripe.keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = (int) mix(oldKeys[i]) & mask;
+                while (stripe.keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                stripe.keys[index] = oldKeys[i];
+                stripe.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    static long key(String msisdn) {
+        int length = msisdn.length();
+        if (length > 0 && length <= 18 && msisdn.charAt(0) != '0') {
+            long number = 0;
+            int i = 0;
+            for (; i < length; i++) {
+                char c = msisdn.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                number = number * 10 + (c - '0');
+            }
+            if (i == length) {
+                return number;
+            }
+        }
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ msisdn.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash) | Long.MIN_VALUE;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    public void startSnapshots(long intervalMillis) {
+        if (stateFile == null) {
+            return;
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "threshold-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::save, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdown();
+        }
+        save();
+    }
+
+    public synchronized void save() {
+        if (stateFile == null) {
+            return;
+        }
+
+        try {
+            Path parent = stateFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tempFile = Files.createTempFile(parent, "threshold-state", ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        out.writeInt(stripe.size);
+                        for (int i = 0; i < stripe.keys.length; i++) {
+                            if (stripe.keys[i] != 0) {
+                                out.writeLong(stripe.keys[i]);
+                                out.writeLong(stripe.values[i]);
+                            }
+                        }
+                    }
+                }
+            }
+
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Error while saving threshold notification state to " + stateFile, e);
+        }
+    }
+
+    private void load() {
+        if (stateFile == null || !Files.exists(stateFile)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            for (int s = 0; s < STRIPES; s++) {
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    put(in.readLong(), in.readLong());
+                }
+            }
+            logger.info("Loaded threshold notification state of " + size() + " subscribers");
+        } catch (IOException e) {
+            logger.error("Error while loading threshold notification state from " + stateFile, e);
+        }
+    }
+
+    private void put(long key, long value) {
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            int mask = stripe.keys.length - 1;
+            int index = (int) hash & mask;
+            while (stripe.keys[index] != 0 && stripe.keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            boolean added = stripe.keys[index] == 0;
+            stripe.keys[index] = key;
+            stripe.values[index] = value;
+            if (added && ++stripe.size * 4 > stripe.keys.length * 3) {
+                resize(stripe);
+            }
+        }
+    }
+}
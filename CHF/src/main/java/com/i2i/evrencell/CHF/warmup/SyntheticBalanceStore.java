@@ -0,0 +1,51 @@
+package com.i2i.evrencell.CHF.warmup;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+
+import java.sql.Timestamp;
+
+/**
+ * Grants every debit in full from a balance that never runs low, so the warm-up charges go through the
+ * same code as real ones without touching VoltDB.
+ */
+class SyntheticBalanceStore implements BalanceStore {
+
+    private static final int PACKAGE_ID = 0;
+    private static final int PACKAGE_AMOUNT = 1_000_000;
+
+    private final VoltPackageDetails packageDetails = new VoltPackageDetails(30, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT);
+    private final UserDetails userDetails = new UserDetails("Warm", "Up", "warmup@evrencell.com", PACKAGE_ID);
+    private final Timestamp periodStart = new Timestamp(System.currentTimeMillis());
+
+    @Override
+    public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+        return new VoltDebitResult(usage, PACKAGE_AMOUNT, PACKAGE_ID, periodStart);
+    }
+
+    @Override
+    public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        return 0;
+    }
+
+    @Override
+    public VoltPackageDetails getPackageDetails(int packageId) {
+        return packageDetails;
+    }
+
+    @Override
+    public UserDetails getUserDetails(String msisdn) {
+        return userDetails;
+    }
+
+    @Override
+    public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+        return new VoltSubscriberSnapshot(msisdn, userDetails.getName(), userDetails.getLastName(), userDetails.getEmail(),
+                PACKAGE_ID, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT, PACKAGE_AMOUNT,
+                packageDetails.period(), periodStart, null);
+    }
+}
@@ -0,0 +1,190 @@
+package com.i2i.evrencell.CHF.warmup;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import com.i2i.evrencell.CHF.cache.PackageCatalog;
+import com.i2i.evrencell.CHF.cache.SubscriberCache;
+import com.i2i.evrencell.CHF.calculator.BalanceCalculator;
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import com.i2i.evrencell.CHF.calculator.ChargingMode;
+import com.i2i.evrencell.CHF.dedup.DedupWindow;
+import com.i2i.evrencell.CHF.kafka.ChargingEventSink;
+import com.i2i.evrencell.CHF.kafka.KafkaOperations;
+import com.i2i.evrencell.CHF.rating.RatingEngine;
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.CHF.threshold.ThresholdNotificationState;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import org.apache.log4j.Logger;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.VoiceTransaction;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done before CHF accepts transactions, so the first charges after a restart are not slower than
+ * the rest: the package catalog and the subscriber cache are filled from VoltDB, the Kafka producers are
+ * created and know their topics, and the charging code is compiled by the JIT on synthetic charges.
+ */
+public class WarmUp {
+
+    private static final Logger logger = Logger.getLogger(WarmUp.class);
+
+    // synthetic subscribers, numeric like real MSISDNs because the threshold state keys on the number
+    private static final long SYNTHETIC_MSISDN = 5_990_000_000L;
+    private static final int SYNTHETIC_SUBSCRIBERS = 1000;
+    private static final int CHARGES_IN_FLIGHT = 100;
+
+    private static final ChargingEventSink NO_EVENTS = new ChargingEventSink() {
+        @Override
+        public void sendUsageRecord(BalanceType type, String callerMsisdn, String calleeMsisdn, Integer usageDuration, Timestamp usageDate) {
+        }
+
+        @Override
+        public void sendUpdatedBalance(BalanceType type, String msisdn, int updatedBalance) {
+        }
+
+        @Override
+        public void sendNotification(String name, String lastname, String msisdn, String email, BalanceType type, Integer amount, String threshold, Timestamp notificationTime) {
+        }
+    };
+
+    private final BalanceStore store;
+    private final PackageCatalog packageCatalog;
+    private final SubscriberCache subscriberCache;
+
+    public WarmUp(BalanceStore store, PackageCatalog packageCatalog, SubscriberCache subscriberCache) {
+        this.store = store;
+        this.packageCatalog = packageCatalog;
+        this.subscriberCache = subscriberCache;
+    }
+
+    /**
+     * Loads every package definition, then the subscriber details in customer ID ranges of
+     * {@code customerRange}, {@code threads} ranges at a time. A range that fails is left to be read on
+     * the first charges.
+     */
+    public void preload(int threads, int customerRange) {
+        long start = System.nanoTime();
+        Map<Integer, VoltPackageDetails> packages = store.getAllPackageDetails();
+        packageCatalog.putAll(packages);
+
+        int maxCustomerId = store.getMaxCustomerId();
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "warm-up-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<CompletableFuture<Integer>> ranges = new ArrayList<>();
+        for (long from = 0; from <= maxCustomerId; from += customerRange) {
+            int rangeStart = (int) from;
+            int rangeEnd = (int) Math.min(from + customerRange, Integer.MAX_VALUE);
+            ranges.add(CompletableFuture
+                    .supplyAsync(() -> subscriberCache.putAll(store.getUserDetails(rangeStart, rangeEnd)), loaders)
+                    .exceptionally(failure -> {
+                        logger.warn("Could not preload customers " + rangeStart + " to " + rangeEnd + ": " + failure.getMessage());
+                        return 0;
+                    }));
+        }
+
+        int subscribers = 0;
+        for (CompletableFuture<Integer> range : ranges) {
+            subscribers += range.join();
+        }
+        loaders.shutdown();
+
+        logger.info("Preloaded " + packages.size() + " packages and " + subscribers + " subscribers in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Creates the Kafka producers and fetches their topic metadata. CHF starts without Kafka as well, the
+     * producers then connect on the first charges.
+     */
+    public void warmUpKafka() {
+        long start = System.nanoTime();
+        try {
+            KafkaOperations.warmUp();
+            logger.info("Kafka producers ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (RuntimeException e) {
+            logger.warn("Kafka not reachable during warm-up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs {@code charges} synthetic transactions through the message serializer and a charging pipeline
+     * configured like the real one, on a balance store that grants everything and with events dropped.
+     */
+    public void warmUpCharging(ActorSystem system, Executor executor, ChargingMode mode, RatingEngine ratingEngine, int charges) {
+        long start = System.nanoTime();
+        SyntheticBalanceStore syntheticStore = new SyntheticBalanceStore();
+        PackageCatalog syntheticPackages = new PackageCatalog(syntheticStore, Long.MAX_VALUE);
+        BalanceCalculator calculator = BalanceCalculator.builder()
+                .balanceStore(syntheticStore)
+                .eventSink(NO_EVENTS)
+                .thresholdState(new ThresholdNotificationState(null))
+                .packageCatalog(syntheticPackages)
+                .subscriberCache(new SubscriberCache(syntheticStore, syntheticPackages, Long.MAX_VALUE, SYNTHETIC_SUBSCRIBERS))
+                .executor(executor)
+                .mode(mode)
+                .ratingEngine(ratingEngine)
+                .dedupWindow(new DedupWindow(60, SYNTHETIC_SUBSCRIBERS * 16, 1))
+                .build();
+        Serialization serialization = SerializationExtension.get(system);
+
+        List<CompletableFuture<?>> inFlight = new ArrayList<>(CHARGES_IN_FLIGHT);
+        List<ChargeRequest> batch = new ArrayList<>(CHARGES_IN_FLIGHT);
+        for (int i = 0; i < charges; i++) {
+            // every tenth transaction repeats the ID of the one before and is dropped as a duplicate
+            Object transaction = roundTrip(serialization, syntheticTransaction(i, i % 10 == 9 ? i : i + 1));
+            batch.add(ChargeRequest.of(syntheticTransaction(i, 0)));
+
+            if (transaction instanceof DataTransaction dataTransaction) {
+                inFlight.add(calculator.calculateDataRequest(dataTransaction));
+            } else if (transaction instanceof VoiceTransaction voiceTransaction) {
+                inFlight.add(calculator.calculateVoiceRequest(voiceTransaction));
+            } else {
+                inFlight.add(calculator.calculateSmsRequest((SmsTransaction) transaction));
+            }
+
+            if (inFlight.size() == CHARGES_IN_FLIGHT) {
+                inFlight.add(calculator.calculateBatch(batch));
+                CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+                inFlight.clear();
+                batch = new ArrayList<>(CHARGES_IN_FLIGHT);
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+
+        logger.info("Ran " + charges + " warm-up charges in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    private static Object syntheticTransaction(int i, long transactionId) {
+        String msisdn = Long.toString(SYNTHETIC_MSISDN + i % SYNTHETIC_SUBSCRIBERS);
+        String other = Long.toString(SYNTHETIC_MSISDN + (i + 1) % SYNTHETIC_SUBSCRIBERS);
+        return switch (i % 3) {
+            case 0 -> new DataTransaction(transactionId, msisdn, 1 + i % 9, 10, i % 5);
+            case 1 -> new VoiceTransaction(transactionId, msisdn, other, 1 + i % 9, 1 + i % 120);
+            default -> new SmsTransaction(transactionId, msisdn, other, 1 + i % 9);
+        };
+    }
+
+    private static Object roundTrip(Serialization serialization, Object transaction) {
+        Serializer serializer = serialization.findSerializerFor(transaction);
+        byte[] bytes = serializer.toBinary(transaction);
+        return serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, transaction)).get();
+    }
+}
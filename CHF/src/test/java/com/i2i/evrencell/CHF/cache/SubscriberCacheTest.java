@@ -0,0 +1,107 @@
+package com.i2i.evrencell.CHF.cache;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubscriberCacheTest {
+
+    private static final class CountingStore implements BalanceStore {
+        private final Map<String, Integer> reads = new HashMap<>();
+        private int packageId = 1;
+
+        int reads(String msisdn) {
+            return reads.getOrDefault(msisdn, 0);
+        }
+
+        @Override
+        public UserDetails getUserDetails(String msisdn) {
+            reads.merge(msisdn, 1, Integer::sum);
+            return new UserDetails("name", "surname", msisdn + "@example.com", packageId);
+        }
+
+        @Override
+        public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VoltPackageDetails getPackageDetails(int packageId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    void get_readsSubscriberOnce() {
+        CountingStore store = new CountingStore();
+        SubscriberCache cache = new SubscriberCache(store, 60_000, 100);
+        cache.get("5551234567", 1);
+        cache.get("5551234567", 1);
+        assertEquals(1, store.reads("5551234567"));
+        assertEquals(1, cache.getMetrics().getHitCount());
+        assertEquals(1, cache.getMetrics().getMissCount());
+    }
+
+    @Test
+    void get_reloadsWhenPackageChanged() {
+        CountingStore store = new CountingStore();
+        SubscriberCache cache = new SubscriberCache(store, 60_000, 100);
+        cache.get("5551234567", 1);
+        store.packageId = 2;
+        assertEquals(2, cache.get("5551234567", 2).getPackageId());
+        assertEquals(2, store.reads("5551234567"));
+    }
+
+    @Test
+    void get_fullCacheEvictsLeastRecentlyUsed() {
+        CountingStore store = new CountingStore();
+        // two entries per stripe
+        SubscriberCache cache = new SubscriberCache(store, 60_000, 128);
+        cache.get("5551234567", 1);
+        cache.get("5557654321", 1);
+        // every stripe overflows many times, the first subscriber is read again after each new one
+        for (int i = 0; i < 10_000; i++) {
+            cache.get("555" + i, 1);
+            cache.get("5551234567", 1);
+        }
+        assertTrue(cache.getMetrics().getSize() <= 128);
+
+        // the first subscriber read stays cached because it was used recently, the colder second one is gone
+        cache.get("5551234567", 1);
+        cache.get("5557654321", 1);
+        assertEquals(1, store.reads("5551234567"));
+        assertEquals(2, store.reads("5557654321"));
+    }
+
+    @Test
+    void putAll_stopsAtMaxEntries() {
+        CountingStore store = new CountingStore();
+        SubscriberCache cache = new SubscriberCache(store, 60_000, 1000);
+        Map<String, UserDetails> details = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            details.put("555" + i, new UserDetails("name", "surname", "email", 1));
+        }
+        assertEquals(1000, cache.putAll(details));
+        assertTrue(cache.getMetrics().getSize() <= 1000);
+    }
+}
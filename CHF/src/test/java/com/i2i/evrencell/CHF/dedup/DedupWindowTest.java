@@ -0,0 +1,111 @@
+package com.i2i.evrencell.CHF.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DedupWindowTest {
+
+    // long enough that no ID expires while a test runs
+    private static final long WINDOW_SECONDS = 3600;
+
+    @Test
+    void firstSeen_rejectsRepeatedId() {
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 64, 4);
+        assertTrue(window.firstSeen(42));
+        assertFalse(window.firstSeen(42));
+        assertFalse(window.firstSeen(42));
+        assertTrue(window.firstSeen(43));
+        assertEquals(2, window.getSize());
+        assertEquals(2, window.getDuplicateCount());
+    }
+
+    @Test
+    void firstSeen_neverRejectsIdZero() {
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 64, 4);
+        assertTrue(window.firstSeen(0));
+        assertTrue(window.firstSeen(0));
+        assertEquals(0, window.getSize());
+        assertEquals(0, window.getDuplicateCount());
+        window.forget(0);
+    }
+
+    @Test
+    void firstSeen_acceptsNegativeIds() {
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 64, 4);
+        assertTrue(window.firstSeen(Long.MIN_VALUE));
+        assertTrue(window.firstSeen(-1));
+        assertFalse(window.firstSeen(Long.MIN_VALUE));
+        assertFalse(window.firstSeen(-1));
+    }
+
+    @Test
+    void forget_letsIdBeChargedAgain() {
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 64, 4);
+        assertTrue(window.firstSeen(7));
+        window.forget(7);
+        assertTrue(window.firstSeen(7));
+        assertFalse(window.firstSeen(7));
+        // forgetting an ID that was never seen does nothing
+        window.forget(8);
+        assertFalse(window.firstSeen(7));
+    }
+
+    @Test
+    void forget_keepsCollidingIdsFindable() {
+        // one stripe at half load, so the probe runs are long and removals shift entries back
+        int ids = 1024;
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, ids, 1);
+        for (long id = 1; id <= ids; id++) {
+            assertTrue(window.firstSeen(id));
+        }
+        for (long id = 1; id <= ids; id += 3) {
+            window.forget(id);
+        }
+        assertEquals(0, window.getEarlyEvictionCount());
+        for (long id = 1; id <= ids; id++) {
+            assertEquals(id % 3 == 1, window.firstSeen(id), "transaction " + id);
+        }
+    }
+
+    @Test
+    void firstSeen_evictsOldestIdWhenFull() {
+        // one stripe holding the minimum of 16 IDs
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 1, 1);
+        assertEquals(16, window.getCapacity());
+        for (long id = 1; id <= 16; id++) {
+            assertTrue(window.firstSeen(id));
+        }
+        assertEquals(0, window.getEarlyEvictionCount());
+
+        assertTrue(window.firstSeen(17));
+        assertEquals(1, window.getEarlyEvictionCount());
+        assertEquals(16, window.getSize());
+        for (long id = 2; id <= 17; id++) {
+            assertFalse(window.firstSeen(id), "transaction " + id);
+        }
+        assertTrue(window.firstSeen(1));
+        assertEquals(16, window.getSize());
+    }
+
+    @Test
+    void firstSeen_evictionKeepsSetAndRingConsistent() {
+        DedupWindow window = new DedupWindow(WINDOW_SECONDS, 1, 1);
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(window.firstSeen(id));
+        }
+        assertEquals(16, window.getSize());
+        assertEquals(1000 - 16, window.getEarlyEvictionCount());
+        for (long id = 985; id <= 1000; id++) {
+            assertFalse(window.firstSeen(id), "transaction " + id);
+        }
+        assertTrue(window.firstSeen(984));
+    }
+
+    @Test
+    void constructor_roundsStripesAndCapacity() {
+        assertEquals(100, new DedupWindow(WINDOW_SECONDS, 100, 3).getCapacity());
+        assertEquals(64, new DedupWindow(WINDOW_SECONDS, 10, 4).getCapacity());
+        assertEquals(WINDOW_SECONDS, new DedupWindow(WINDOW_SECONDS, 10, 4).getWindowSeconds());
+    }
+}
@@ -0,0 +1,159 @@
+package com.i2i.evrencell.CHF.journal;
+
+import com.i2i.evrencell.CHF.calculator.ChargeRequest;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionJournalTest {
+
+    // two accepted records of charge() fit, the third one rolls the segment
+    private static final int SEGMENT_SIZE = 128;
+
+    @TempDir
+    Path directory;
+
+    private static ChargeRequest charge(long transactionId) {
+        return new ChargeRequest(transactionId, BalanceType.DATA, "5551234567", 25, null, 3, 2);
+    }
+
+    private TransactionJournal open() throws IOException {
+        return new TransactionJournal(directory, SEGMENT_SIZE, FsyncPolicy.NEVER, 10);
+    }
+
+    private static List<Long> transactionIds(List<JournalEntry> entries) {
+        return entries.stream().map(entry -> entry.request().transactionId()).toList();
+    }
+
+    @Test
+    void recover_returnsAcceptedChargesThatWereNotCompleted() throws IOException {
+        TransactionJournal journal = open();
+        long first = journal.append(charge(1));
+        journal.append(charge(2));
+        journal.complete(first, 1);
+        journal.close();
+
+        TransactionJournal reopened = open();
+        List<JournalEntry> recovered = reopened.takeRecovered();
+        assertEquals(List.of(2L), transactionIds(recovered));
+        assertEquals(charge(2), recovered.get(0).request());
+        assertEquals(1, reopened.getRecoveredCount());
+        assertTrue(reopened.takeRecovered().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void recover_keepsCompletionsWrittenToLaterSegment() throws IOException {
+        TransactionJournal journal = open();
+        long a = journal.append(charge(1));
+        long b = journal.append(charge(2));
+        long c = journal.append(charge(3));
+        // both completions land in the second segment, b was accepted in the first one
+        journal.complete(c, 1);
+        journal.complete(b, 1);
+        // rolls to a third segment, the second one has no pending charge but the first one still has a
+        journal.append(charge(4));
+        assertEquals(3, journal.getSegmentCount());
+        journal.close();
+
+        TransactionJournal reopened = open();
+        assertEquals(List.of(1L, 4L), transactionIds(reopened.takeRecovered()));
+        assertEquals(2, reopened.getPendingCount());
+        reopened.complete(a, 1);
+        reopened.close();
+    }
+
+    @Test
+    void complete_deletesSegmentsOldestFirst() throws IOException {
+        TransactionJournal journal = open();
+        long a = journal.append(charge(1));
+        journal.append(charge(2));
+        long c = journal.append(charge(3));
+        journal.append(charge(4));
+        journal.append(charge(5));
+        assertEquals(3, journal.getSegmentCount());
+
+        // the second segment has completed, but the first one is still open
+        journal.complete(c, 2);
+        assertEquals(3, journal.getSegmentCount());
+
+        journal.complete(a, 2);
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(2, journal.getDeletedSegmentCount());
+        assertEquals(1, journal.getPendingCount());
+        journal.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+        TransactionJournal reopened = open();
+        assertEquals(List.of(5L), transactionIds(reopened.takeRecovered()));
+        reopened.close();
+    }
+
+    @Test
+    void recover_completedReplayIsNotReplayedAgain() throws IOException {
+        TransactionJournal journal = open();
+        journal.appendAll(List.of(charge(1), charge(2), charge(3)));
+        journal.close();
+
+        TransactionJournal afterFirstCrash = open();
+        List<JournalEntry> recovered = afterFirstCrash.takeRecovered();
+        assertEquals(List.of(1L, 2L, 3L), transactionIds(recovered));
+        afterFirstCrash.complete(recovered.get(0).sequence(), 2);
+        afterFirstCrash.close();
+
+        TransactionJournal afterSecondCrash = open();
+        assertEquals(List.of(3L), transactionIds(afterSecondCrash.takeRecovered()));
+        afterSecondCrash.close();
+    }
+
+    @Test
+    void recover_stopsAtDamagedRecord() throws IOException {
+        TransactionJournal journal = open();
+        journal.append(charge(1));
+        journal.append(charge(2));
+        journal.close();
+
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // flips a payload byte of the second record, as if the crash hit while it was written
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            int second = 8 + buffer.getInt(0);
+            buffer.put(second + 20, (byte) (buffer.get(second + 20) ^ 0xFF));
+            buffer.force();
+        }
+
+        TransactionJournal reopened = open();
+        assertEquals(List.of(1L), transactionIds(reopened.takeRecovered()));
+        reopened.close();
+    }
+
+    @Test
+    void appendAll_returnsConsecutiveSequences() throws IOException {
+        TransactionJournal journal = open();
+        long first = journal.appendAll(List.of(charge(1), charge(2), charge(3)));
+        assertEquals(first + 3, journal.append(charge(4)));
+        assertEquals(4, journal.getPendingCount());
+        journal.complete(first, 4);
+        assertEquals(0, journal.getPendingCount());
+        journal.close();
+
+        TransactionJournal reopened = open();
+        assertTrue(reopened.takeRecovered().isEmpty());
+        reopened.close();
+    }
+}
@@ -0,0 +1,274 @@
+package com.i2i.evrencell.CHF.quota;
+
+import com.i2i.evrencell.CHF.store.BalanceStore;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.voltdb.UserDetails;
+import com.i2i.evrencell.voltdb.VoltDebitResult;
+import com.i2i.evrencell.voltdb.VoltPackageDetails;
+import com.i2i.evrencell.voltdb.VoltRenewalBatch;
+import com.i2i.evrencell.voltdb.VoltSubscriberSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuotaCacheTest {
+
+    private static final String MSISDN = "5551234567";
+    private static final Timestamp PERIOD_1 = Timestamp.valueOf("2026-01-01 00:00:00");
+    private static final Timestamp PERIOD_2 = Timestamp.valueOf("2026-02-01 00:00:00");
+    private static final Map<BalanceType, Integer> GRANT_SIZES = new EnumMap<>(Map.of(
+            BalanceType.DATA, 100, BalanceType.VOICE, 60, BalanceType.SMS, 5));
+
+    private record Reservation(BalanceType type, String msisdn, int amount, int used) {
+    }
+
+    private record Refund(String msisdn, String type, int amount, int used, Timestamp periodStart) {
+    }
+
+    /**
+     * One balance of {@link #level} units per type for {@link #MSISDN}, no balance for other MSISDNs.
+     */
+    private static final class LedgerStore implements BalanceStore {
+        private final Map<BalanceType, Integer> levels = new EnumMap<>(BalanceType.class);
+        private final List<Reservation> reservations = new ArrayList<>();
+        private final List<Refund> refunds = new ArrayList<>();
+        private Timestamp periodStart = PERIOD_1;
+        private int failingRefundCalls;
+        private int refundCalls;
+
+        LedgerStore(int level) {
+            for (BalanceType type : BalanceType.values()) {
+                levels.put(type, level);
+            }
+        }
+
+        synchronized void renew(Timestamp periodStart, int level) {
+            this.periodStart = periodStart;
+            levels.replaceAll((type, old) -> level);
+        }
+
+        synchronized List<Reservation> reservations() {
+            return List.copyOf(reservations);
+        }
+
+        synchronized List<Refund> refunds() {
+            return List.copyOf(refunds);
+        }
+
+        synchronized int refundCalls() {
+            return refundCalls;
+        }
+
+        boolean awaitRefunds(int count, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (refunds().size() < count) {
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized VoltDebitResult reserve(BalanceType type, String msisdn, int amount, int used, long holdMillis) {
+            reservations.add(new Reservation(type, msisdn, amount, used));
+            if (!MSISDN.equals(msisdn)) {
+                return null;
+            }
+            int level = levels.get(type);
+            int granted = Math.min(level, amount);
+            levels.put(type, level - granted);
+            return new VoltDebitResult(granted, level - granted, 1, periodStart);
+        }
+
+        @Override
+        public VoltDebitResult debit(BalanceType type, String msisdn, int usage) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized long refund(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+            refundCalls++;
+            if (failingRefundCalls > 0) {
+                failingRefundCalls--;
+                throw new RuntimeException("VoltDB is not reachable");
+            }
+            for (int i = 0; i < msisdns.length; i++) {
+                refunds.add(new Refund(msisdns[i], balanceTypes[i], amounts[i], used[i], periodStarts[i]));
+            }
+            return msisdns.length;
+        }
+
+        @Override
+        public VoltRenewalBatch renewExpiredBalances(int limit) {
+            renew(PERIOD_2, 1000);
+            return new VoltRenewalBatch(List.of(MSISDN), null);
+        }
+
+        @Override
+        public VoltPackageDetails getPackageDetails(int packageId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UserDetails getUserDetails(String msisdn) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static QuotaCache cache(LedgerStore store) {
+        return new QuotaCache(store, GRANT_SIZES, 60_000, 60_000, 60_000, 1000, 60_000);
+    }
+
+    // grants expire after 50 ms and are swept every 10 ms
+    private static QuotaCache expiringCache(LedgerStore store, long reservationGraceMillis) {
+        return new QuotaCache(store, GRANT_SIZES, 50, reservationGraceMillis, 60_000, 1000, 10);
+    }
+
+    @Test
+    void debit_servesLaterChargesFromTheReservedBlock() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        assertEquals(10, cache.debit(BalanceType.DATA, MSISDN, 10).grantedAmount());
+        VoltDebitResult second = cache.debit(BalanceType.DATA, MSISDN, 10);
+
+        assertEquals(10, second.grantedAmount());
+        // the units still held in the grant count as remaining
+        assertEquals(980, second.remainingBalance());
+        assertEquals(List.of(new Reservation(BalanceType.DATA, MSISDN, 110, 0)), store.reservations());
+        cache.close();
+    }
+
+    @Test
+    void debit_reportsUsedUnitsWithTheNextReservation() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        cache.debit(BalanceType.DATA, MSISDN, 80);
+        VoltDebitResult result = cache.debit(BalanceType.DATA, MSISDN, 150);
+
+        assertEquals(150, result.grantedAmount());
+        // 100 units were left in the grant, 50 more plus a new block are reserved
+        assertEquals(new Reservation(BalanceType.DATA, MSISDN, 150, 80), store.reservations().get(1));
+        cache.close();
+    }
+
+    @Test
+    void debit_unknownMsisdnHasNoGrant() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        assertNull(cache.debit(BalanceType.DATA, "5550000000", 10));
+        assertNull(cache.debitAsync(BalanceType.DATA, "5550000000", 10).join());
+        cache.close();
+        assertEquals(0, store.refundCalls());
+    }
+
+    @Test
+    void close_refundsUnusedUnitsIntoTheirPeriod() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        cache.debit(BalanceType.DATA, MSISDN, 30);
+        cache.debit(BalanceType.SMS, MSISDN, 1);
+        cache.close();
+
+        List<Refund> refunds = store.refunds();
+        assertEquals(2, refunds.size());
+        assertTrue(refunds.contains(new Refund(MSISDN, "DATA", 100, 30, PERIOD_1)));
+        assertTrue(refunds.contains(new Refund(MSISDN, "SMS", 5, 1, PERIOD_1)));
+    }
+
+    @Test
+    void sweep_refundsExpiredGrantAndReservesAgain() throws InterruptedException {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = expiringCache(store, 60_000);
+
+        cache.debit(BalanceType.DATA, MSISDN, 30);
+        assertTrue(store.awaitRefunds(1, 5000));
+        assertEquals(new Refund(MSISDN, "DATA", 100, 30, PERIOD_1), store.refunds().get(0));
+
+        cache.debit(BalanceType.DATA, MSISDN, 10);
+        assertEquals(new Reservation(BalanceType.DATA, MSISDN, 110, 0), store.reservations().get(1));
+        cache.close();
+    }
+
+    @Test
+    void sweep_retriesFailedRefund() throws InterruptedException {
+        LedgerStore store = new LedgerStore(1000);
+        store.failingRefundCalls = 1;
+        QuotaCache cache = expiringCache(store, 60_000);
+
+        cache.debit(BalanceType.VOICE, MSISDN, 20);
+        assertTrue(store.awaitRefunds(1, 5000));
+
+        assertEquals(List.of(new Refund(MSISDN, "VOICE", 60, 20, PERIOD_1)), store.refunds());
+        assertTrue(store.refundCalls() >= 2);
+        cache.close();
+    }
+
+    @Test
+    void sweep_leavesFailedRefundToVoltDbOnceTheReservationEnds() throws InterruptedException {
+        LedgerStore store = new LedgerStore(1000);
+        store.failingRefundCalls = 1;
+        QuotaCache cache = expiringCache(store, 0);
+
+        cache.debit(BalanceType.VOICE, MSISDN, 20);
+        Thread.sleep(300);
+        cache.close();
+
+        assertEquals(1, store.refundCalls());
+        assertTrue(store.refunds().isEmpty());
+    }
+
+    @Test
+    void debit_newPeriodDropsTheGrantsOfOtherTypes() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        cache.debit(BalanceType.VOICE, MSISDN, 10);
+        cache.debit(BalanceType.DATA, MSISDN, 10);
+        // another node renews the balance, the next DATA block comes from the new period
+        store.renew(PERIOD_2, 1000);
+        VoltDebitResult result = cache.debit(BalanceType.DATA, MSISDN, 200);
+
+        assertEquals(200, result.grantedAmount());
+        assertEquals(PERIOD_2, result.periodStart());
+        // the 100 units left from the old period are not granted
+        assertEquals(800, result.remainingBalance());
+
+        cache.close();
+        // the VOICE units were reserved from the period that ended, they are not refunded into the new one
+        assertEquals(List.of(new Refund(MSISDN, "DATA", 0, 200, PERIOD_2)), store.refunds());
+    }
+
+    @Test
+    void renewExpiredBalances_dropsTheGrantsOfRenewedSubscribers() {
+        LedgerStore store = new LedgerStore(1000);
+        QuotaCache cache = cache(store);
+
+        cache.debit(BalanceType.DATA, MSISDN, 10);
+        cache.debit(BalanceType.VOICE, MSISDN, 10);
+        cache.renewExpiredBalances(100);
+
+        VoltDebitResult result = cache.debit(BalanceType.DATA, MSISDN, 10);
+        assertEquals(PERIOD_2, result.periodStart());
+        assertEquals(new Reservation(BalanceType.DATA, MSISDN, 110, 0), store.reservations().get(2));
+
+        cache.close();
+        assertEquals(List.of(new Refund(MSISDN, "DATA", 100, 10, PERIOD_2)), store.refunds());
+    }
+}
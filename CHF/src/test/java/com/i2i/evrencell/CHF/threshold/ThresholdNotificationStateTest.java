@@ -0,0 +1,39 @@
+package com.i2i.evrencell.CHF.threshold;
+
+import com.i2i.evrencell.kafka.message.BalanceType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThresholdNotificationStateTest {
+
+    @Test
+    void markSent_sendsOncePerPeriod() {
+        ThresholdNotificationState state = new ThresholdNotificationState(null);
+        assertTrue(state.markSent("5551234567", 100, BalanceType.DATA, ThresholdNotificationState.THRESHOLD_80));
+        assertFalse(state.markSent("5551234567", 100, BalanceType.DATA, ThresholdNotificationState.THRESHOLD_80));
+        assertTrue(state.markSent("5551234567", 100, BalanceType.DATA, ThresholdNotificationState.THRESHOLD_100));
+        assertTrue(state.markSent("5551234567", 200, BalanceType.DATA, ThresholdNotificationState.THRESHOLD_80));
+    }
+
+    @Test
+    void markSent_acceptsNonNumericMsisdn() {
+        ThresholdNotificationState state = new ThresholdNotificationState(null);
+        assertTrue(state.markSent("+90-555-123", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+        assertFalse(state.markSent("+90-555-123", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+        assertTrue(state.markSent("0", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+        assertFalse(state.markSent("0", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+        assertTrue(state.markSent("", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+        state.reset("+90-555-123");
+        assertTrue(state.markSent("+90-555-123", 100, BalanceType.SMS, ThresholdNotificationState.THRESHOLD_80));
+    }
+
+    @Test
+    void key_leadingZeroDoesNotCollideWithNumber() {
+        assertNotEquals(ThresholdNotificationState.key("05551234567"), ThresholdNotificationState.key("5551234567"));
+        assertEquals(5551234567L, ThresholdNotificationState.key("5551234567"));
+        assertTrue(ThresholdNotificationState.key("05551234567") < 0);
+        assertNotEquals(0, ThresholdNotificationState.key("0"));
+        assertTrue(ThresholdNotificationState.key("1234567890123456789") < 0);
+    }
+}
@@ -15,10 +15,34 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 import java.util.Properties;
+import java.util.function.Function;
 
+/**
+ * Sends messages of one type to Kafka. A record is keyed by {@link Message#partitionKey()}, the MSISDN
+ * of the subscriber, unless another key extractor is given: the messages of one subscriber stay in order
+ * on one partition and the subscribers are spread over all partitions of the topic, so the consumer
+ * group can run one consumer per partition.
+ */
 public class Publisher <T extends Message> {
 
     Producer <String, T> producer;
+    private final Function<? super T, String> keyExtractor;
+
+    public Publisher() {
+        this(Message::partitionKey);
+    }
+
+    public Publisher(Function<? super T, String> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Sends with the given producer instead of creating one, e.g. a MockProducer.
+     */
+    public Publisher(Producer<String, T> producer, Function<? super T, String> keyExtractor) {
+        this.producer = producer;
+        this.keyExtractor = keyExtractor;
+    }
 
     public <U extends T> Producer<String, U> createProducer(String className) {
         Properties properties = new Properties();
@@ -44,7 +68,16 @@ public class Publisher <T extends Message> {
 
     public void send(T message, String topicName){
         if (producer != null){
-            producer.send(new ProducerRecord<>(topicName, "operation", message));
+            producer.send(new ProducerRecord<>(topicName, keyExtractor.apply(message), message));
+        }
+    }
+
+    /**
+     * Fetches the partitions of the topic, so the first send does not wait for the cluster metadata.
+     */
+    public void fetchMetadata(String topicName) {
+        if (producer != null) {
+            producer.partitionsFor(topicName);
         }
     }
 
@@ -40,4 +40,9 @@ public class BalanceMessage implements Message {
     public void setType(BalanceType type) {
         this.type = type;
     }
+
+    @Override
+    public String partitionKey() {
+        return msisdn;
+    }
 }
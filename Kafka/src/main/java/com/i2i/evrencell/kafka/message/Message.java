@@ -1,4 +1,12 @@
 package com.i2i.evrencell.kafka.message;
 
 public interface Message {
+
+    /**
+     * Key of the Kafka record the message is sent with. Messages with the same key go to the same
+     * partition and are consumed in the order they were sent, null spreads them over all partitions.
+     */
+    default String partitionKey() {
+        return null;
+    }
 }
@@ -56,4 +56,9 @@ public class NotificationMessage implements Message {
     }
 
     public Timestamp getTimestamp() {return timestamp;}
+
+    @Override
+    public String partitionKey() {
+        return msisdn;
+    }
 }
@@ -61,4 +61,9 @@ public class UsageRecordMessage implements Message {
     public void setUsageDate(Timestamp usageDate) {
         this.usageDate = usageDate;
     }
+
+    @Override
+    public String partitionKey() {
+        return callerMsisdn;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package com.i2i.evrencell.kafka;
+
+import com.i2i.evrencell.kafka.message.BalanceMessage;
+import com.i2i.evrencell.kafka.message.BalanceType;
+import com.i2i.evrencell.kafka.seralizer.BalanceMessageSerializer;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.internals.BuiltInPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublisherTest {
+
+    private static final int PARTITIONS = 8;
+    private static final int SUBSCRIBERS = 1000;
+
+    /**
+     * Picks the partition of a keyed record the way KafkaProducer does without a configured partitioner,
+     * and remembers the partitions each key was sent to.
+     */
+    private static final class KeyPartitioner implements Partitioner {
+        private final Map<String, Set<Integer>> partitionsByKey = new HashMap<>();
+
+        @Override
+        public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+            int partition = BuiltInPartitioner.partitionForKey(keyBytes, cluster.partitionsForTopic(topic).size());
+            partitionsByKey.computeIfAbsent((String) key, k -> new HashSet<>()).add(partition);
+            return partition;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void configure(Map<String, ?> configs) {
+        }
+    }
+
+    private static Cluster cluster(String topic, int partitions) {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitionInfos = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            partitionInfos.add(new PartitionInfo(topic, i, node, new Node[]{node}, new Node[]{node}));
+        }
+        return new Cluster("test", List.of(node), partitionInfos, Set.of(), Set.of());
+    }
+
+    private static String msisdn(int subscriber) {
+        return Long.toString(5_550_000_000L + subscriber);
+    }
+
+    @Test
+    void send_keysBalanceMessagesByMsisdnAcrossAllPartitions() {
+        String topic = KafkaTopicConstants.BALANCE_TOPIC;
+        KeyPartitioner partitioner = new KeyPartitioner();
+        MockProducer<String, BalanceMessage> producer = new MockProducer<>(cluster(topic, PARTITIONS), true,
+                partitioner, new StringSerializer(), new BalanceMessageSerializer());
+        Publisher<BalanceMessage> publisher = new Publisher<>(producer, BalanceMessage::partitionKey);
+
+        for (int i = 0; i < 3 * SUBSCRIBERS; i++) {
+            publisher.send(new BalanceMessage(msisdn(i % SUBSCRIBERS), BalanceType.DATA, i), topic);
+        }
+
+        List<ProducerRecord<String, BalanceMessage>> records = producer.history();
+        assertEquals(3 * SUBSCRIBERS, records.size());
+        for (ProducerRecord<String, BalanceMessage> record : records) {
+            assertEquals(record.value().getMsisdn(), record.key());
+        }
+
+        // every subscriber stays on one partition, so its messages are consumed in order
+        assertEquals(SUBSCRIBERS, partitioner.partitionsByKey.size());
+        Set<Integer> used = new HashSet<>();
+        for (Set<Integer> partitions : partitioner.partitionsByKey.values()) {
+            assertEquals(1, partitions.size());
+            used.addAll(partitions);
+        }
+        // and the subscribers are spread over every partition, one consumer each
+        assertEquals(PARTITIONS, used.size());
+    }
+
+    @Test
+    void publisher_keysRecordsByPartitionKeyByDefault() {
+        String topic = KafkaTopicConstants.BALANCE_TOPIC;
+        MockProducer<String, BalanceMessage> producer = new MockProducer<>(cluster(topic, PARTITIONS), true,
+                new KeyPartitioner(), new StringSerializer(), new BalanceMessageSerializer());
+        Publisher<BalanceMessage> publisher = new Publisher<>();
+        publisher.producer = producer;
+
+        publisher.send(new BalanceMessage(msisdn(1), BalanceType.VOICE, 10), topic);
+
+        assertEquals(msisdn(1), producer.history().get(0).key());
+    }
+}
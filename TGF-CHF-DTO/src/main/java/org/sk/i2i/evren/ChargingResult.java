@@ -0,0 +1,81 @@
+package org.sk.i2i.evren;
+
+/**
+ * Sent by CHF back to the sender of a transaction once the charge is finished.
+ */
+public class ChargingResult {
+
+    public enum Outcome {
+        // the whole usage was granted
+        GRANTED,
+        // only the rest of the balance was granted
+        PARTIAL,
+        // no balance left or unknown subscriber
+        DENIED,
+        // CHF had no capacity to take the transaction
+        REJECTED,
+        // the charge failed, nothing is known about the balance
+        ERROR,
+        // CHF is overloaded and shed the transaction without charging it, it can be retried later
+        OVERLOADED,
+        // the transaction ID was already charged, the transaction was dropped
+        DUPLICATE
+    }
+
+    private final long transactionId;
+    private final String msisdn;
+    private final String balanceType;
+    private final Outcome outcome;
+    private final int grantedUnits;
+    private final long processingNanos;
+
+    /**
+     * @param transactionId   ID of the transaction this result answers
+     * @param balanceType     DATA, VOICE or SMS
+     * @param processingNanos time CHF spent on the charge
+     */
+    public ChargingResult(long transactionId, String msisdn, String balanceType, Outcome outcome, int grantedUnits, long processingNanos) {
+        this.transactionId = transactionId;
+        this.msisdn = msisdn;
+        this.balanceType = balanceType;
+        this.outcome = outcome;
+        this.grantedUnits = grantedUnits;
+        this.processingNanos = processingNanos;
+    }
+
+    public long getTransactionId() {
+        return transactionId;
+    }
+
+    public String getMsisdn() {
+        return msisdn;
+    }
+
+    public String getBalanceType() {
+        return balanceType;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getGrantedUnits() {
+        return grantedUnits;
+    }
+
+    public long getProcessingNanos() {
+        return processingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ChargingResult{" +
+                "transactionId=" + transactionId +
+                ", msisdn='" + msisdn + '\'' +
+                ", balanceType='" + balanceType + '\'' +
+                ", outcome=" + outcome +
+                ", grantedUnits=" + grantedUnits +
+                ", processingNanos=" + processingNanos +
+                '}';
+    }
+}
@@ -0,0 +1,32 @@
+package org.sk.i2i.evren;
+
+/**
+ * Sent by TGF to CHF to open a backpressured transaction stream. CHF answers with an
+ * {@code akka.stream.SinkRef} that TGF runs its transactions into, and sends the
+ * {@link ChargingResult} of every streamed transaction to {@code replyTo}.
+ */
+public class ChargingStreamRequest {
+    private String replyTo;
+
+    // for deserialization, a single-argument constructor is ambiguous to Jackson
+    public ChargingStreamRequest() {
+    }
+
+    /**
+     * @param replyTo full actor path that receives the charging results, null for no results
+     */
+    public ChargingStreamRequest(String replyTo) {
+        this.replyTo = replyTo;
+    }
+
+    public String getReplyTo() {
+        return replyTo;
+    }
+
+    @Override
+    public String toString() {
+        return "ChargingStreamRequest{" +
+                "replyTo='" + replyTo + '\'' +
+                '}';
+    }
+}
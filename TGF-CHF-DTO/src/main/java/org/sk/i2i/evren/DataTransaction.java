@@ -2,19 +2,29 @@ package org.sk.i2i.evren;
 
 public class DataTransaction {
 
+    private final long transactionId;
     private final String msisdn;
     private final int location;
     private final int dataUsage;
     private final int ratingGroup;
 
 
-    public DataTransaction(String msisdn, int location, int dataUsage, int ratingGroup) {
+    public DataTransaction(long transactionId, String msisdn, int location, int dataUsage, int ratingGroup) {
+        this.transactionId = transactionId;
         this.msisdn = msisdn;
         this.location = location;
         this.dataUsage = dataUsage;
         this.ratingGroup = ratingGroup;
     }
 
+    /**
+     * @return ID that stays the same when the transaction is sent again; 0 if it has none and must not be
+     * deduplicated
+     */
+    public long getTransactionId() {
+        return transactionId;
+    }
+
     public String getMsisdn() {
         return msisdn;
     }
@@ -34,7 +44,8 @@ public class DataTransaction {
     @Override
     public String toString() {
         return "DataTransaction{" +
-                "msisdn='" + msisdn + '\'' +
+                "transactionId=" + transactionId +
+                ", msisdn='" + msisdn + '\'' +
                 ", location=" + location +
                 ", dataUsage=" + dataUsage +
                 ", ratingGroup=" + ratingGroup +
@@ -1,16 +1,26 @@
 package org.sk.i2i.evren;
 
 public class SmsTransaction {
+    private final long transactionId;
     private final String senderMsisdn;
     private final String receiverMsisdn;
     private final int location;
 
-    public SmsTransaction(String senderMsisdn, String receiverMsisdn, int location) {
+    public SmsTransaction(long transactionId, String senderMsisdn, String receiverMsisdn, int location) {
+        this.transactionId = transactionId;
         this.senderMsisdn = senderMsisdn;
         this.receiverMsisdn = receiverMsisdn;
         this.location = location;
     }
 
+    /**
+     * @return ID that stays the same when the transaction is sent again; 0 if it has none and must not be
+     * deduplicated
+     */
+    public long getTransactionId() {
+        return transactionId;
+    }
+
     public String getSenderMsisdn() {
         return senderMsisdn;
     }
@@ -26,7 +36,8 @@ public class SmsTransaction {
     @Override
     public String toString() {
         return "SmsTransaction{" +
-                "senderMsisdn='" + senderMsisdn + '\'' +
+                "transactionId=" + transactionId +
+                ", senderMsisdn='" + senderMsisdn + '\'' +
                 ", receiverMsisdn='" + receiverMsisdn + '\'' +
                 ", location=" + location +
                 '}';
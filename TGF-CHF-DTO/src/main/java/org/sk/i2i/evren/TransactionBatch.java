@@ -0,0 +1,30 @@
+package org.sk.i2i.evren;
+
+import java.util.List;
+
+/**
+ * Several Data, Voice and Sms transactions sent to CHF as one remote message. CHF charges them as if
+ * they had been sent one by one, in list order.
+ */
+public class TransactionBatch {
+    private final List<Object> transactions;
+
+    public TransactionBatch(List<Object> transactions) {
+        this.transactions = transactions;
+    }
+
+    public List<Object> getTransactions() {
+        return transactions;
+    }
+
+    public int size() {
+        return transactions.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionBatch{" +
+                "size=" + transactions.size() +
+                '}';
+    }
+}
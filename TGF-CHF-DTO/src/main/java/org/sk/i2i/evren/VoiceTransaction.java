@@ -2,19 +2,29 @@ package org.sk.i2i.evren;
 
 public class VoiceTransaction {
 
+    private final long transactionId;
     private final String callerMsisdn;
     private final String calleeMsisdn;
     private final int location;
     private final int duration;
 
 
-    public VoiceTransaction(String callerMsisdn, String calleeMsisdn, int location, int duration) {
+    public VoiceTransaction(long transactionId, String callerMsisdn, String calleeMsisdn, int location, int duration) {
+        this.transactionId = transactionId;
         this.callerMsisdn = callerMsisdn;
         this.calleeMsisdn = calleeMsisdn;
         this.location = location;
         this.duration = duration;
     }
 
+    /**
+     * @return ID that stays the same when the transaction is sent again; 0 if it has none and must not be
+     * deduplicated
+     */
+    public long getTransactionId() {
+        return transactionId;
+    }
+
     public String getCallerMsisdn() {
         return callerMsisdn;
     }
@@ -34,7 +44,8 @@ public class VoiceTransaction {
     @Override
     public String toString() {
         return "VoiceTransaction{" +
-                "callerMsisdn='" + callerMsisdn + '\'' +
+                "transactionId=" + transactionId +
+                ", callerMsisdn='" + callerMsisdn + '\'' +
                 ", calleeMsisdn='" + calleeMsisdn + '\'' +
                 ", location=" + location +
                 ", duration=" + duration +
@@ -0,0 +1,265 @@
+package org.sk.i2i.evren.serialization;
+
+import akka.serialization.ByteBufferSerializer;
+import akka.serialization.SerializerWithStringManifest;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.TransactionBatch;
+import org.sk.i2i.evren.VoiceTransaction;
+
+import java.io.NotSerializableException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary Akka serializer for the messages exchanged between TGF and CHF for every transaction.
+ *
+ * <p>A MSISDN made of up to 18 digits is written as its numeric value, any other MSISDN as UTF-8 text.
+ * Ints and longs are written as zigzag varints, so a location, usage or rating group takes one byte and a
+ * data transaction about seventeen with its transaction ID. A {@link TransactionBatch} is the count followed by every transaction
+ * behind its one-letter manifest. Artery passes its pooled buffers to {@link #toBinary(Object, ByteBuffer)}
+ * and {@link #fromBinary(ByteBuffer, String)}, the byte array methods write into a buffer kept per
+ * thread and only allocate the result.
+ */
+public class TransactionSerializer extends SerializerWithStringManifest implements ByteBufferSerializer {
+
+    private static final int IDENTIFIER = 7301;
+
+    private static final String DATA_MANIFEST = "D";
+    private static final String VOICE_MANIFEST = "V";
+    private static final String SMS_MANIFEST = "S";
+    private static final String RESULT_MANIFEST = "R";
+    private static final String BATCH_MANIFEST = "B";
+
+    private static final int MAX_NUMERIC_DIGITS = 18;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final ChargingResult.Outcome[] OUTCOMES = ChargingResult.Outcome.values();
+
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof DataTransaction) {
+            return DATA_MANIFEST;
+        } else if (o instanceof VoiceTransaction) {
+            return VOICE_MANIFEST;
+        } else if (o instanceof SmsTransaction) {
+            return SMS_MANIFEST;
+        } else if (o instanceof ChargingResult) {
+            return RESULT_MANIFEST;
+        } else if (o instanceof TransactionBatch) {
+            return BATCH_MANIFEST;
+        }
+        throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        ByteBuffer buffer = buffers.get();
+        while (true) {
+            buffer.clear();
+            try {
+                toBinary(o, buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffers.set(buffer);
+            }
+        }
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuffer buffer) {
+        if (o instanceof DataTransaction) {
+            DataTransaction data = (DataTransaction) o;
+            writeLong(buffer, data.getTransactionId());
+            writeMsisdn(buffer, data.getMsisdn());
+            writeInt(buffer, data.getLocation());
+            writeInt(buffer, data.getDataUsage());
+            writeInt(buffer, data.getRatingGroup());
+        } else if (o instanceof VoiceTransaction) {
+            VoiceTransaction voice = (VoiceTransaction) o;
+            writeLong(buffer, voice.getTransactionId());
+            writeMsisdn(buffer, voice.getCallerMsisdn());
+            writeMsisdn(buffer, voice.getCalleeMsisdn());
+            writeInt(buffer, voice.getLocation());
+            writeInt(buffer, voice.getDuration());
+        } else if (o instanceof SmsTransaction) {
+            SmsTransaction sms = (SmsTransaction) o;
+            writeLong(buffer, sms.getTransactionId());
+            writeMsisdn(buffer, sms.getSenderMsisdn());
+            writeMsisdn(buffer, sms.getReceiverMsisdn());
+            writeInt(buffer, sms.getLocation());
+        } else if (o instanceof ChargingResult) {
+            ChargingResult result = (ChargingResult) o;
+            writeLong(buffer, result.getTransactionId());
+            writeMsisdn(buffer, result.getMsisdn());
+            writeString(buffer, result.getBalanceType());
+            buffer.put((byte) (result.getOutcome() == null ? -1 : result.getOutcome().ordinal()));
+            writeInt(buffer, result.getGrantedUnits());
+            writeLong(buffer, result.getProcessingNanos());
+        } else if (o instanceof TransactionBatch) {
+            List<Object> transactions = ((TransactionBatch) o).getTransactions();
+            writeInt(buffer, transactions.size());
+            for (Object transaction : transactions) {
+                String manifest = manifest(transaction);
+                if (manifest.equals(BATCH_MANIFEST) || manifest.equals(RESULT_MANIFEST)) {
+                    throw new IllegalArgumentException("Can't put object of type " + transaction.getClass() + " into a batch");
+                }
+                buffer.put((byte) manifest.charAt(0));
+                toBinary(transaction, buffer);
+            }
+        } else {
+            throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        return fromBinary(ByteBuffer.wrap(bytes), manifest);
+    }
+
+    @Override
+    public Object fromBinary(ByteBuffer buffer, String manifest) throws NotSerializableException {
+        switch (manifest) {
+            case DATA_MANIFEST:
+                return new DataTransaction(readLong(buffer), readMsisdn(buffer), readInt(buffer), readInt(buffer), readInt(buffer));
+            case VOICE_MANIFEST:
+                return new VoiceTransaction(readLong(buffer), readMsisdn(buffer), readMsisdn(buffer), readInt(buffer), readInt(buffer));
+            case SMS_MANIFEST:
+                return new SmsTransaction(readLong(buffer), readMsisdn(buffer), readMsisdn(buffer), readInt(buffer));
+            case RESULT_MANIFEST:
+                long transactionId = readLong(buffer);
+                String msisdn = readMsisdn(buffer);
+                String balanceType = readString(buffer);
+                byte outcome = buffer.get();
+                return new ChargingResult(transactionId, msisdn, balanceType, outcome < 0 ? null : OUTCOMES[outcome], readInt(buffer), readLong(buffer));
+            case BATCH_MANIFEST:
+                int size = readInt(buffer);
+                List<Object> transactions = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    transactions.add(fromBinary(buffer, String.valueOf((char) buffer.get())));
+                }
+                return new TransactionBatch(transactions);
+            default:
+                throw new NotSerializableException("Unimplemented deserialization of message with manifest [" + manifest + "]");
+        }
+    }
+
+    /*
+     * A MSISDN is one varint: the numeric value shifted left by one, or for any other text the UTF-8
+     * length plus one shifted left by one with the low bit set and followed by the bytes. Null is 1.
+     */
+    private static void writeMsisdn(ByteBuffer buffer, String msisdn) {
+        long numeric = numericValue(msisdn);
+        if (numeric >= 0) {
+            writeVarLong(buffer, numeric << 1);
+        } else if (msisdn == null) {
+            writeVarLong(buffer, 1);
+        } else {
+            byte[] bytes = msisdn.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(buffer, ((long) (bytes.length + 1) << 1) | 1);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readMsisdn(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        if ((value & 1) == 0) {
+            return Long.toString(value >>> 1);
+        }
+        return readBytes(buffer, (int) (value >>> 1) - 1);
+    }
+
+    // value of a MSISDN that Long.toString gives back unchanged, -1 for anything else
+    private static long numericValue(String msisdn) {
+        if (msisdn == null || msisdn.isEmpty() || msisdn.length() > MAX_NUMERIC_DIGITS
+                || (msisdn.charAt(0) == '0' && msisdn.length() > 1)) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < msisdn.length(); i++) {
+            char c = msisdn.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            writeVarLong(buffer, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return readBytes(buffer, (int) readVarLong(buffer) - 1);
+    }
+
+    private static String readBytes(ByteBuffer buffer, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInt(ByteBuffer buffer, int value) {
+        writeVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    private static int readInt(ByteBuffer buffer) {
+        int value = (int) readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeLong(ByteBuffer buffer, long value) {
+        writeVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readLong(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
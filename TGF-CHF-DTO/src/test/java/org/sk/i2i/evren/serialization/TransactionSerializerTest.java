@@ -0,0 +1,192 @@
+package org.sk.i2i.evren.serialization;
+
+import org.junit.jupiter.api.Test;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.DataTransaction;
+import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.TransactionBatch;
+import org.sk.i2i.evren.VoiceTransaction;
+
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionSerializerTest {
+
+    private static final String[] MSISDNS = {
+            "5551234567",
+            "905551234567",
+            // leading zeros would be lost as a number
+            "05551234567",
+            "0",
+            "00",
+            "",
+            null,
+            // the longest MSISDN written as a number and the shortest one written as text
+            "999999999999999999",
+            "1234567890123456789",
+            "9223372036854775807",
+            "+905551234567",
+            "555 123 45 67",
+            "555-\u015f",
+    };
+
+    private final TransactionSerializer serializer = new TransactionSerializer();
+
+    private Object roundTrip(Object message) throws NotSerializableException {
+        String manifest = serializer.manifest(message);
+        byte[] bytes = serializer.toBinary(message);
+
+        // Artery writes into and reads from its own buffers
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        serializer.toBinary(message, buffer);
+        assertArrayEquals(bytes, buffer.array());
+        buffer.flip();
+        serializer.fromBinary(buffer, manifest);
+        assertFalse(buffer.hasRemaining());
+
+        return serializer.fromBinary(bytes, manifest);
+    }
+
+    private static void assertData(DataTransaction expected, Object actual) {
+        DataTransaction data = (DataTransaction) actual;
+        assertEquals(expected.getTransactionId(), data.getTransactionId());
+        assertEquals(expected.getMsisdn(), data.getMsisdn());
+        assertEquals(expected.getLocation(), data.getLocation());
+        assertEquals(expected.getDataUsage(), data.getDataUsage());
+        assertEquals(expected.getRatingGroup(), data.getRatingGroup());
+    }
+
+    private static void assertVoice(VoiceTransaction expected, Object actual) {
+        VoiceTransaction voice = (VoiceTransaction) actual;
+        assertEquals(expected.getTransactionId(), voice.getTransactionId());
+        assertEquals(expected.getCallerMsisdn(), voice.getCallerMsisdn());
+        assertEquals(expected.getCalleeMsisdn(), voice.getCalleeMsisdn());
+        assertEquals(expected.getLocation(), voice.getLocation());
+        assertEquals(expected.getDuration(), voice.getDuration());
+    }
+
+    private static void assertSms(SmsTransaction expected, Object actual) {
+        SmsTransaction sms = (SmsTransaction) actual;
+        assertEquals(expected.getTransactionId(), sms.getTransactionId());
+        assertEquals(expected.getSenderMsisdn(), sms.getSenderMsisdn());
+        assertEquals(expected.getReceiverMsisdn(), sms.getReceiverMsisdn());
+        assertEquals(expected.getLocation(), sms.getLocation());
+    }
+
+    private static void assertResult(ChargingResult expected, Object actual) {
+        ChargingResult result = (ChargingResult) actual;
+        assertEquals(expected.getTransactionId(), result.getTransactionId());
+        assertEquals(expected.getMsisdn(), result.getMsisdn());
+        assertEquals(expected.getBalanceType(), result.getBalanceType());
+        assertEquals(expected.getOutcome(), result.getOutcome());
+        assertEquals(expected.getGrantedUnits(), result.getGrantedUnits());
+        assertEquals(expected.getProcessingNanos(), result.getProcessingNanos());
+    }
+
+    @Test
+    void dataTransaction_roundTrips() throws NotSerializableException {
+        DataTransaction data = new DataTransaction(1712345678901234567L, "5551234567", 34, 500, 7);
+        assertData(data, roundTrip(data));
+    }
+
+    @Test
+    void dataTransaction_isCompact() {
+        // one byte for the ID, five for the MSISDN, one each for location, usage and rating group
+        byte[] bytes = serializer.toBinary(new DataTransaction(1, "5551234567", 34, 50, 7));
+        assertEquals(9, bytes.length);
+    }
+
+    @Test
+    void voiceAndSmsTransactions_roundTrip() throws NotSerializableException {
+        VoiceTransaction voice = new VoiceTransaction(2, "5551234567", "05321234567", 6, 3600);
+        assertVoice(voice, roundTrip(voice));
+        SmsTransaction sms = new SmsTransaction(3, "+905551234567", "5551234567", 81);
+        assertSms(sms, roundTrip(sms));
+    }
+
+    @Test
+    void msisdn_roundTripsUnchanged() throws NotSerializableException {
+        for (String msisdn : MSISDNS) {
+            DataTransaction data = new DataTransaction(4, msisdn, 1, 1, 1);
+            assertData(data, roundTrip(data));
+            VoiceTransaction voice = new VoiceTransaction(5, msisdn, msisdn, 1, 1);
+            assertVoice(voice, roundTrip(voice));
+        }
+    }
+
+    @Test
+    void msisdn_longerThanThreadBufferRoundTrips() throws NotSerializableException {
+        char[] digits = new char[1000];
+        Arrays.fill(digits, '5');
+        SmsTransaction sms = new SmsTransaction(6, new String(digits), "5551234567", 1);
+        assertSms(sms, roundTrip(sms));
+        // the grown buffer is kept, smaller messages still come out right
+        DataTransaction data = new DataTransaction(7, "5551234567", 1, 1, 1);
+        assertData(data, roundTrip(data));
+    }
+
+    @Test
+    void intsAndLongs_roundTripAtTheirLimits() throws NotSerializableException {
+        long[] longs = {0, 1, -1, 63, -64, 64, -65, Long.MAX_VALUE, Long.MIN_VALUE};
+        int[] ints = {0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int i = 0; i < longs.length; i++) {
+            DataTransaction data = new DataTransaction(longs[i], "5551234567", ints[i], ints[i], ints[i]);
+            assertData(data, roundTrip(data));
+            ChargingResult result = new ChargingResult(longs[i], "5551234567", "DATA",
+                    ChargingResult.Outcome.PARTIAL, ints[i], longs[i]);
+            assertResult(result, roundTrip(result));
+        }
+    }
+
+    @Test
+    void chargingResult_roundTripsEveryOutcome() throws NotSerializableException {
+        for (ChargingResult.Outcome outcome : ChargingResult.Outcome.values()) {
+            ChargingResult result = new ChargingResult(8, "5551234567", "VOICE", outcome, 60, 125_000);
+            assertResult(result, roundTrip(result));
+        }
+    }
+
+    @Test
+    void chargingResult_roundTripsNulls() throws NotSerializableException {
+        ChargingResult result = new ChargingResult(0, null, null, null, 0, 0);
+        assertResult(result, roundTrip(result));
+        ChargingResult empty = new ChargingResult(9, "", "", ChargingResult.Outcome.ERROR, 0, 0);
+        assertResult(empty, roundTrip(empty));
+    }
+
+    @Test
+    void batch_roundTripsTransactionsInOrder() throws NotSerializableException {
+        DataTransaction data = new DataTransaction(10, "5551234567", 1, 100, 2);
+        VoiceTransaction voice = new VoiceTransaction(11, "05551234567", "5551234568", 3, 45);
+        SmsTransaction sms = new SmsTransaction(12, "5551234567", null, 4);
+        List<Object> transactions = ((TransactionBatch) roundTrip(new TransactionBatch(List.of(data, voice, sms, data))))
+                .getTransactions();
+
+        assertEquals(4, transactions.size());
+        assertData(data, transactions.get(0));
+        assertVoice(voice, transactions.get(1));
+        assertSms(sms, transactions.get(2));
+        assertData(data, transactions.get(3));
+        assertEquals(0, ((TransactionBatch) roundTrip(new TransactionBatch(List.of()))).size());
+    }
+
+    @Test
+    void batch_rejectsResultsAndNestedBatches() {
+        ChargingResult result = new ChargingResult(13, "5551234567", "SMS", ChargingResult.Outcome.GRANTED, 1, 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> serializer.toBinary(new TransactionBatch(List.of(result))));
+        assertThrows(IllegalArgumentException.class,
+                () -> serializer.toBinary(new TransactionBatch(List.of(new TransactionBatch(List.of())))));
+    }
+
+    @Test
+    void unknownTypes_areRejected() {
+        assertThrows(IllegalArgumentException.class, () -> serializer.manifest("text"));
+        assertThrows(IllegalArgumentException.class, () -> serializer.toBinary("text"));
+        assertThrows(NotSerializableException.class, () -> serializer.fromBinary(new byte[0], "X"));
+    }
+}
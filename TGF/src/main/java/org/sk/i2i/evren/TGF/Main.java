@@ -1,17 +1,25 @@
 package org.sk.i2i.evren.TGF;
 
 import akka.actor.*;
+import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import org.sk.i2i.evren.TGF.actors.AkkaActor;
 import org.sk.i2i.evren.TGF.actors.DeadLetterListener;
 import org.sk.i2i.evren.TGF.command.CommandHandler;
 import org.sk.i2i.evren.TGF.constants.TransType;
 import org.sk.i2i.evren.TGF.management.DelayManager;
+import org.sk.i2i.evren.TGF.management.ResultManager;
 import org.sk.i2i.evren.TGF.management.StatsManager;
 import org.sk.i2i.evren.TGF.management.ThreadsManager;
+import org.sk.i2i.evren.TGF.senders.ActorSender;
+import org.sk.i2i.evren.TGF.senders.StreamSender;
+import org.sk.i2i.evren.TGF.senders.TransactionSender;
 import org.sk.i2i.evren.TGF.trafficGenerators.TrafficGenerator;
+import org.sk.i2i.evren.TGF.util.ChfReadiness;
 import org.sk.i2i.evren.TGF.util.Clock;
 
+import java.util.concurrent.TimeUnit;
+
 public class Main {
 
     public static void main(String[] args) {
@@ -23,25 +31,50 @@ public class Main {
 
         //start akka system and actors
         ActorSystem actorSystem = ActorSystem.create("TGFSystem", ConfigFactory.load("application.conf"));
-        ActorRef actor = actorSystem.actorOf(Props.create(AkkaActor.class), "TGFActor");
+        Config config = actorSystem.settings().config();
+
+        //wait until CHF has warmed up, transactions sent before would be lost
+        if(config.hasPath("CHF.ready-url")) {
+            System.out.println("waiting for CHF to be ready...");
+            if(!ChfReadiness.await(config.getString("CHF.ready-url"), config.getDuration("TGF.ready-timeout")))
+                System.out.println("CHF is not ready, starting anyway");
+        }
+
+        //matches the charging results sent back by CHF to the transactions
+        ResultManager resultManager = new ResultManager(
+                config.getInt("TGF.results.max-outstanding"),
+                config.getDuration("TGF.results.backoff", TimeUnit.NANOSECONDS),
+                config.getDuration("TGF.results.timeout", TimeUnit.NANOSECONDS));
+
+        ActorRef actor = actorSystem.actorOf(Props.create(AkkaActor.class, resultManager, statsManager), "TGFActor");
         ActorRef deadLetterListener = actorSystem.actorOf(Props.create(DeadLetterListener.class, statsManager), "deadLetterListener");
         //subscribe deadLetterListener actor to deadLetters
         actorSystem.eventStream().subscribe(deadLetterListener, DeadLetter.class);
 
+        //stream mode needs CHF to run in stream ingestion mode too
+        TransactionSender sender;
+        if("STREAM".equalsIgnoreCase(config.getString("TGF.ingestion")))
+            sender = new StreamSender(actorSystem, config.getString("CHF.path"), actor,
+                    config.getInt("TGF.stream-buffer"), config.getDuration("TGF.stream-timeout"));
+        else
+            sender = new ActorSender(actor);
+
         //runnable traffic generators
-        TrafficGenerator voice = new TrafficGenerator(TransType.VOICE, actor, statsManager, delayManager);
-        TrafficGenerator data = new TrafficGenerator(TransType.DATA, actor, statsManager, delayManager);
-        TrafficGenerator sms = new TrafficGenerator(TransType.SMS, actor, statsManager, delayManager);
+        TrafficGenerator voice = new TrafficGenerator(TransType.VOICE, sender, statsManager, delayManager, resultManager);
+        TrafficGenerator data = new TrafficGenerator(TransType.DATA, sender, statsManager, delayManager, resultManager);
+        TrafficGenerator sms = new TrafficGenerator(TransType.SMS, sender, statsManager, delayManager, resultManager);
 
         //manages starting and stopping of threads
         ThreadsManager threadsManager = new ThreadsManager(voice, data, sms);
 
         //run the main loop
-        CommandHandler commander = new CommandHandler(threadsManager, statsManager, delayManager);
+        CommandHandler commander = new CommandHandler(threadsManager, statsManager, delayManager, resultManager);
         commander.startCommander();
 
         //exit the application
         Clock.delay(1000000L);
+        if(sender instanceof StreamSender streamSender)
+            streamSender.close();
         actorSystem.terminate();
         Clock.delay(1000L);
         System.exit(0);
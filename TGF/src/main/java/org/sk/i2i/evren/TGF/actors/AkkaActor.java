@@ -1,24 +1,84 @@
 package org.sk.i2i.evren.TGF.actors;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorSelection;
 import com.typesafe.config.Config;
+import org.sk.i2i.evren.ChargingResult;
 import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.SmsTransaction;
+import org.sk.i2i.evren.TGF.management.ResultManager;
+import org.sk.i2i.evren.TGF.management.StatsManager;
+import org.sk.i2i.evren.TransactionBatch;
 import org.sk.i2i.evren.VoiceTransaction;
 
-public class AkkaActor extends AbstractActor {
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relays transactions to CHF and receives the charging results CHF sends back.
+ *
+ * <p>With a batch size above 1 the transactions are collected into a {@link TransactionBatch}, which is
+ * sent when it is full or when the first transaction in it has waited for the linger time.
+ */
+public class AkkaActor extends AbstractActorWithTimers {
+
+    private static final Object FLUSH = "flush";
+
+    ResultManager resultManager;
+    StatsManager statsManager;
 
     Config config = getContext().getSystem().settings().config();
     ActorSelection remoteActor = getContext().getSystem().actorSelection(config.getString("CHF.path"));
 
+    int batchSize = config.getInt("TGF.batch.size");
+    Duration linger = config.getDuration("TGF.batch.linger");
+    List<Object> batch = new ArrayList<>();
+
+    public AkkaActor(ResultManager resultManager, StatsManager statsManager) {
+        this.resultManager = resultManager;
+        this.statsManager = statsManager;
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(DataTransaction.class, trans -> remoteActor.tell(trans, getSelf()) )
-                .match( VoiceTransaction.class, trans -> remoteActor.tell(trans, getSelf()) )
-                .match( SmsTransaction.class, trans -> remoteActor.tell(trans, getSelf()) )
+                .match(DataTransaction.class, this::send)
+                .match( VoiceTransaction.class, this::send)
+                .match( SmsTransaction.class, this::send)
+                .match( ChargingResult.class, result -> resultManager.onResult(result) )
+                .matchEquals(FLUSH, flush -> flush())
                 .matchAny(o -> System.out.println("received unknown message"))
                 .build();
     }
+
+    private void send(Object trans) {
+
+        if(batchSize <= 1) {
+            remoteActor.tell(trans, getSelf());
+            return;
+        }
+
+        batch.add(trans);
+        if(batch.size() >= batchSize)
+            flush();
+        else if(batch.size() == 1)
+            getTimers().startSingleTimer(FLUSH, FLUSH, linger);
+    }
+
+    private void flush() {
+
+        getTimers().cancel(FLUSH);
+        if(batch.isEmpty())
+            return;
+
+        statsManager.incrementBatchCounter(batch.size());
+        remoteActor.tell(new TransactionBatch(batch), getSelf());
+        batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void postStop() {
+        flush();
+    }
 }
@@ -6,6 +6,7 @@ import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.SmsTransaction;
 import org.sk.i2i.evren.TGF.constants.TransType;
 import org.sk.i2i.evren.TGF.management.StatsManager;
+import org.sk.i2i.evren.TransactionBatch;
 import org.sk.i2i.evren.VoiceTransaction;
 
 public class DeadLetterListener extends AbstractActor {
@@ -20,13 +21,21 @@ public class DeadLetterListener extends AbstractActor {
         return receiveBuilder()
                 .match(DeadLetter.class, deadLetter -> {
 
-                    if(deadLetter.message() instanceof DataTransaction)
-                        statsManager.incrementDeadCounter(TransType.DATA);
-                    else if (deadLetter.message() instanceof VoiceTransaction)
-                        statsManager.incrementDeadCounter(TransType.VOICE);
-                    else if (deadLetter.message() instanceof SmsTransaction)
-                        statsManager.incrementDeadCounter(TransType.SMS);
+                    if(deadLetter.message() instanceof TransactionBatch batch)
+                        batch.getTransactions().forEach(this::countDead);
+                    else
+                        countDead(deadLetter.message());
 
                 }).build();
     }
+
+    private void countDead(Object message) {
+
+        if(message instanceof DataTransaction)
+            statsManager.incrementDeadCounter(TransType.DATA);
+        else if (message instanceof VoiceTransaction)
+            statsManager.incrementDeadCounter(TransType.VOICE);
+        else if (message instanceof SmsTransaction)
+            statsManager.incrementDeadCounter(TransType.SMS);
+    }
 }
@@ -3,10 +3,12 @@ package org.sk.i2i.evren.TGF.command;
 import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.TGF.constants.TransType;
 import org.sk.i2i.evren.TGF.management.DelayManager;
+import org.sk.i2i.evren.TGF.management.ResultManager;
 import org.sk.i2i.evren.TGF.management.StatsManager;
 import org.sk.i2i.evren.TGF.management.ThreadsManager;
 import org.sk.i2i.evren.TGF.util.Clock;
 import org.sk.i2i.evren.TGF.util.RandomGenerator;
+import org.sk.i2i.evren.TGF.util.TransactionIds;
 
 import java.util.InputMismatchException;
 import java.util.Scanner;
@@ -18,11 +20,13 @@ public class CommandHandler {
     private final ThreadsManager threadManager;
     private final StatsManager statsManager;
     private final DelayManager delayManager;
+    private final ResultManager resultManager;
 
-    public CommandHandler(ThreadsManager threadManager, StatsManager statsManager, DelayManager delayManager) {
+    public CommandHandler(ThreadsManager threadManager, StatsManager statsManager, DelayManager delayManager, ResultManager resultManager) {
         this.threadManager = threadManager;
         this.statsManager = statsManager;
         this.delayManager = delayManager;
+        this.resultManager = resultManager;
     }
 
     public void startCommander() {
@@ -52,6 +56,8 @@ public class CommandHandler {
                 case "printTps"      -> delayManager.printTps();
                 case "printStats"    -> statsManager.printStats();
                 case "resetStats"    -> statsManager.resetStats();
+                case "printResults"  -> resultManager.printResults();   //outcomes and latencies of the charges
+                case "resetResults"  -> resultManager.resetResults();
 
                 case "updateMsisdn"  -> RandomGenerator.fetchMsisdn();  //update the list of msisdn from Hazelcast
                 case "testRandom"    -> printTransTest();               //print a random transaction to test values
@@ -142,6 +148,7 @@ public class CommandHandler {
 
     private void printTransTest() {
         System.out.println(new DataTransaction(
+                TransactionIds.next(),
                 RandomGenerator.randomMsisdn(),
                 RandomGenerator.randomLocation(),
                 RandomGenerator.randomDataUsage(),
@@ -0,0 +1,186 @@
+package org.sk.i2i.evren.TGF.management;
+
+import org.HdrHistogram.Histogram;
+import org.sk.i2i.evren.ChargingResult;
+import org.sk.i2i.evren.ChargingResult.Outcome;
+import org.sk.i2i.evren.TGF.constants.TransType;
+import org.sk.i2i.evren.TGF.util.Clock;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches the charging results sent back by CHF to the transactions that were sent, counts the outcomes
+ * and measures the end-to-end latency of every charge.
+ *
+ * <p>Every result carries the ID of the transaction it answers and is matched to it by that ID, so a result
+ * CHF sends right away (OVERLOADED, REJECTED) may overtake earlier charges of the subscriber. Transactions
+ * that never get a result are given up after {@code resultTimeoutNanos}, the pending transactions are
+ * checked for that about twice per timeout.
+ *
+ * <p>The generators ask {@link #awaitTurn(TransType)} before every transaction. It holds them while
+ * {@code maxOutstanding} transactions wait for a result (closed loop, 0 turns it off) and slows them down
+ * while CHF keeps rejecting, shedding or failing charges.
+ */
+public class ResultManager {
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+    private static final int MAX_BACKOFF_STEPS = 10;
+
+    private final ConcurrentHashMap<Long, Sent> pending = new ConcurrentHashMap<>();
+    private final EnumMap<TransType, Results> map = new EnumMap<>(TransType.class);
+    private final int maxOutstanding;
+    private final long backoffNanos;
+    private final long resultTimeoutNanos;
+    private final AtomicLong lastExpiry = new AtomicLong(System.nanoTime());
+
+    private record Sent(TransType type, long sentAt) {
+    }
+
+    private static class Results {
+        private final long[] outcomes = new long[Outcome.values().length];
+        private final Histogram endToEnd = new Histogram(HIGHEST_LATENCY, 3);
+        private final Histogram processing = new Histogram(HIGHEST_LATENCY, 3);
+        private final AtomicLong outstanding = new AtomicLong();
+        private final AtomicLong unanswered = new AtomicLong();
+        private volatile int failureStreak = 0;
+    }
+
+    /**
+     * @param maxOutstanding     transactions of a type that may wait for a result, 0 for no limit
+     * @param backoffNanos       extra delay per consecutive rejected or failed charge
+     * @param resultTimeoutNanos time after which a transaction without result is given up
+     */
+    public ResultManager(int maxOutstanding, long backoffNanos, long resultTimeoutNanos) {
+        this.maxOutstanding = maxOutstanding;
+        this.backoffNanos = backoffNanos;
+        this.resultTimeoutNanos = resultTimeoutNanos;
+        for (TransType type : TransType.values()) {
+            map.put(type, new Results());
+        }
+    }
+
+    public void awaitTurn(TransType type) {
+
+        Results results = map.get(type);
+
+        if(maxOutstanding > 0) {
+            long waitStart = System.nanoTime();
+            while (results.outstanding.get() >= maxOutstanding && System.nanoTime() - waitStart < resultTimeoutNanos) {
+                Clock.delay(Clock.secondInNano / 10000);
+            }
+        }
+
+        int streak = results.failureStreak;
+        if(streak > 0)
+            Clock.delay(backoffNanos * Math.min(streak, MAX_BACKOFF_STEPS));
+    }
+
+    public void onSent(TransType type, long transactionId) {
+
+        long now = System.nanoTime();
+        pending.put(transactionId, new Sent(type, now));
+        map.get(type).outstanding.incrementAndGet();
+
+        long last = lastExpiry.get();
+        if(now - last > resultTimeoutNanos / 2 && lastExpiry.compareAndSet(last, now))
+            expire(now);
+    }
+
+    //gives up the transactions that had no result within the timeout
+    private void expire(long now) {
+        for (Map.Entry<Long, Sent> entry : pending.entrySet()) {
+            Sent sent = entry.getValue();
+            if(now - sent.sentAt() > resultTimeoutNanos && pending.remove(entry.getKey(), sent)) {
+                Results results = map.get(sent.type());
+                results.outstanding.decrementAndGet();
+                results.unanswered.incrementAndGet();
+            }
+        }
+    }
+
+    //the transaction was not handed to CHF, no result will come
+    public void onDropped(TransType type, long transactionId) {
+
+        if(pending.remove(transactionId) != null)
+            map.get(type).outstanding.decrementAndGet();
+    }
+
+    public void onResult(ChargingResult result) {
+
+        long now = System.nanoTime();
+        TransType type = TransType.valueOf(result.getBalanceType());
+        Results results = map.get(type);
+
+        Sent sent = pending.remove(result.getTransactionId());
+        if(sent != null)
+            results.outstanding.decrementAndGet();
+
+        synchronized (results) {
+            results.outcomes[result.getOutcome().ordinal()]++;
+            if(sent != null)
+                results.endToEnd.recordValue(Math.min(now - sent.sentAt(), HIGHEST_LATENCY));
+            results.processing.recordValue(Math.min(Math.max(result.getProcessingNanos(), 0), HIGHEST_LATENCY));
+        }
+
+        switch (result.getOutcome()) {
+            case REJECTED, OVERLOADED, ERROR -> results.failureStreak++;
+            default -> results.failureStreak = 0;
+        }
+    }
+
+    public void printResults() {
+        for (TransType type : TransType.values()) {
+
+            Results results = map.get(type);
+
+            synchronized (results) {
+                System.out.println(
+                        type + " RESULTS:" +
+                        "\nGranted:     " + results.outcomes[Outcome.GRANTED.ordinal()] +
+                        "\nPartial:     " + results.outcomes[Outcome.PARTIAL.ordinal()] +
+                        "\nDenied:      " + results.outcomes[Outcome.DENIED.ordinal()] +
+                        "\nRejected:    " + results.outcomes[Outcome.REJECTED.ordinal()] +
+                        "\nOverloaded:  " + results.outcomes[Outcome.OVERLOADED.ordinal()] +
+                        "\nError:       " + results.outcomes[Outcome.ERROR.ordinal()] +
+                        "\nDuplicate:   " + results.outcomes[Outcome.DUPLICATE.ordinal()] +
+                        "\nUnanswered:  " + results.unanswered.get() +
+                        "\nOutstanding: " + results.outstanding.get() +
+                        "\nEnd-to-end:  " + latencies(results.endToEnd) +
+                        "\nCHF:         " + latencies(results.processing)
+                );
+            }
+        }
+    }
+
+    private static String latencies(Histogram histogram) {
+        if(histogram.getTotalCount() == 0)
+            return "-";
+        return "p50 " + micros(histogram.getValueAtPercentile(50)) +
+                " | p99 " + micros(histogram.getValueAtPercentile(99)) +
+                " | p99.9 " + micros(histogram.getValueAtPercentile(99.9)) +
+                " | max " + micros(histogram.getMaxValue());
+    }
+
+    private static String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+
+    public void resetResults() {
+
+        for (TransType type : TransType.values()) {
+            Results results = map.get(type);
+            synchronized (results) {
+                Arrays.fill(results.outcomes, 0);
+                results.endToEnd.reset();
+                results.processing.reset();
+                results.unanswered.set(0);
+                results.failureStreak = 0;
+            }
+        }
+    }
+}
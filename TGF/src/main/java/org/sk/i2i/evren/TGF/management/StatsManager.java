@@ -7,6 +7,10 @@ public class StatsManager {
 
     private final HashMap<TransType, Counter> map = new HashMap<>();
 
+    //batches sent by the TGF actor and the transactions in them
+    private long batchCounter = 0;
+    private long batchedCounter = 0;
+
     private class Counter {
         private long counter = 0;
         private long deadCounter = 0;
@@ -29,6 +33,12 @@ public class StatsManager {
         map.get(type).deadCounter++;
     }
 
+    public void incrementBatchCounter(int size) {
+
+        batchCounter++;
+        batchedCounter += size;
+    }
+
     public void resetTimer(TransType type) {
         map.get(type).startTime = System.currentTimeMillis();
     }
@@ -47,6 +57,8 @@ public class StatsManager {
 
         }
         System.out.println("TOTAL TRANSACTIONS: " + (map.get(TransType.SMS).counter + map.get(TransType.VOICE).counter + map.get(TransType.DATA).counter));
+        if(batchCounter > 0)
+            System.out.println("BATCHES: " + batchCounter + " | average size: " + (double) batchedCounter / batchCounter);
     }
 
     public void resetStats() {
@@ -56,6 +68,8 @@ public class StatsManager {
             map.get(type).deadCounter = 0;
             map.get(type).startTime = System.currentTimeMillis();
         }
+        batchCounter = 0;
+        batchedCounter = 0;
     }
 
 }
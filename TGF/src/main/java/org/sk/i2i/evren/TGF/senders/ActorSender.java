@@ -0,0 +1,22 @@
+package org.sk.i2i.evren.TGF.senders;
+
+import akka.actor.ActorRef;
+
+/**
+ * Sends every transaction as a message through the TGF actor. Messages CHF can not take are only
+ * noticed as dead letters.
+ */
+public class ActorSender implements TransactionSender {
+
+    private final ActorRef actor;
+
+    public ActorSender(ActorRef actor) {
+        this.actor = actor;
+    }
+
+    @Override
+    public boolean send(Object transaction) {
+        actor.tell(transaction, ActorRef.noSender());
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package org.sk.i2i.evren.TGF.senders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import akka.serialization.Serialization;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.SinkRef;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import org.sk.i2i.evren.ChargingStreamRequest;
+import org.sk.i2i.evren.TGF.constants.TransType;
+
+import java.time.Duration;
+
+/**
+ * Streams transactions to CHF through a stream reference that CHF hands out when it runs in stream
+ * ingestion mode. Demand flows back from CHF, so when CHF falls behind {@link #send(Object)} blocks
+ * the generator thread instead of piling messages up in the remote mailbox.
+ */
+public class StreamSender implements TransactionSender {
+
+    private final SourceQueueWithComplete<Object> queue;
+
+    /**
+     * @param system TGF actor system
+     * @param chfPath path of the CHF entry point
+     * @param replyTo receives the charging results of the streamed transactions
+     * @param bufferSize transactions buffered in TGF before generators are held back
+     * @param timeout how long to wait for CHF to hand out the stream reference
+     */
+    @SuppressWarnings("unchecked")
+    public StreamSender(ActorSystem system, String chfPath, ActorRef replyTo, int bufferSize, Duration timeout) {
+        ActorSelection chf = system.actorSelection(chfPath);
+        SinkRef<Object> sinkRef = (SinkRef<Object>) Patterns
+                .ask(chf, new ChargingStreamRequest(Serialization.serializedActorPath(replyTo)), timeout)
+                .toCompletableFuture()
+                .join();
+
+        // one offer may be pending per generator thread
+        this.queue = Source.<Object>queue(bufferSize, OverflowStrategy.backpressure(), TransType.values().length)
+                .to(sinkRef.getSink())
+                .run(system);
+    }
+
+    @Override
+    public boolean send(Object transaction) {
+        try {
+            return queue.offer(transaction).toCompletableFuture().join() == QueueOfferResult.enqueued();
+        } catch (Exception e) {
+            // the stream to CHF failed or was completed
+            return false;
+        }
+    }
+
+    public void close() {
+        queue.complete();
+    }
+}
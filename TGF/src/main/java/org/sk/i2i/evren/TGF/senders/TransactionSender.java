@@ -0,0 +1,13 @@
+package org.sk.i2i.evren.TGF.senders;
+
+/**
+ * Delivers generated transactions to CHF.
+ */
+public interface TransactionSender {
+
+    /**
+     * @param transaction Data, Voice or Sms transaction
+     * @return false if the transaction was dropped instead of being handed to CHF
+     */
+    boolean send(Object transaction);
+}
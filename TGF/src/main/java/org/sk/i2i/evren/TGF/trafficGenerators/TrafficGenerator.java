@@ -1,35 +1,40 @@
 package org.sk.i2i.evren.TGF.trafficGenerators;
 
-import akka.actor.ActorRef;
 import org.sk.i2i.evren.DataTransaction;
 import org.sk.i2i.evren.SmsTransaction;
 import org.sk.i2i.evren.TGF.constants.TransType;
 import org.sk.i2i.evren.TGF.management.DelayManager;
+import org.sk.i2i.evren.TGF.management.ResultManager;
 import org.sk.i2i.evren.TGF.management.StatsManager;
+import org.sk.i2i.evren.TGF.senders.TransactionSender;
 import org.sk.i2i.evren.TGF.util.Clock;
 import org.sk.i2i.evren.TGF.util.RandomGenerator;
+import org.sk.i2i.evren.TGF.util.TransactionIds;
 import org.sk.i2i.evren.VoiceTransaction;
 
 public class TrafficGenerator implements Runnable{
     private final TransType type;
-    private final ActorRef actor;
+    private final TransactionSender sender;
     private boolean isGenerate = true;
 
     private final StatsManager statsManager;
     private final DelayManager delayManager;
+    private final ResultManager resultManager;
 
     /**
      * @param type type of transaction to be generated
-     * @param actor akka actor which will send transactions
+     * @param sender delivers the transactions to CHF
      * @param delayManager manages the delay time between transactions
      * @param statsManager manages stats of generator, counts transactions and dropped transactions
+     * @param resultManager matches the results of CHF to the transactions, holds the generator back when needed
      */
-    public TrafficGenerator(TransType type, ActorRef actor, StatsManager statsManager, DelayManager delayManager) {
+    public TrafficGenerator(TransType type, TransactionSender sender, StatsManager statsManager, DelayManager delayManager, ResultManager resultManager) {
 
         this.type = type;
-        this.actor = actor;
+        this.sender = sender;
         this.statsManager = statsManager;
         this.delayManager = delayManager;
+        this.resultManager = resultManager;
     }
 
     @Override
@@ -40,6 +45,7 @@ public class TrafficGenerator implements Runnable{
 
         while(isGenerate) {
 
+            resultManager.awaitTurn(type);
             sendTransaction();
             statsManager.incrementCounter(type);
             Clock.delay(delayManager.getDelay(type));
@@ -50,38 +56,51 @@ public class TrafficGenerator implements Runnable{
 
     private void sendTransaction() {
 
+        long transactionId = TransactionIds.next();
         String msisdn = RandomGenerator.randomMsisdn();
         int location = RandomGenerator.randomLocation();
 
         switch (type) {
             case DATA -> {
                 DataTransaction trans = new DataTransaction(
+                        transactionId,
                         msisdn,
                         location,
                         RandomGenerator.randomDataUsage(),
                         RandomGenerator.randomRatingGroup());
-                actor.tell(trans, ActorRef.noSender());
+                send(trans, transactionId);
             }
             case VOICE -> {
                 VoiceTransaction trans =  new VoiceTransaction(
+                        transactionId,
                         msisdn,
                         RandomGenerator.randomMsisdn(),
                         location,
                         RandomGenerator.randomDuration()
                 );
-                actor.tell(trans, ActorRef.noSender());
+                send(trans, transactionId);
             }
             case SMS -> {
                 SmsTransaction trans = new SmsTransaction(
+                        transactionId,
                         msisdn,
                         RandomGenerator.randomMsisdn(),
                         location
                 );
-                actor.tell(trans, ActorRef.noSender());
+                send(trans, transactionId);
             }
         }//end switch
     }
 
+    private void send(Object transaction, long transactionId) {
+
+        resultManager.onSent(type, transactionId);
+        if(!sender.send(transaction)) {
+            resultManager.onDropped(type, transactionId);
+            statsManager.incrementDeadCounter(type);
+        }
+    }
+
     //set isGenerate bool to false to break the generation loop
     public void stop() {
         this.isGenerate = false;
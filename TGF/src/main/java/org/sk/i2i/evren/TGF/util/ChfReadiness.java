@@ -0,0 +1,48 @@
+package org.sk.i2i.evren.TGF.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Polls the /ready endpoint of CHF, which answers 200 once CHF has warmed up and accepts transactions.
+ */
+public class ChfReadiness {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(500);
+
+    /**
+     * Waits until CHF reports ready.
+     *
+     * @return false if CHF was not ready within the timeout
+     */
+    public static boolean await(String url, Duration timeout) {
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(POLL_INTERVAL).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(POLL_INTERVAL).GET().build();
+        long deadline = System.nanoTime() + timeout.toNanos();
+
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200)
+                    return true;
+            } catch (IOException e) {
+                // CHF is not listening yet
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            try {
+                Thread.sleep(POLL_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+}
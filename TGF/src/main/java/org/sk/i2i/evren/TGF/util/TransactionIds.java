@@ -0,0 +1,21 @@
+package org.sk.i2i.evren.TGF.util;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transaction IDs for CHF's duplicate detection. The upper 24 bits are chosen at random when TGF starts,
+ * the lower 40 bits count the transactions of this TGF, so several TGFs running at the same time do
+ * not hand out the same ID.
+ */
+public class TransactionIds {
+
+    private static final int COUNTER_BITS = 40;
+
+    private static final long prefix = (new SecureRandom().nextInt(1 << 24) | 1L) << COUNTER_BITS;
+    private static final AtomicLong counter = new AtomicLong();
+
+    public static long next() {
+        return prefix | (counter.incrementAndGet() & ((1L << COUNTER_BITS) - 1));
+    }
+}
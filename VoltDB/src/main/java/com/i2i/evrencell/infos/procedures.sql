@@ -317,11 +317,94 @@ JOIN
     PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID
 WHERE C.MSISDN = ?;
 
+-- GET ALL PACKAGE DETAILS
+-- Every package definition, CHF loads them all when it starts
+CREATE PROCEDURE GET_ALL_PACKAGE_DETAILS
+AS
+SELECT PACKAGE_ID, PERIOD, AMOUNT_MINUTES, AMOUNT_SMS, AMOUNT_DATA
+FROM PACKAGE;
 
+-- GET CUSTOMER INFO & PACKAGE BY CUSTOMER ID RANGE
+-- Subscribers with FROM_CUST_ID <= CUST_ID < TO_CUST_ID: (FROM_CUST_ID, TO_CUST_ID)
+-- CHF loads all subscribers in ranges when it starts, several ranges at a time
+CREATE PROCEDURE GET_CUSTOMER_INFO_PACKAGE_BY_CUST_ID_RANGE
+AS
+SELECT
+    C.MSISDN,
+    C.NAME,
+    C.SURNAME,
+    C.EMAIL,
+    B.PACKAGE_ID
+FROM
+    CUSTOMER C
+JOIN
+    BALANCE B ON C.CUST_ID = B.CUST_ID
+WHERE C.CUST_ID >= ? AND C.CUST_ID < ?;
+
+-- GET SUBSCRIBER SNAPSHOT BY MSISDN
+-- Contact details, package, remaining balances and balance period of one subscriber in one row: (MSISDN)
+-- CHF reads it when a subscriber or its package is not cached, instead of GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN
+-- and GET_PACKAGE_INFO_BY_PACKAGE_ID one after the other.
+-- Like DebitBalanceByMsisdn it is registered without a PARTITION clause while the tables are not partitioned.
+-- Once CUSTOMER and BALANCE are partitioned on MSISDN, add
+-- PARTITION ON TABLE CUSTOMER COLUMN MSISDN PARAMETER 0 to make it single-partition.
+CREATE PROCEDURE GET_SUBSCRIBER_SNAPSHOT_BY_MSISDN
+AS
+SELECT
+    C.MSISDN,
+    C.NAME,
+    C.SURNAME,
+    C.EMAIL,
+    B.PACKAGE_ID,
+    B.BAL_LVL_MINUTES,
+    B.BAL_LVL_SMS,
+    B.BAL_LVL_DATA,
+    B.SDATE,
+    B.EDATE,
+    P.AMOUNT_MINUTES,
+    P.AMOUNT_SMS,
+    P.AMOUNT_DATA,
+    P.PERIOD
+FROM
+    CUSTOMER C
+JOIN
+    BALANCE B ON C.CUST_ID = B.CUST_ID
+JOIN
+    PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID
+WHERE C.MSISDN = ?;
 
-
-
-
-
-
-
+-- DEBIT BALANCE BY MSISDN (Java procedure, VoltDB/src/main/java/com/i2i/evrencell/voltdb/procedures)
+-- Reads and deducts one balance type in a single transaction: (MSISDN, BALANCE_TYPE, USAGE)
+-- The tables are not partitioned yet, so the procedure is registered without a PARTITION clause.
+-- Once CUSTOMER and BALANCE are partitioned on MSISDN, register it with
+-- PARTITION ON TABLE CUSTOMER COLUMN MSISDN PARAMETER 0 to make it single-partition.
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.DebitBalanceByMsisdn;
+
+-- RESERVE BALANCE BY MSISDN (Java procedure)
+-- Deducts one block of a CHF quota grant and records it in RESERVED_* until CHF returns what it did not use:
+-- (MSISDN, BALANCE_TYPE, AMOUNT, USED, HOLD_MILLIS). USED units of earlier blocks were charged and leave the record.
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.ReserveBalanceByMsisdn;
+
+-- REFUND BALANCES BY MSISDN (Java procedure)
+-- Returns unused reserved units in one batch: (MSISDN[], BALANCE_TYPE[], AMOUNT[], USED[], PERIOD_START[])
+-- USED units were charged and only leave RESERVED_*. An entry is skipped when the balance was renewed after its
+-- units were reserved (SDATE != PERIOD_START).
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.RefundBalancesByMsisdn;
+
+-- RECLAIM EXPIRED RESERVATIONS (Java procedure)
+-- Gives the RESERVED_* units of up to LIMIT balances whose RESERVED_UNTIL has passed back to the levels: (LIMIT).
+-- These are the reservations of a CHF node that stopped without returning them, CHF calls it with the renewal.
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.ReclaimExpiredReservations;
+
+-- DEBIT BALANCES BY MSISDN (Java procedure)
+-- Batch of debits applied in order in one transaction: (MSISDN[], BALANCE_TYPE[], USAGE[])
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.DebitBalancesByMsisdn;
+
+-- RENEW EXPIRED BALANCES (Java procedure)
+-- Resets up to LIMIT balances whose EDATE has passed to the package amounts and starts their next period:
+-- (LIMIT). Returns the renewed MSISDNs and the next EDATE, CHF calls it in small batches at that time.
+-- Like DebitBalanceByMsisdn it is registered without a PARTITION clause while the tables are not
+-- partitioned. Once BALANCE is partitioned, give it a leading partition key parameter, register it with
+-- PARTITION ON TABLE BALANCE COLUMN CUST_ID PARAMETER 0 and call it with callAllPartitionProcedure, so
+-- every partition renews its own balances without a multi-partition transaction.
+CREATE PROCEDURE FROM CLASS com.i2i.evrencell.voltdb.procedures.RenewExpiredBalances;
@@ -31,10 +31,26 @@ CREATE TABLE BALANCE (
     BAL_LVL_DATA INTEGER,
     SDATE TIMESTAMP,
     EDATE TIMESTAMP,
+    RESERVED_MINUTES INTEGER DEFAULT 0 NOT NULL,
+    RESERVED_SMS INTEGER DEFAULT 0 NOT NULL,
+    RESERVED_DATA INTEGER DEFAULT 0 NOT NULL,
+    RESERVED_UNTIL TIMESTAMP,
     FOREIGN KEY (CUST_ID) REFERENCES CUSTOMER(CUST_ID),
     FOREIGN KEY (PACKAGE_ID) REFERENCES PACKAGE(PACKAGE_ID)
 );
 
+-- balances in order of the end of their period, RenewExpiredBalances reads the expired ones from here
+CREATE INDEX BALANCE_EDATE_IDX ON BALANCE (EDATE);
+
+-- units CHF has taken off the levels for its quota grants and not reported as charged yet, ReserveBalanceByMsisdn
+-- records them until RESERVED_UNTIL and ReclaimExpiredReservations gives back the ones CHF never returned.
+-- On an existing database:
+-- ALTER TABLE BALANCE ADD COLUMN RESERVED_MINUTES INTEGER DEFAULT 0 NOT NULL;
+-- ALTER TABLE BALANCE ADD COLUMN RESERVED_SMS INTEGER DEFAULT 0 NOT NULL;
+-- ALTER TABLE BALANCE ADD COLUMN RESERVED_DATA INTEGER DEFAULT 0 NOT NULL;
+-- ALTER TABLE BALANCE ADD COLUMN RESERVED_UNTIL TIMESTAMP;
+CREATE INDEX BALANCE_RESERVED_UNTIL_IDX ON BALANCE (RESERVED_UNTIL);
+
 -- PERSONAL_USAGE Table Creation
 CREATE TABLE PERSONAL_USAGE (
     PERSONAL_USAGE_ID INTEGER PRIMARY KEY,
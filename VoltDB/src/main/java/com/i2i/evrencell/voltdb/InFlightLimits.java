@@ -0,0 +1,46 @@
+package com.i2i.evrencell.voltdb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps on the procedure calls waiting for a response: one for all procedures and optional ones for
+ * single procedures. A call that finds a cap reached is not sent at all.
+ */
+final class InFlightLimits {
+
+    private final int maxInFlight;
+    private final Semaphore global;
+    private final Map<String, Semaphore> procedures = new ConcurrentHashMap<>();
+
+    InFlightLimits(int maxInFlight, Map<String, Integer> procedureLimits) {
+        this.maxInFlight = maxInFlight;
+        this.global = new Semaphore(maxInFlight);
+        procedureLimits.forEach((procedure, limit) -> procedures.put(procedure, new Semaphore(limit)));
+    }
+
+    boolean tryAcquire(String procedure) {
+        if (!global.tryAcquire()) {
+            return false;
+        }
+        Semaphore procedureLimit = procedures.get(procedure);
+        if (procedureLimit != null && !procedureLimit.tryAcquire()) {
+            global.release();
+            return false;
+        }
+        return true;
+    }
+
+    void release(String procedure) {
+        Semaphore procedureLimit = procedures.get(procedure);
+        if (procedureLimit != null) {
+            procedureLimit.release();
+        }
+        global.release();
+    }
+
+    int inFlight() {
+        return maxInFlight - global.availablePermits();
+    }
+}
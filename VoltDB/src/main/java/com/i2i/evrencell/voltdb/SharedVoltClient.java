@@ -0,0 +1,257 @@
+package com.i2i.evrencell.voltdb;
+
+import org.apache.log4j.Logger;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientConfig;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientStatusListenerExt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one VoltDB client of the process, shared by every {@link VoltdbOperator} and
+ * {@link VoltdbOperator2}. A VoltDB client is thread safe and multiplexes all calls over one connection
+ * per server, so callers lease it instead of opening connections of their own.
+ *
+ * <p>The client connects to every server in voltdb.servers and, being topology aware, to the rest of
+ * the cluster as it learns about it. Single-partition procedures go straight to the partition leader
+ * and lost connections are reopened in the background.
+ *
+ * <p>Every user holds a {@link Lease} and closes it when done, the client is closed with the last lease.
+ * A lease whose owner is garbage collected without closing it is reported as a leak with the stack of
+ * the code that took it, then released.
+ */
+public final class SharedVoltClient {
+
+    private static final Logger logger = Logger.getLogger(SharedVoltClient.class);
+
+    private static final String CONFIG_FILE = "config.properties";
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static final AtomicLong leaks = new AtomicLong();
+
+    private static SharedVoltClient instance;
+
+    private final Client client;
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connectionsLost = new AtomicLong();
+
+    private SharedVoltClient(List<String> servers, ClientConfig clientConfig) {
+        this.client = ClientFactory.createClient(clientConfig);
+
+        int connected = 0;
+        for (String server : servers) {
+            try {
+                client.createConnection(server);
+                connected++;
+            } catch (IOException e) {
+                logger.warn("Could not connect to VoltDB server " + server + ": " + e.getMessage());
+            }
+        }
+        if (connected == 0) {
+            close();
+            throw new RuntimeException("Error while creating connection to VoltDB servers " + servers);
+        }
+        logger.info("Connected to " + connected + " of " + servers.size() + " VoltDB servers " + servers);
+    }
+
+    /**
+     * Leases the shared client for {@code owner}, connecting it on the first lease.
+     */
+    public static synchronized Lease lease(Object owner) {
+        if (instance == null) {
+            instance = create();
+        }
+        Lease lease = new Lease(instance, owner.getClass().getName());
+        instance.leases.add(lease);
+        lease.cleanable = cleaner.register(owner, lease.release);
+        return lease;
+    }
+
+    private static synchronized void release(SharedVoltClient shared, Lease lease) {
+        shared.leases.remove(lease);
+        if (shared.leases.isEmpty() && shared == instance) {
+            instance = null;
+            shared.close();
+        }
+    }
+
+    private static SharedVoltClient create() {
+        Properties properties = loadProperties();
+        List<String> servers = Arrays.stream(setting(properties, "voltdb.servers", "VOLTDB_SERVERS").split(","))
+                .map(String::trim)
+                .filter(server -> !server.isEmpty())
+                .toList();
+
+        ConnectionListener listener = new ConnectionListener();
+        ClientConfig clientConfig = new ClientConfig(
+                setting(properties, "voltdb.user", "VOLTDB_USER"),
+                setting(properties, "voltdb.password", "VOLTDB_PASSWORD"),
+                listener);
+        clientConfig.setTopologyChangeAware(true);
+        clientConfig.setProcedureCallTimeout(Long.parseLong(setting(properties, "voltdb.procedure-call-timeout-ms", "VOLTDB_CALL_TIMEOUT_MS")));
+        clientConfig.setMaxOutstandingTxns(Integer.parseInt(setting(properties, "voltdb.max-outstanding", "VOLTDB_MAX_OUTSTANDING")));
+
+        SharedVoltClient shared = new SharedVoltClient(servers, clientConfig);
+        listener.shared = shared;
+        return shared;
+    }
+
+    /**
+     * @return the packaged config.properties
+     */
+    static Properties loadProperties() {
+        Properties properties = new Properties();
+        try (InputStream input = SharedVoltClient.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
+            if (input == null) {
+                throw new RuntimeException("Unable to find " + CONFIG_FILE);
+            }
+            properties.load(input);
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading " + CONFIG_FILE, e);
+        }
+        return properties;
+    }
+
+    // the environment variable wins over the packaged properties
+    static String setting(Properties properties, String key, String environmentVariable) {
+        String value = System.getenv(environmentVariable);
+        return value != null ? value : properties.getProperty(key, "");
+    }
+
+    private void close() {
+        try {
+            client.drain();
+            client.close();
+        } catch (InterruptedException e) {
+            logger.error("Error while closing VoltDB client", e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Error while closing VoltDB client", e);
+        }
+    }
+
+    /**
+     * @return host:port of the VoltDB servers the client is connected to now
+     */
+    public static synchronized List<String> connectedHosts() {
+        List<String> hosts = new ArrayList<>();
+        if (instance != null) {
+            for (InetSocketAddress address : instance.client.getConnectedHostList()) {
+                hosts.add(address.getHostString() + ":" + address.getPort());
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * @return class names of the owners that hold a lease now, one entry per lease
+     */
+    public static synchronized List<String> openLeases() {
+        List<String> owners = new ArrayList<>();
+        if (instance != null) {
+            for (Lease lease : instance.leases) {
+                owners.add(lease.owner);
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * @return connections to VoltDB servers lost since the client was created, each one is reopened
+     */
+    public static synchronized long connectionsLost() {
+        return instance != null ? instance.connectionsLost.get() : 0;
+    }
+
+    /**
+     * @return leases released because their owner was garbage collected without closing them
+     */
+    public static long leakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * Use of the shared client by one owner. Closing it more than once does nothing.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final SharedVoltClient shared;
+        private final String owner;
+        private final Release release;
+        private Cleaner.Cleanable cleanable;
+
+        private Lease(SharedVoltClient shared, String owner) {
+            this.shared = shared;
+            this.owner = owner;
+            this.release = new Release(shared, this, new Throwable("VoltDB client leased by " + owner));
+        }
+
+        public Client client() {
+            return shared.client;
+        }
+
+        @Override
+        public void close() {
+            release.closed = true;
+            cleanable.clean();
+        }
+    }
+
+    // runs once, on close or when the owner of the lease has become unreachable; must not reference it
+    private static final class Release implements Runnable {
+
+        private final SharedVoltClient shared;
+        private final Lease lease;
+        private final Throwable leasedAt;
+        private volatile boolean closed;
+
+        private Release(SharedVoltClient shared, Lease lease, Throwable leasedAt) {
+            this.shared = shared;
+            this.lease = lease;
+            this.leasedAt = leasedAt;
+        }
+
+        @Override
+        public void run() {
+            if (!closed) {
+                leaks.incrementAndGet();
+                logger.warn("VoltDB client lease was never closed, its owner is gone", leasedAt);
+            }
+            release(shared, lease);
+        }
+    }
+
+    private static final class ConnectionListener extends ClientStatusListenerExt {
+
+        private volatile SharedVoltClient shared;
+
+        @Override
+        public void connectionCreated(String hostname, int port, AutoConnectionStatus status) {
+            if (status == AutoConnectionStatus.SUCCESS) {
+                logger.info("Connected to VoltDB server " + hostname + ":" + port);
+            } else {
+                logger.warn("Could not connect to VoltDB server " + hostname + ":" + port + ": " + status);
+            }
+        }
+
+        @Override
+        public void connectionLost(String hostname, int port, int connectionsLeft, DisconnectCause cause) {
+            if (shared != null) {
+                shared.connectionsLost.incrementAndGet();
+            }
+            logger.warn("Lost connection to VoltDB server " + hostname + ":" + port + " (" + cause + "), "
+                    + connectionsLeft + " connections left, reconnecting");
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.i2i.evrencell.voltdb;
+
+/**
+ * A procedure call that was not sent because too many calls, in total or of that procedure, are
+ * waiting for a response. The caller may retry later or shed the work.
+ */
+public class VoltCallRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public VoltCallRejectedException(String procedureName) {
+        super("Too many calls in flight, not calling procedure: " + procedureName);
+    }
+}
@@ -0,0 +1,14 @@
+package com.i2i.evrencell.voltdb;
+
+import lombok.Builder;
+
+import java.sql.Timestamp;
+
+@Builder
+public record VoltDebitResult(
+        int grantedAmount,
+        int remainingBalance,
+        int packageId,
+        Timestamp periodStart
+) {
+}
@@ -0,0 +1,17 @@
+package com.i2i.evrencell.voltdb;
+
+import lombok.Builder;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Outcome of one RenewExpiredBalances call: the MSISDNs whose balance started a new period, and the
+ * earliest period end still ahead, null when there are no balances.
+ */
+@Builder
+public record VoltRenewalBatch(
+        List<String> msisdns,
+        Timestamp nextExpiry
+) {
+}
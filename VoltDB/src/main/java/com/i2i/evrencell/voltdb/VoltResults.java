@@ -0,0 +1,191 @@
+package com.i2i.evrencell.voltdb;
+
+import org.voltdb.VoltTable;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Domain objects from procedure result tables, shared by the blocking {@link VoltdbOperator} and the
+ * asynchronous {@link VoltdbOperator2}. A mapper that needs a row throws when the table has none.
+ */
+final class VoltResults {
+
+    private VoltResults() {
+    }
+
+    static int firstInt(VoltTable resultTable) {
+        if (resultTable.advanceRow()) {
+            return (int) resultTable.getLong(0);
+        }
+        throw new RuntimeException("No data returned from procedure");
+    }
+
+    static String firstString(VoltTable resultTable) {
+        if (resultTable.advanceRow()) {
+            return resultTable.getString(0);
+        }
+        throw new RuntimeException("No data returned from procedure");
+    }
+
+    /**
+     * The row of a DebitBalanceByMsisdn result, null when the MSISDN has no balance.
+     */
+    static VoltDebitResult debitResult(VoltTable resultTable) {
+        return resultTable.advanceRow() ? debitResultRow(resultTable) : null;
+    }
+
+    /**
+     * One entry per row of a DebitBalancesByMsisdn result, null when the MSISDN has no balance.
+     */
+    static List<VoltDebitResult> debitResults(VoltTable resultTable) {
+        List<VoltDebitResult> results = new ArrayList<>(resultTable.getRowCount());
+        while (resultTable.advanceRow()) {
+            results.add(resultTable.getLong("FOUND") == 0 ? null : debitResultRow(resultTable));
+        }
+        return results;
+    }
+
+    private static VoltDebitResult debitResultRow(VoltTable resultTable) {
+        return new VoltDebitResult(
+                (int) resultTable.getLong("GRANTED"),
+                (int) resultTable.getLong("REMAINING"),
+                (int) resultTable.getLong("PACKAGE_ID"),
+                resultTable.getTimestampAsSqlTimestamp("PERIOD_START")
+        );
+    }
+
+    static VoltRenewalBatch renewalBatch(VoltTable renewedTable, VoltTable nextExpiryTable) {
+        List<String> msisdns = new ArrayList<>(renewedTable.getRowCount());
+        while (renewedTable.advanceRow()) {
+            msisdns.add(renewedTable.getString("MSISDN"));
+        }
+
+        Timestamp nextExpiry = nextExpiryTable.advanceRow()
+                ? nextExpiryTable.getTimestampAsSqlTimestamp("NEXT_EXPIRY")
+                : null;
+        return new VoltRenewalBatch(msisdns, nextExpiry);
+    }
+
+    static VoltPackage voltPackage(VoltTable responseTable) {
+        if (responseTable.advanceRow()) {
+            return new VoltPackage(
+                    (int) responseTable.getLong("PACKAGE_ID"),
+                    responseTable.getString("PACKAGE_NAME"),
+                    responseTable.getDouble("PRICE"),
+                    (int) responseTable.getLong("AMOUNT_MINUTES"),
+                    (int) responseTable.getLong("AMOUNT_DATA"),
+                    (int) responseTable.getLong("AMOUNT_SMS"),
+                    (int) responseTable.getLong("PERIOD")
+            );
+        }
+        throw new RuntimeException("Error while getting package by Msisdn");
+    }
+
+    static Optional<VoltCustomer> customer(VoltTable resultTable, String msisdn) {
+        if (!resultTable.advanceRow()) {
+            return Optional.empty();
+        }
+        return Optional.of(VoltCustomer.builder()
+                .customerId((int) resultTable.getLong("CUST_ID"))
+                .msisdn(msisdn)
+                .email(resultTable.getString("EMAIL"))
+                .name(resultTable.getString("NAME"))
+                .surname(resultTable.getString("SURNAME"))
+                .sDate(resultTable.getTimestampAsSqlTimestamp("SDATE"))
+                .TCNumber(resultTable.getString("TC_NO"))
+                .build());
+    }
+
+    static VoltCustomerBalance customerBalance(VoltTable resultTable, String msisdn) {
+        if (resultTable.advanceRow()) {
+            return VoltCustomerBalance.builder()
+                    .msisdn(resultTable.getString("MSISDN"))
+                    .balanceData((int) resultTable.getLong("BAL_LVL_DATA"))
+                    .balanceMinutes((int) resultTable.getLong("BAL_LVL_MINUTES"))
+                    .balanceSms((int) resultTable.getLong("BAL_LVL_SMS"))
+                    .sdate(resultTable.getTimestampAsSqlTimestamp("SDATE"))
+                    .edate(resultTable.getTimestampAsSqlTimestamp("EDATE"))
+                    .build();
+        }
+        throw new RuntimeException("Customer balance not found for msisdn: " + msisdn);
+    }
+
+    static VoltPackageDetails packageDetails(VoltTable resultTable, int packageId) {
+        if (resultTable.advanceRow()) {
+            return packageDetailsRow(resultTable);
+        }
+        throw new RuntimeException("Package not found with ID: " + packageId);
+    }
+
+    /**
+     * Package definitions by package ID, one per row.
+     */
+    static Map<Integer, VoltPackageDetails> allPackageDetails(VoltTable resultTable) {
+        Map<Integer, VoltPackageDetails> packages = new HashMap<>();
+        while (resultTable.advanceRow()) {
+            packages.put((int) resultTable.getLong("PACKAGE_ID"), packageDetailsRow(resultTable));
+        }
+        return packages;
+    }
+
+    private static VoltPackageDetails packageDetailsRow(VoltTable resultTable) {
+        return new VoltPackageDetails(
+                (int) resultTable.getLong("PERIOD"),
+                (int) resultTable.getLong("AMOUNT_MINUTES"),
+                (int) resultTable.getLong("AMOUNT_SMS"),
+                (int) resultTable.getLong("AMOUNT_DATA"));
+    }
+
+    static UserDetails userDetails(VoltTable resultTable) {
+        if (resultTable.advanceRow()) {
+            return userDetailsRow(resultTable);
+        }
+        throw new RuntimeException("No data returned from procedure");
+    }
+
+    /**
+     * Subscriber details by MSISDN, one per row.
+     */
+    static Map<String, UserDetails> userDetailsByMsisdn(VoltTable resultTable) {
+        Map<String, UserDetails> subscribers = new HashMap<>(resultTable.getRowCount() * 2);
+        while (resultTable.advanceRow()) {
+            subscribers.put(resultTable.getString("MSISDN"), userDetailsRow(resultTable));
+        }
+        return subscribers;
+    }
+
+    static VoltSubscriberSnapshot subscriberSnapshot(VoltTable resultTable, String msisdn) {
+        if (resultTable.advanceRow()) {
+            return VoltSubscriberSnapshot.builder()
+                    .msisdn(resultTable.getString("MSISDN"))
+                    .name(resultTable.getString("NAME"))
+                    .surname(resultTable.getString("SURNAME"))
+                    .email(resultTable.getString("EMAIL"))
+                    .packageId((int) resultTable.getLong("PACKAGE_ID"))
+                    .balanceMinutes((int) resultTable.getLong("BAL_LVL_MINUTES"))
+                    .balanceSms((int) resultTable.getLong("BAL_LVL_SMS"))
+                    .balanceData((int) resultTable.getLong("BAL_LVL_DATA"))
+                    .amountMinutes((int) resultTable.getLong("AMOUNT_MINUTES"))
+                    .amountSms((int) resultTable.getLong("AMOUNT_SMS"))
+                    .amountData((int) resultTable.getLong("AMOUNT_DATA"))
+                    .period((int) resultTable.getLong("PERIOD"))
+                    .sdate(resultTable.getTimestampAsSqlTimestamp("SDATE"))
+                    .edate(resultTable.getTimestampAsSqlTimestamp("EDATE"))
+                    .build();
+        }
+        throw new RuntimeException("Subscriber not found for msisdn: " + msisdn);
+    }
+
+    private static UserDetails userDetailsRow(VoltTable resultTable) {
+        return new UserDetails(
+                resultTable.getString("NAME"),
+                resultTable.getString("SURNAME"),
+                resultTable.getString("EMAIL"),
+                (int) resultTable.getLong("PACKAGE_ID"));
+    }
+}
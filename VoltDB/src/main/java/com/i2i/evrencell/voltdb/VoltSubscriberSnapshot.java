@@ -0,0 +1,36 @@
+package com.i2i.evrencell.voltdb;
+
+import lombok.Builder;
+
+import java.sql.Timestamp;
+
+/**
+ * What CHF needs to know about one subscriber, read by GET_SUBSCRIBER_SNAPSHOT_BY_MSISDN in one call:
+ * contact details, package, remaining balances and the current balance period.
+ */
+@Builder
+public record VoltSubscriberSnapshot(
+        String msisdn,
+        String name,
+        String surname,
+        String email,
+        int packageId,
+        int balanceMinutes,
+        int balanceSms,
+        int balanceData,
+        int amountMinutes,
+        int amountSms,
+        int amountData,
+        int period,
+        Timestamp sdate,
+        Timestamp edate
+) {
+
+    public UserDetails userDetails() {
+        return new UserDetails(name, surname, email, packageId);
+    }
+
+    public VoltPackageDetails packageDetails() {
+        return new VoltPackageDetails(period, amountMinutes, amountSms, amountData);
+    }
+}
@@ -1,49 +1,26 @@
 package com.i2i.evrencell.voltdb;
 
+import com.i2i.evrencell.voltdb.procedures.DebitBalanceByMsisdn;
+import com.i2i.evrencell.voltdb.procedures.RefundBalancesByMsisdn;
 import org.apache.log4j.Logger;
 import org.voltdb.VoltTable;
 import org.voltdb.client.*;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class VoltdbOperator {
 
     private static final Logger logger = Logger.getLogger(VoltdbOperator.class);
 
-    private final String ip;
-    private final int port;
-    private Client client;
+    private final SharedVoltClient.Lease lease;
+    private final Client client;
 
     public VoltdbOperator() {
-        // "34.132.46.242" 32803 usa
-        // "35.234.92.15"  32776 de
-        this.ip = "localhost";
-        this.port = 32769;
-        initializeClient();
-    }
-
-    private void initializeClient() {
-        try {
-            this.client = getClient();
-        } catch (IOException e) {
-            logger.error("Error while creating VoltDB client", e);
-            throw new RuntimeException("Error while creating VoltDB client", e);
-        }
-    }
-
-    private Client getClient() throws IOException {
-        ClientConfig clientConfig = new ClientConfig();
-        Client client = ClientFactory.createClient(clientConfig);
-
-        try {
-            client.createConnection(ip + ":" + port);
-        } catch (IOException e) {
-            logger.error("Error while creating connection to VoltDB server", e);
-            throw new IOException("Error while creating connection to VoltDB server", e);
-        }
-
-        return client;
+        this.lease = SharedVoltClient.lease(this);
+        this.client = lease.client();
     }
 
     public int getPackageDataBalance(String msisdn){
@@ -125,13 +102,121 @@ public class VoltdbOperator {
         handleProcedure("UPDATE_CUSTOMER_AMOUNT_SMS_BY_MSISDN", smsUsage, msisdn);
     }
 
+    public VoltDebitResult debitDataBalance(int usage, String msisdn) {
+        return handleDebitProcedure(DebitBalanceByMsisdn.DATA, usage, msisdn);
+    }
+
+    public VoltDebitResult debitVoiceBalance(int usage, String msisdn) {
+        return handleDebitProcedure(DebitBalanceByMsisdn.VOICE, usage, msisdn);
+    }
+
+    public VoltDebitResult debitSmsBalance(int usage, String msisdn) {
+        return handleDebitProcedure(DebitBalanceByMsisdn.SMS, usage, msisdn);
+    }
+
+    /**
+     * Reserves up to {@code amount} units for a quota grant in one ReserveBalanceByMsisdn call. The
+     * reservation is recorded with the balance for {@code holdMillis}, {@code used} units of the earlier
+     * ones were charged.
+     *
+     * @return null when the MSISDN has no balance
+     */
+    public VoltDebitResult reserveBalance(String balanceType, String msisdn, int amount, int used, long holdMillis) {
+        String procedureName = "ReserveBalanceByMsisdn";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, msisdn, balanceType, amount, used, holdMillis);
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return VoltResults.debitResult(response.getResults()[0]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Returns unused reserved units in one RefundBalancesByMsisdn call, each entry only into the balance
+     * period {@code periodStarts[i]} it was reserved from. {@code used[i]} units of the reservation were
+     * charged and stay off the balance.
+     *
+     * @return number of balances that were refunded
+     */
+    public long refundBalances(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        String procedureName = "RefundBalancesByMsisdn";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, msisdns, balanceTypes, amounts, used,
+                    RefundBalancesByMsisdn.periodStarts(periodStarts));
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return response.getResults()[0].asScalarLong();
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Debits a batch in one DebitBalancesByMsisdn call. The result has one entry per request, null when
+     * the MSISDN has no balance.
+     */
+    public List<VoltDebitResult> debitBalances(String[] msisdns, String[] balanceTypes, int[] usages) {
+        String procedureName = "DebitBalancesByMsisdn";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, msisdns, balanceTypes, usages);
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return VoltResults.debitResults(response.getResults()[0]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Renews up to {@code limit} balances whose period has ended in one RenewExpiredBalances call.
+     */
+    public VoltRenewalBatch renewExpiredBalances(int limit) {
+        String procedureName = "RenewExpiredBalances";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, limit);
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return VoltResults.renewalBatch(response.getResults()[0], response.getResults()[1]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Gives back up to {@code limit} reservations whose hold has ended in one ReclaimExpiredReservations
+     * call.
+     *
+     * @return number of balances whose reservations were given back
+     */
+    public long reclaimExpiredReservations(int limit) {
+        String procedureName = "ReclaimExpiredReservations";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, limit);
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return response.getResults()[0].asScalarLong();
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
     public void updatePassword(String email, String tcNumber, String encryptedPassword) throws
             IOException,
             ProcCallException,
             InterruptedException {
-        Client client1 = getClient();
-        client1.callProcedure("UPDATE_CUSTOMER_PASSWORD", encryptedPassword, email, tcNumber);
-        client1.close();
+        client.callProcedure("UPDATE_CUSTOMER_PASSWORD", encryptedPassword, email, tcNumber);
 
     }
 
@@ -141,22 +226,8 @@ public class VoltdbOperator {
 
     public VoltPackage getPackageByMsisdn(String msisdn) {
         try {
-            Client client1 = getClient();
-            ClientResponse response = client1.callProcedure("GET_PACKAGE_INFO_BY_MSISDN", msisdn);
-            VoltTable responseTable = response.getResults()[0];
-            if (responseTable.advanceRow()) {
-                return new VoltPackage(
-                        (int) responseTable.getLong("PACKAGE_ID"),
-                        responseTable.getString("PACKAGE_NAME"),
-                        responseTable.getDouble("PRICE"),
-                        (int) responseTable.getLong("AMOUNT_MINUTES"),
-                        (int) responseTable.getLong("AMOUNT_DATA"),
-                        (int) responseTable.getLong("AMOUNT_SMS"),
-                        (int) responseTable.getLong("PERIOD")
-                );
-            } else {
-                throw new RuntimeException("Error while getting package by Msisdn");
-            }
+            ClientResponse response = client.callProcedure("GET_PACKAGE_INFO_BY_MSISDN", msisdn);
+            return VoltResults.voltPackage(response.getResults()[0]);
         }catch (IOException | ProcCallException e) {
             logger.error("Error while calling procedure: GET_PACKAGE_INFO_BY_MSISDN", e);
             throw new RuntimeException("Error while calling procedure: GET_PACKAGE_INFO_BY_MSISDN", e);
@@ -164,82 +235,31 @@ public class VoltdbOperator {
     }
 
     public Optional<VoltCustomer> getCustomerByMsisdn(String msisdn) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
-        ClientResponse response = client1.callProcedure("GET_CUSTOMER_INFO_BY_MSISDN", msisdn);
+        ClientResponse response = client.callProcedure("GET_CUSTOMER_INFO_BY_MSISDN", msisdn);
 
         if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                Integer customerId = (int) resultTable.getLong("CUST_ID");
-                String name = resultTable.getString("NAME");
-                String surname = resultTable.getString("SURNAME");
-                String email = resultTable.getString("EMAIL");
-                Timestamp sdate = (resultTable.getTimestampAsSqlTimestamp("SDATE"));
-                String tcNo = resultTable.getString("TC_NO");
-
-                VoltCustomer customer = VoltCustomer.builder()
-                        .customerId(customerId)
-                        .msisdn(msisdn)
-                        .email(email)
-                        .name(name)
-                        .surname(surname)
-                        .sDate(sdate)
-                        .TCNumber(tcNo)
-                        .build();
-
-                client1.close();
-                return Optional.of(customer);
+            Optional<VoltCustomer> customer = VoltResults.customer(response.getResults()[0], msisdn);
+            if (customer.isPresent()) {
+                return customer;
             }
         }
-        client1.close();
         throw new RuntimeException("Customer not found with this MSISDN: " + msisdn);
     }
 
     public VoltCustomerBalance getRemainingCustomerBalanceByMsisdn(String msisdn) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
-        ClientResponse response = client1.callProcedure("GET_REMAINING_CUSTOMER_BALANCE_BY_MSISDN", msisdn);
+        ClientResponse response = client.callProcedure("GET_REMAINING_CUSTOMER_BALANCE_BY_MSISDN", msisdn);
 
         if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                String msisdnResult = resultTable.getString("MSISDN");
-                int balanceData = (int) resultTable.getLong("BAL_LVL_DATA");
-                int balanceSms = (int) resultTable.getLong("BAL_LVL_SMS");
-                int balanceMinutes = (int) resultTable.getLong("BAL_LVL_MINUTES");
-                Timestamp sdate = resultTable.getTimestampAsSqlTimestamp("SDATE");
-                Timestamp edate = resultTable.getTimestampAsSqlTimestamp("EDATE");
-
-                VoltCustomerBalance balanceResponse = VoltCustomerBalance.builder()
-                        .msisdn(msisdnResult)
-                        .balanceData(balanceData)
-                        .balanceMinutes(balanceMinutes)
-                        .balanceSms(balanceSms)
-                        .sdate(sdate)
-                        .edate(edate)
-                        .build();
-
-                client1.close();
-                return balanceResponse;
-            }
+            return VoltResults.customerBalance(response.getResults()[0], msisdn);
         }
-        client1.close();
         throw new RuntimeException("Customer balance not found for msisdn: " + msisdn);
     }
 
     public VoltPackageDetails getPackageInfoByPackageId(int packageId) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
         ClientResponse response = client.callProcedure("GET_PACKAGE_INFO_BY_PACKAGE_ID", packageId);
         if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                int period = (int) resultTable.getLong("PERIOD");
-                int amountMinutes = (int) resultTable.getLong("AMOUNT_MINUTES");
-                int amountSms = (int) resultTable.getLong("AMOUNT_SMS");
-                int amountData = (int) resultTable.getLong("AMOUNT_DATA");
-                return new VoltPackageDetails(period, amountMinutes, amountSms, amountData);
-            }
+            return VoltResults.packageDetails(response.getResults()[0], packageId);
         }
-        client1.close();
         throw new RuntimeException("Package not found with ID: " + packageId);
     }
 
@@ -248,23 +268,56 @@ public class VoltdbOperator {
     public UserDetails getUserDetails(String msisdn) {
         try {
             ClientResponse response = client.callProcedure("GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", msisdn);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return new UserDetails(
-                        resultTable.getString("NAME"),
-                        resultTable.getString("SURNAME"),
-                        resultTable.getString("EMAIL"),
-                        (int) resultTable.getLong("PACKAGE_ID")
-                );
-            } else {
-                throw new RuntimeException("No data returned from procedure");
-            }
+            return VoltResults.userDetails(response.getResults()[0]);
         } catch (IOException | ProcCallException e) {
             logger.error("Error while calling procedure: GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", e);
             throw new RuntimeException("Error while calling procedure: GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", e);
         }
     }
 
+    /**
+     * Contact details, package, remaining balances and balance period of the subscriber, in one
+     * GET_SUBSCRIBER_SNAPSHOT_BY_MSISDN call.
+     */
+    public VoltSubscriberSnapshot getSubscriberSnapshot(String msisdn) {
+        String procedureName = "GET_SUBSCRIBER_SNAPSHOT_BY_MSISDN";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, msisdn);
+            return VoltResults.subscriberSnapshot(response.getResults()[0], msisdn);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Every package definition by package ID, in one GET_ALL_PACKAGE_DETAILS call.
+     */
+    public Map<Integer, VoltPackageDetails> getAllPackageDetails() {
+        String procedureName = "GET_ALL_PACKAGE_DETAILS";
+        try {
+            ClientResponse response = client.callProcedure(procedureName);
+            return VoltResults.allPackageDetails(response.getResults()[0]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
+    /**
+     * Subscriber details by MSISDN for the customers with {@code fromCustId <= CUST_ID < toCustId}.
+     */
+    public Map<String, UserDetails> getUserDetailsByCustomerIdRange(int fromCustId, int toCustId) {
+        String procedureName = "GET_CUSTOMER_INFO_PACKAGE_BY_CUST_ID_RANGE";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, fromCustId, toCustId);
+            return VoltResults.userDetailsByMsisdn(response.getResults()[0]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
     private  int handleProcedureAsInt(String procedureName) {
         try {
             ClientResponse response = client.callProcedure(procedureName);
@@ -338,6 +391,20 @@ public class VoltdbOperator {
         }
     }
 
+    private VoltDebitResult handleDebitProcedure(String balanceType, int usage, String msisdn) {
+        String procedureName = "DebitBalanceByMsisdn";
+        try {
+            ClientResponse response = client.callProcedure(procedureName, msisdn, balanceType, usage);
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+            }
+            return VoltResults.debitResult(response.getResults()[0]);
+        } catch (IOException | ProcCallException e) {
+            logger.error("Error while calling procedure: " + procedureName, e);
+            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
+        }
+    }
+
 
     /*private void handleProcedureChangePassword(String password, String email, String tc_no) {
         try {
@@ -411,15 +478,11 @@ public class VoltdbOperator {
 
 
 
+    /**
+     * Gives back the lease of the shared client, which is closed once no operator uses it.
+     */
     public void close() {
-        if (client != null) {
-            try {
-                client.close();
-            } catch (InterruptedException e) {
-                logger.error("Error while closing VoltDB client", e);
-                Thread.currentThread().interrupt();
-            }
-        }
+        lease.close();
     }
 
     public String getName(String msisdn) {
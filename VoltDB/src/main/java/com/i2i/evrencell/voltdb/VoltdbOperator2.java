@@ -1,758 +1,369 @@
 package com.i2i.evrencell.voltdb;
 
+import com.i2i.evrencell.voltdb.procedures.DebitBalanceByMsisdn;
+import com.i2i.evrencell.voltdb.procedures.RefundBalancesByMsisdn;
 import org.apache.log4j.Logger;
-import org.voltdb.VoltTable;
-import org.voltdb.client.*;
+import org.voltdb.client.BatchTimeoutOverrideType;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.function.Consumer;
-
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Asynchronous counterpart of {@link VoltdbOperator}: every procedure is called without blocking and
+ * returns a {@link CompletableFuture} of the same domain object. The futures are completed on the
+ * client's callback thread, so dependent stages that run there must not make blocking VoltDB calls.
+ *
+ * <p>Calls waiting for a response are capped in total and, where configured, per procedure. A call over
+ * a cap fails right away with {@link VoltCallRejectedException} instead of queueing in the client. Every
+ * call fails with a {@link java.util.concurrent.TimeoutException} when it has no response within the
+ * timeout, see {@link #withTimeout(Duration)} for a different one. Cancelling a future only drops the
+ * result: a call that was sent still runs in VoltDB and counts against the caps until it answers.
+ *
+ * <p>Settings in config.properties: voltdb.async.max-in-flight, voltdb.async.timeout-ms and
+ * voltdb.async.max-in-flight.PROCEDURE_NAME for a procedure cap.
+ */
 public class VoltdbOperator2 {
 
     private static final Logger logger = Logger.getLogger(VoltdbOperator2.class);
 
-    private final String ip;
-    private final int port;
-    private Client client;
-
-    public VoltdbOperator2() {
-        // "34.132.46.242" 32803 usa
-        // "35.234.92.15"  32776 de
-        this.ip = "localhost";
-        this.port = 32769;
-        initializeClient();
-    }
+    private static final String PROCEDURE_LIMIT_PREFIX = "voltdb.async.max-in-flight.";
 
-    private void initializeClient() {
-        try {
-            this.client = getClient();
-        } catch (IOException e) {
-            logger.error("Error while creating VoltDB client", e);
-            throw new RuntimeException("Error while creating VoltDB client", e);
-        }
-    }
+    private final SharedVoltClient.Lease lease;
+    // the operator a timeout view was made from, kept reachable so its lease is not released
+    private final VoltdbOperator2 owner;
+    private final Client client;
+    private final InFlightLimits limits;
+    private final LongAdder rejected;
+    private final long timeoutMillis;
 
-    private Client getClient() throws IOException {
-        ClientConfig clientConfig = new ClientConfig();
-        clientConfig.setProcedureCallTimeout(0);
-        Client client = ClientFactory.createClient(clientConfig);
-
-        try {
-            client.createConnection(ip + ":" + port);
-        } catch (IOException e) {
-            logger.error("Error while creating connection to VoltDB server", e);
-            throw new IOException("Error while creating connection to VoltDB server", e);
+    public VoltdbOperator2() {
+        this(SharedVoltClient.loadProperties());
+    }
+
+    private VoltdbOperator2(Properties properties) {
+        this(Integer.parseInt(SharedVoltClient.setting(properties, "voltdb.async.max-in-flight", "VOLTDB_ASYNC_MAX_IN_FLIGHT")),
+                procedureLimits(properties),
+                Duration.ofMillis(Long.parseLong(SharedVoltClient.setting(properties, "voltdb.async.timeout-ms", "VOLTDB_ASYNC_TIMEOUT_MS"))));
+    }
+
+    /**
+     * @param maxInFlight     calls waiting for a response, over all procedures
+     * @param procedureLimits calls waiting for a response by procedure name, for the procedures that
+     *                        need a lower cap
+     * @param timeout         how long a call may wait for its response
+     */
+    public VoltdbOperator2(int maxInFlight, Map<String, Integer> procedureLimits, Duration timeout) {
+        this.lease = SharedVoltClient.lease(this);
+        this.owner = null;
+        this.client = lease.client();
+        this.limits = new InFlightLimits(maxInFlight, procedureLimits);
+        this.rejected = new LongAdder();
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    private VoltdbOperator2(VoltdbOperator2 operator, Duration timeout) {
+        this.lease = null;
+        this.owner = operator.owner != null ? operator.owner : operator;
+        this.client = operator.client;
+        this.limits = operator.limits;
+        this.rejected = operator.rejected;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * @return an operator whose calls time out after {@code timeout}, sharing the client and the caps of
+     * this one. Closing it does nothing, close this one instead.
+     */
+    public VoltdbOperator2 withTimeout(Duration timeout) {
+        return new VoltdbOperator2(this, timeout);
+    }
+
+    private static Map<String, Integer> procedureLimits(Properties properties) {
+        Map<String, Integer> limits = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PROCEDURE_LIMIT_PREFIX)) {
+                limits.put(key.substring(PROCEDURE_LIMIT_PREFIX.length()), Integer.parseInt(properties.getProperty(key).trim()));
+            }
         }
-
-        return client;
+        return limits;
     }
 
-    public void getPackageDataBalance(String msisdn) {
-        getBalance("GET_CUSTOMER_PACKAGE_DATA_BY_MSISDN", msisdn);
+    public CompletableFuture<Integer> getPackageDataBalance(String msisdn) {
+        return call("GET_CUSTOMER_PACKAGE_DATA_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
-    public void getPackageVoiceBalance(String msisdn) {
-        getBalance("GET_CUSTOMER_PACKAGE_MINUTES_BY_MSISDN", msisdn);
+    public CompletableFuture<Integer> getPackageVoiceBalance(String msisdn) {
+        return call("GET_CUSTOMER_PACKAGE_MINUTES_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
-    public void getPackageSmsBalance(String msisdn) {
-        getBalance("GET_CUSTOMER_PACKAGE_SMS_BY_MSISDN", msisdn);
+    public CompletableFuture<Integer> getPackageSmsBalance(String msisdn) {
+        return call("GET_CUSTOMER_PACKAGE_SMS_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
     public CompletableFuture<Integer> getDataBalance(String msisdn) {
-        return getBalance("GET_CUSTOMER_REMAINING_DATA_BY_MSISDN", msisdn);
+        return call("GET_CUSTOMER_REMAINING_DATA_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
-    public void getVoiceBalance(String msisdn) {
-        getBalance("GET_CUSTOMER_REMAINING_MINUTES_BY_MSISDN", msisdn);
+    public CompletableFuture<Integer> getVoiceBalance(String msisdn) {
+        return call("GET_CUSTOMER_REMAINING_MINUTES_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
-    public void getSmsBalance(String msisdn) {
-        getBalance("GET_CUSTOMER_REMAINING_SMS_BY_MSISDN", msisdn);
+    public CompletableFuture<Integer> getSmsBalance(String msisdn) {
+        return call("GET_CUSTOMER_REMAINING_SMS_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
 
-
-    public CompletableFuture<Integer> getBalance(String procName, String msisdn) {
-        CompletableFuture<Integer> future = new CompletableFuture<>();
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {
-                            int remainingMinutes = (int) resultTable.getLong(0);
-                            future.complete(remainingMinutes);
-                        } else {
-                            future.completeExceptionally(new RuntimeException("Sonuçlar boş veya geçersiz."));
-                        }
-                    } else {
-                        future.completeExceptionally(new RuntimeException("Çağrıda hata: " + response.getStatusString()));
-                    }
-                }
-            }, procName, msisdn);
-        } catch (IOException e) {
-            future.completeExceptionally(new RuntimeException("Prosedür çağrısında hata: " + e.getMessage()));
-        }
-        return future;
+    public CompletableFuture<Integer> getMaxCustomerId() {
+        return call("GET_MAX_CUSTOMER_ID", response -> VoltResults.firstInt(response.getResults()[0]));
     }
 
-    // Asenkron veri güncelleme
-    public CompletableFuture<Integer> updateDataBalance(String procName, int usage, String msisdn) {
-        CompletableFuture<Integer> future = new CompletableFuture<>();
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        future.complete(usage); // Başarılı güncelleme sonrası kullanılacak değeri döndür
-                    } else {
-                        future.completeExceptionally(new RuntimeException("Procedure call failed: " + response.getStatusString()));
-                    }
-                }
-            }, procName, usage, msisdn);
-        } catch (IOException e) {
-            future.completeExceptionally(new RuntimeException("Error while calling procedure: " + e.getMessage()));
-        }
-        return future;
+    public CompletableFuture<Integer> getMaxBalanceId() {
+        return call("GET_MAX_BALANCE_ID", response -> VoltResults.firstInt(response.getResults()[0]));
     }
 
-
-    public void updateDataBalance(int dataUsage, String msisdn) {
-        updateProcedureAsync("UPDATE_CUSTOMER_AMOUNT_DATA_BY_MSISDN", dataUsage, msisdn);
+    public CompletableFuture<Integer> getPackageIdByName(String packageName) {
+        return call("GET_PACKAGE_ID_BY_PACKAGE_NAME", response -> VoltResults.firstInt(response.getResults()[0]), packageName);
     }
 
-/*
-    public int updateDataBalance(int usage, String msisdn) {
-        // Asenkron olarak güncellemeyi başlat
-        CompletableFuture<Integer> future = updateBalance("UPDATE_CUSTOMER_AMOUNT_DATA_BY_MSISDN", usage, msisdn);
-
-        try {
-            // Asenkron işlemin tamamlanmasını bekle ve sonucu döndür
-            return future.get(); // get() metodu, işlemin tamamlanmasını bekler ve sonucu döndürür
-        } catch (InterruptedException | ExecutionException e) {
-            // Hata durumunda uygun bir değer döndürün veya bir hata işleyici ekleyin
-            System.err.println("Güncelleme işlemi sırasında hata: " + e.getMessage());
-            throw new RuntimeException("Güncelleme işlemi sırasında hata", e);
-        }
+    public CompletableFuture<Integer> getCustomerIdByEmailAndTc(String email, String tcNo) {
+        return call("GET_CUSTOMER_ID_BY_MAIL_AND_TCNO", response -> VoltResults.firstInt(response.getResults()[0]), email, tcNo);
     }
 
-    */
-
-    private CompletableFuture<Integer> updateBalance(String procName, int usage, String msisdn) {
-        CompletableFuture<Integer> future = new CompletableFuture<>();
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        // Başarılı olursa yapılacak işlemler
-                        future.complete(usage); // Veya burada response ile elde edilen sonuç döndürülebilir
-                    } else {
-                        // Hata durumunda yapılacak işlemler
-                        future.completeExceptionally(new RuntimeException("Procedure call failed: " + response.getStatusString()));
-                    }
-                }
-            }, procName, usage, msisdn);
-        } catch (IOException e) {
-            // Prosedür çağrısında hata durumunda yapılacak işlemler
-            future.completeExceptionally(e);
-        }
-        return future;
+    public CompletableFuture<String> getPackageName(String msisdn) {
+        return call("GET_PACKAGE_NAME_BY_MSISDN", response -> VoltResults.firstString(response.getResults()[0]), msisdn);
     }
 
-
-    public void updateVoiceBalance(int voiceUsage, String msisdn) {
-        updateProcedureAsync("UPDATE_CUSTOMER_AMOUNT_MINUTES_BY_MSISDN", voiceUsage, msisdn);
+    public CompletableFuture<String> getCustomerPassword(String msisdn) {
+        return call("GET_CUSTOMER_PASSWORD_BY_MSISDN", response -> VoltResults.firstString(response.getResults()[0]), msisdn);
     }
 
-    public void updateSmsBalance(int smsUsage, String msisdn) {
-        updateProcedureAsync("UPDATE_CUSTOMER_AMOUNT_SMS_BY_MSISDN", smsUsage, msisdn);
+    public CompletableFuture<Integer> checkCustomerExists(String email, String tcNo) {
+        return call("CHECK_CUSTOMER_EXISTS_BY_MAIL_AND_TCNO", response -> VoltResults.firstInt(response.getResults()[0]), email, tcNo);
     }
 
-/*
-    public int updateDataBalance(int usage, String msisdn) {
-        return updateBalance("UPDATE_CUSTOMER_AMOUNT_DATA_BY_MSISDN", usage, msisdn);
+    public CompletableFuture<String> getNameByMsisdn(String msisdn) {
+        return call("GET_CUSTOMER_NAME_BY_MSISDN", response -> VoltResults.firstString(response.getResults()[0]), msisdn);
     }
 
-*/
-
- /*   public void getBalance(String procName, String msisdn, Consumer<Integer> onSuccess) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {
-                            int remainingMinutes = (int) resultTable.getLong(0);
-                            // Callback fonksiyonu kullanarak sonucu işleyin
-                            onSuccess.accept(remainingMinutes);
-                        } else {
-                            System.err.println("Sonuçlar boş veya geçersiz.");
-                        }
-                    } else {
-                        System.err.println("Çağrıda hata: " + response.getStatusString());
-                    }
-                }
-            }, procName, msisdn);
-        } catch (IOException e) {
-            System.err.println("Prosedür çağrısında hata: " + e.getMessage());
-        }
+    public CompletableFuture<String> getLastNameByMsisdn(String msisdn) {
+        return call("GET_CUSTOMER_SURNAME_BY_MSISDN", response -> VoltResults.firstString(response.getResults()[0]), msisdn);
     }
-*/
 
-    public void getString(String procName, String msisdn, Consumer<String> onSuccess) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {
-                            String String = (String) resultTable.getString(0);
-                            // Callback fonksiyonu kullanarak sonucu işleyin
-                            onSuccess.accept(String);
-                        } else {
-                            System.err.println("Sonuçlar boş veya geçersiz.");
-                        }
-                    } else {
-                        System.err.println("Çağrıda hata: " + response.getStatusString());
-                    }
-                }
-            }, procName, msisdn);
-        } catch (IOException e) {
-            System.err.println("Prosedür çağrısında hata: " + e.getMessage());
-        }
+    public CompletableFuture<String> getEmailByMsisdn(String msisdn) {
+        return call("GET_CUSTOMER_EMAIL_BY_MSISDN", response -> VoltResults.firstString(response.getResults()[0]), msisdn);
     }
 
-/*
-    public CompletableFuture<Integer> updateBalance(String procName, int usage, String msisdn) {
-        CompletableFuture<Integer> future = new CompletableFuture<>();
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        // Başarılı olursa yapılacak işlemler
-                        future.complete(usage); // veya response ile elde edilen sonuç
-                    } else {
-                        // Hata durumunda yapılacak işlemler
-                        future.completeExceptionally(new RuntimeException("Procedure call failed: " + response.getStatusString()));
-                    }
-                }
-            }, procName, usage, msisdn);
-        } catch (IOException e) {
-            // Prosedür çağrısında hata durumunda yapılacak işlemler
-            future.completeExceptionally(e);
-        }
-        return future;
+    public CompletableFuture<Integer> getPackageIdByMsisdn(String msisdn) {
+        return call("GET_PACKAGE_ID_BY_MSISDN", response -> VoltResults.firstInt(response.getResults()[0]), msisdn);
     }
-*/
-
-
-    /*public void updateBalance(String procName, int usage, String msisdn, Runnable onSuccess, Consumer<Exception> onError) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        // Başarılı olursa yapılacak işlemler
-                        if (onSuccess != null) {
-                            onSuccess.run();
-                        }
-                    } else {
-                        // Hata durumunda yapılacak işlemler
-                        if (onError != null) {
-                            onError.accept(new RuntimeException("Procedure call failed: " + response.getStatusString()));
-                        }
-                    }
-                }
-            }, procName, usage, msisdn);
-        } catch (IOException e) {
-            // Prosedür çağrısında hata durumunda yapılacak işlemler
-            if (onError != null) {
-                onError.accept(e);
-            }
-        }
-    }*/
 
-
-
-
-
-    public void getNameByMsisdn(String msisdn) {
-        getString("GET_CUSTOMER_NAME_BY_MSISDN", msisdn, string -> {
-            System.out.println("Bilgi: " + string);
-        });
+    public CompletableFuture<Void> insertCustomer(int custId, String name, String surname, String msisdn, String email, String password, Timestamp sdate, String tcNumber) {
+        return call("INSERT_NEW_CUSTOMER", response -> null, custId, name, surname, msisdn, email, password, sdate, tcNumber);
     }
 
-    public void getLastNameByMsisdn(String msisdn) {
-        executeStringAsyncProcedure("GET_CUSTOMER_SURNAME_BY_MSISDN", msisdn);
+    public CompletableFuture<Void> insertBalance(int balanceId, int custId, int packageId, int balLvlMinutes, int balLvlSms, int balLvlData, Timestamp sdate, Timestamp edate) {
+        return call("INSERT_BALANCE_TO_CUSTOMER", response -> null, balanceId, custId, packageId, balLvlMinutes, balLvlSms, balLvlData, sdate, edate);
     }
 
-    public void getEmailByMsisdn(String msisdn) {
-        executeStringAsyncProcedure("GET_CUSTOMER_EMAIL_BY_MSISDN", msisdn);
+    public CompletableFuture<Void> updateDataBalance(int dataUsage, String msisdn) {
+        return call("UPDATE_CUSTOMER_AMOUNT_DATA_BY_MSISDN", response -> null, dataUsage, msisdn);
     }
 
-    public void getPackageIdByMsisdn(String msisdn) {
-        executeIntegerAsyncProcedure("GET_PACKAGE_ID_BY_MSISDN", msisdn);
+    public CompletableFuture<Void> updateVoiceBalance(int voiceUsage, String msisdn) {
+        return call("UPDATE_CUSTOMER_AMOUNT_MINUTES_BY_MSISDN", response -> null, voiceUsage, msisdn);
     }
 
-
-
-    public int getMaxCustomerId() {
-        return handleProcedureAsInt("GET_MAX_CUSTOMER_ID");
+    public CompletableFuture<Void> updateSmsBalance(int smsUsage, String msisdn) {
+        return call("UPDATE_CUSTOMER_AMOUNT_SMS_BY_MSISDN", response -> null, smsUsage, msisdn);
     }
 
-    public int getMaxBalanceId() {
-        return handleProcedureAsInt("GET_MAX_BALANCE_ID");
+    public CompletableFuture<Void> updatePassword(String email, String tcNumber, String encryptedPassword) {
+        return call("UPDATE_CUSTOMER_PASSWORD", response -> null, encryptedPassword, email, tcNumber);
     }
 
-    public int getPackageIdByName(String package_name) {
-        return handleProcedureAsInt2("GET_PACKAGE_ID_BY_PACKAGE_NAME", package_name);
+    public CompletableFuture<VoltDebitResult> debitDataBalance(int usage, String msisdn) {
+        return debitBalance(DebitBalanceByMsisdn.DATA, usage, msisdn);
     }
 
-    public int getCustomerIdByEmailAndTc(String email, String tc_no) {
-        return handleProcedureGetId("GET_CUSTOMER_ID_BY_MAIL_AND_TCNO", email, tc_no);
+    public CompletableFuture<VoltDebitResult> debitVoiceBalance(int usage, String msisdn) {
+        return debitBalance(DebitBalanceByMsisdn.VOICE, usage, msisdn);
     }
 
-
-
-
-    public void getPackageName(String msisdn) {
-        getString("GET_PACKAGE_NAME_BY_MSISDN", msisdn, string -> {
-            System.out.println("Bilgi: " + string);
-        });
+    public CompletableFuture<VoltDebitResult> debitSmsBalance(int usage, String msisdn) {
+        return debitBalance(DebitBalanceByMsisdn.SMS, usage, msisdn);
     }
 
-    public void getCustomerPassword(String msisdn) {
-        getString("GET_CUSTOMER_PASSWORD_BY_MSISDN", msisdn, string -> {
-            System.out.println("Bilgi: " + string);
-        });
+    private CompletableFuture<VoltDebitResult> debitBalance(String balanceType, int usage, String msisdn) {
+        return call("DebitBalanceByMsisdn", response -> VoltResults.debitResult(response.getResults()[0]), msisdn, balanceType, usage);
     }
 
-    public int checkCustomerExists(String email, String tc_no) {
-        return handleProcedureCheck("CHECK_CUSTOMER_EXISTS_BY_MAIL_AND_TCNO", email, tc_no);
+    /**
+     * Calls DebitBalancesByMsisdn, see {@link VoltdbOperator#debitBalances}.
+     */
+    public CompletableFuture<List<VoltDebitResult>> debitBalances(String[] msisdns, String[] balanceTypes, int[] usages) {
+        return call("DebitBalancesByMsisdn", response -> VoltResults.debitResults(response.getResults()[0]), msisdns, balanceTypes, usages);
     }
 
-
-    public void insertCustomer(int cust_id, String name, String surname, String msisdn, String email, String password, Timestamp sdate, String TCNumber) {
-        handleProcedureInsertCustomer(cust_id, name, surname, msisdn, email, password, sdate, TCNumber);
+    /**
+     * Calls ReserveBalanceByMsisdn, see {@link VoltdbOperator#reserveBalance}.
+     */
+    public CompletableFuture<VoltDebitResult> reserveBalance(String balanceType, String msisdn, int amount, int used, long holdMillis) {
+        return call("ReserveBalanceByMsisdn", response -> VoltResults.debitResult(response.getResults()[0]), msisdn, balanceType, amount, used, holdMillis);
     }
 
-    public void insertBalance(int balance_id, int cust_id, int package_id, int bal_lvl_minutes, int bal_lvl_sms, int bal_lvl_data, Timestamp sdate, Timestamp edate) {
-        handleProcedureInsertBalance("INSERT_BALANCE_TO_CUSTOMER", balance_id, cust_id, package_id, bal_lvl_minutes, bal_lvl_sms, bal_lvl_data, sdate, edate);
+    /**
+     * Calls RefundBalancesByMsisdn, see {@link VoltdbOperator#refundBalances}.
+     */
+    public CompletableFuture<Long> refundBalances(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, Timestamp[] periodStarts) {
+        return call("RefundBalancesByMsisdn", response -> response.getResults()[0].asScalarLong(), msisdns, balanceTypes, amounts, used,
+                RefundBalancesByMsisdn.periodStarts(periodStarts));
     }
 
-
-
-    public void updatePassword(String email, String tcNumber, String encryptedPassword) throws
-            IOException,
-            ProcCallException,
-            InterruptedException {
-        Client client1 = getClient();
-        client1.callProcedure("UPDATE_CUSTOMER_PASSWORD", encryptedPassword, email, tcNumber);
-        client1.close();
-
+    /**
+     * Calls ReclaimExpiredReservations, see {@link VoltdbOperator#reclaimExpiredReservations}.
+     */
+    public CompletableFuture<Long> reclaimExpiredReservations(int limit) {
+        return call("ReclaimExpiredReservations", response -> response.getResults()[0].asScalarLong(), limit);
     }
 
-
-    public VoltPackage getPackageByMsisdn(String msisdn) {
-        try {
-            Client client1 = getClient();
-            ClientResponse response = client1.callProcedure("GET_PACKAGE_INFO_BY_MSISDN", msisdn);
-            VoltTable responseTable = response.getResults()[0];
-            if (responseTable.advanceRow()) {
-                return new VoltPackage(
-                        (int) responseTable.getLong("PACKAGE_ID"),
-                        responseTable.getString("PACKAGE_NAME"),
-                        responseTable.getDouble("PRICE"),
-                        (int) responseTable.getLong("AMOUNT_MINUTES"),
-                        (int) responseTable.getLong("AMOUNT_DATA"),
-                        (int) responseTable.getLong("AMOUNT_SMS"),
-                        (int) responseTable.getLong("PERIOD")
-                );
-            } else {
-                throw new RuntimeException("Error while getting package by Msisdn");
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: GET_PACKAGE_INFO_BY_MSISDN", e);
-            throw new RuntimeException("Error while calling procedure: GET_PACKAGE_INFO_BY_MSISDN", e);
-        }
+    /**
+     * Calls RenewExpiredBalances, see {@link VoltdbOperator#renewExpiredBalances}.
+     */
+    public CompletableFuture<VoltRenewalBatch> renewExpiredBalances(int limit) {
+        return call("RenewExpiredBalances", response -> VoltResults.renewalBatch(response.getResults()[0], response.getResults()[1]), limit);
     }
 
-    public Optional<VoltCustomer> getCustomerByMsisdn(String msisdn) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
-        ClientResponse response = client1.callProcedure("GET_CUSTOMER_INFO_BY_MSISDN", msisdn);
-
-        if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                Integer customerId = (int) resultTable.getLong("CUST_ID");
-                String name = resultTable.getString("NAME");
-                String surname = resultTable.getString("SURNAME");
-                String email = resultTable.getString("EMAIL");
-                Timestamp sdate = (resultTable.getTimestampAsSqlTimestamp("SDATE"));
-                String tcNo = resultTable.getString("TC_NO");
-
-                VoltCustomer customer = VoltCustomer.builder()
-                        .customerId(customerId)
-                        .msisdn(msisdn)
-                        .email(email)
-                        .name(name)
-                        .surname(surname)
-                        .sDate(sdate)
-                        .TCNumber(tcNo)
-                        .build();
-
-                client1.close();
-                return Optional.of(customer);
-            }
-        }
-        client1.close();
-        throw new RuntimeException("Customer not found with this MSISDN: " + msisdn);
-    }
-
-    public VoltCustomerBalance getRemainingCustomerBalanceByMsisdn(String msisdn) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
-        ClientResponse response = client1.callProcedure("GET_REMAINING_CUSTOMER_BALANCE_BY_MSISDN", msisdn);
-
-        if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                String msisdnResult = resultTable.getString("MSISDN");
-                int balanceData = (int) resultTable.getLong("BAL_LVL_DATA");
-                int balanceSms = (int) resultTable.getLong("BAL_LVL_SMS");
-                int balanceMinutes = (int) resultTable.getLong("BAL_LVL_MINUTES");
-                Timestamp sdate = resultTable.getTimestampAsSqlTimestamp("SDATE");
-                Timestamp edate = resultTable.getTimestampAsSqlTimestamp("EDATE");
-
-                VoltCustomerBalance balanceResponse = VoltCustomerBalance.builder()
-                        .msisdn(msisdnResult)
-                        .balanceData(balanceData)
-                        .balanceMinutes(balanceMinutes)
-                        .balanceSms(balanceSms)
-                        .sdate(sdate)
-                        .edate(edate)
-                        .build();
-
-                client1.close();
-                return balanceResponse;
-            }
-        }
-        client1.close();
-        throw new RuntimeException("Customer balance not found for msisdn: " + msisdn);
-    }
-
-    public VoltPackageDetails getPackageInfoByPackageId(int packageId) throws IOException, ProcCallException, InterruptedException {
-        Client client1 = getClient();
-        ClientResponse response = client.callProcedure("GET_PACKAGE_INFO_BY_PACKAGE_ID", packageId);
-        if (response.getStatus() == ClientResponse.SUCCESS) {
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                int period = (int) resultTable.getLong("PERIOD");
-                int amountMinutes = (int) resultTable.getLong("AMOUNT_MINUTES");
-                int amountSms = (int) resultTable.getLong("AMOUNT_SMS");
-                int amountData = (int) resultTable.getLong("AMOUNT_DATA");
-                return new VoltPackageDetails(period, amountMinutes, amountSms, amountData);
-            }
-        }
-        client1.close();
-        throw new RuntimeException("Package not found with ID: " + packageId);
+    public CompletableFuture<VoltPackage> getPackageByMsisdn(String msisdn) {
+        return call("GET_PACKAGE_INFO_BY_MSISDN", response -> VoltResults.voltPackage(response.getResults()[0]), msisdn);
     }
 
-
-    public UserDetails getUserDetails(String msisdn) {
-        try {
-            ClientResponse response = client.callProcedure("GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", msisdn);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return new UserDetails(
-                        resultTable.getString("NAME"),
-                        resultTable.getString("SURNAME"),
-                        resultTable.getString("EMAIL"),
-                        (int) resultTable.getLong("PACKAGE_ID")
-                );
-            } else {
-                throw new RuntimeException("No data returned from procedure");
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", e);
-            throw new RuntimeException("Error while calling procedure: GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", e);
-        }
+    /**
+     * @return the customer, empty when there is none with this MSISDN
+     */
+    public CompletableFuture<Optional<VoltCustomer>> getCustomerByMsisdn(String msisdn) {
+        return call("GET_CUSTOMER_INFO_BY_MSISDN", response -> VoltResults.customer(response.getResults()[0], msisdn), msisdn);
     }
 
-    public void getUserDetailsAsync(String msisdn, Consumer<UserDetails> onSuccess) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {
-                            UserDetails userDetails = new UserDetails(
-                                    resultTable.getString("NAME"),
-                                    resultTable.getString("SURNAME"),
-                                    resultTable.getString("EMAIL"),
-                                    (int) resultTable.getLong("PACKAGE_ID")
-                            );
-                            // onSuccess kullanarak sonucu işleyin
-                            onSuccess.accept(userDetails);
-                        } else {
-                            System.err.println("No data returned from procedure");
-                        }
-                    } else {
-                        System.err.println("Procedure call failed: " + response.getStatusString());
-                    }
-                }
-            }, "GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", msisdn);
-        } catch (IOException e) {
-            System.err.println("Error while calling procedure: GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN: " + e.getMessage());
-        }
+    public CompletableFuture<VoltCustomerBalance> getRemainingCustomerBalanceByMsisdn(String msisdn) {
+        return call("GET_REMAINING_CUSTOMER_BALANCE_BY_MSISDN", response -> VoltResults.customerBalance(response.getResults()[0], msisdn), msisdn);
     }
 
-
-    private int handleProcedureAsInt(String procedureName) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return (int) resultTable.getLong(0); // Cast long to int
-            } else {
-                throw new RuntimeException("No data returned from procedure");
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
+    public CompletableFuture<VoltPackageDetails> getPackageInfoByPackageId(int packageId) {
+        return call("GET_PACKAGE_INFO_BY_PACKAGE_ID", response -> VoltResults.packageDetails(response.getResults()[0], packageId), packageId);
     }
 
-    private int handleProcedureAsInt(String procedureName, String msisdn) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName, msisdn);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return (int) resultTable.fetchRow(0).get(0); // Cast long to int
-            } else {
-                throw new RuntimeException("No data returned from procedure");
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
+    public CompletableFuture<UserDetails> getUserDetails(String msisdn) {
+        return call("GET_CUSTOMER_INFO_PACKAGE_BY_MSISDN", response -> VoltResults.userDetails(response.getResults()[0]), msisdn);
     }
 
-    private int handleProcedureAsInt2(String procedureName, String package_name) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName, package_name);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return (int) resultTable.getLong(0); // Cast long to int
-            } else {
-                throw new RuntimeException("No data returned from procedure");
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
+    public CompletableFuture<VoltSubscriberSnapshot> getSubscriberSnapshot(String msisdn) {
+        return call("GET_SUBSCRIBER_SNAPSHOT_BY_MSISDN", response -> VoltResults.subscriberSnapshot(response.getResults()[0], msisdn), msisdn);
     }
 
-
-    public void executeStringAsyncProcedure(String procName, String msisdn) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {  // İlk satıra geçiş yapılıyor
-                            String result = resultTable.getString(0);
-                            System.out.println("Sonuç: " + result);
-                        } else {
-                            System.err.println("Sonuçlar boş veya geçersiz.");
-                        }
-                    } else {
-                        System.err.println("Çağrıda hata: " + response.getStatusString());
-                    }
-                }
-            }, procName, msisdn);
-        } catch (IOException e) {
-            System.err.println("Prosedür çağrısında hata: " + e.getMessage());
-        }
+    public CompletableFuture<Map<Integer, VoltPackageDetails>> getAllPackageDetails() {
+        return call("GET_ALL_PACKAGE_DETAILS", response -> VoltResults.allPackageDetails(response.getResults()[0]));
     }
 
-
-    public void executeIntegerAsyncProcedure(String procName, String msisdn) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() == ClientResponse.SUCCESS) {
-                        VoltTable resultTable = response.getResults()[0];
-                        if (resultTable.advanceRow()) {  // İlk satıra geçiş yapılıyor
-                            long result = resultTable.getLong(0);
-                            System.out.println("Sonuç: " + result);
-                        } else {
-                            System.err.println("Sonuçlar boş veya geçersiz.");
-                        }
-                    } else {
-                        System.err.println("Çağrıda hata: " + response.getStatusString());
-                    }
-                }
-            }, procName, msisdn);
-        } catch (IOException e) {
-            System.err.println("Prosedür çağrısında hata: " + e.getMessage());
-        }
+    /**
+     * Subscriber details by MSISDN for the customers with {@code fromCustId <= CUST_ID < toCustId}.
+     */
+    public CompletableFuture<Map<String, UserDetails>> getUserDetailsByCustomerIdRange(int fromCustId, int toCustId) {
+        return call("GET_CUSTOMER_INFO_PACKAGE_BY_CUST_ID_RANGE", response -> VoltResults.userDetailsByMsisdn(response.getResults()[0]), fromCustId, toCustId);
     }
 
-
-
-
-    private void updateProcedureAsync(String procedureName, int usage, String msisdn) {
-        try {
-            client.callProcedure(new ProcedureCallback() {
-                @Override
-                public void clientCallback(ClientResponse response) {
-                    if (response.getStatus() != ClientResponse.SUCCESS) {
-                        // Eğer prosedür çağrısı başarısız olursa hata fırlatıyoruz
-                        System.err.println("Procedure call failed: " + response.getStatusString());
-                    } else {}
-                }
-            }, procedureName, usage, msisdn);
-        } catch (IOException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
+    public CompletableFuture<String> getName(String msisdn) {
+        return getUserDetails(msisdn).thenApply(UserDetails::getName);
     }
 
+    public CompletableFuture<String> getLastName(String msisdn) {
+        return getUserDetails(msisdn).thenApply(UserDetails::getLastName);
+    }
 
-
-    private void handleProcedure(String procedureName, int usage, String msisdn) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName, usage, msisdn);
-            if (response.getStatus() != ClientResponse.SUCCESS) {
-                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
+    public CompletableFuture<String> getUserEmail(String msisdn) {
+        return getUserDetails(msisdn).thenApply(UserDetails::getEmail);
     }
 
+    public CompletableFuture<Integer> getPackageId(String msisdn) {
+        return getUserDetails(msisdn).thenApply(UserDetails::getPackageId);
+    }
 
-    /*private void handleProcedureChangePassword(String password, String email, String tc_no) {
-        try {
-            Client client1 = getClient();
-            ClientResponse response = client1.callProcedure("UPDATE_CUSTOMER_PASSWORD", password, email, tc_no);
-            if (response.getStatus() != ClientResponse.SUCCESS) {
-                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
-            }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + "UPDATE_CUSTOMER_PASSWORD", e);
-            throw new RuntimeException("Error while calling procedure: " + "UPDATE_CUSTOMER_PASSWORD", e);
+    /**
+     * Calls the procedure if the caps allow it. The caps are given back when VoltDB answers, or when the
+     * client gives up on the call, not when the future times out or is cancelled.
+     */
+    private <T> CompletableFuture<T> call(String procedureName, Function<ClientResponse, T> result, Object... parameters) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!limits.tryAcquire(procedureName)) {
+            rejected.increment();
+            future.completeExceptionally(new VoltCallRejectedException(procedureName));
+            return future;
         }
-    }*/
 
-
-    private void handleProcedureInsertCustomer(int cust_id, String name, String surname, String msisdn, String email, String password, Timestamp sdate, String TCNumber) {
-        try {
-            ClientResponse response = client.callProcedure("INSERT_NEW_CUSTOMER", cust_id, name, surname, msisdn, email, password, sdate, TCNumber);
-            if (response.getStatus() != ClientResponse.SUCCESS) {
-                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+        ProcedureCallback callback = response -> {
+            limits.release(procedureName);
+            if (future.isDone()) {
+                return;
             }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + "INSERT_NEW_CUSTOMER", e);
-            throw new RuntimeException("Error while calling procedure: " + "INSERT_NEW_CUSTOMER", e);
-        }
-    }
-
-
-    private void handleProcedureInsertBalance(String procedureName, int balance_id, int cust_id, int package_id, int bal_lvl_minutes, int bal_lvl_sms, int bal_lvl_data, Timestamp sdate, Timestamp edate) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName, balance_id, cust_id, package_id, bal_lvl_minutes, bal_lvl_sms, bal_lvl_data, sdate, edate);
             if (response.getStatus() != ClientResponse.SUCCESS) {
-                throw new RuntimeException("Procedure call failed: " + response.getStatusString());
+                future.completeExceptionally(new RuntimeException("Procedure call failed: " + procedureName + ": " + response.getStatusString()));
+                return;
             }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
-    }
-
-    private int handleProcedureGetId(String procedureName, String email, String tc_no) {
-        try {
-            ClientResponse response = client.callProcedure(procedureName, email, tc_no);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return (int) resultTable.getLong(0); // Cast long to int
-            } else {
-                throw new RuntimeException("No data returned from procedure");
+            try {
+                future.complete(result.apply(response));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
             }
-        } catch (IOException | ProcCallException e) {
-            logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
-    }
+        };
 
-    private int handleProcedureCheck(String procedureName, String email, String tc_no) {
         try {
-            ClientResponse response = client.callProcedure(procedureName, email, tc_no);
-            VoltTable resultTable = response.getResults()[0];
-            if (resultTable.advanceRow()) {
-                return (int) resultTable.getLong(0); // Cast long to int
-            } else {
-                throw new RuntimeException("No data returned from procedure");
+            boolean queued = client.callProcedureWithClientTimeout(callback, BatchTimeoutOverrideType.NO_TIMEOUT,
+                    procedureName, timeoutMillis, TimeUnit.MILLISECONDS, parameters);
+            if (!queued) {
+                limits.release(procedureName);
+                future.completeExceptionally(new RuntimeException("Procedure call was not queued: " + procedureName));
+                return future;
             }
-        } catch (IOException | ProcCallException e) {
+        } catch (IOException e) {
+            limits.release(procedureName);
             logger.error("Error while calling procedure: " + procedureName, e);
-            throw new RuntimeException("Error while calling procedure: " + procedureName, e);
-        }
-    }
-
-
-
-
-    public void close() {
-        if (client != null) {
-            try {
-                client.close();
-            } catch (InterruptedException e) {
-                logger.error("Error while closing VoltDB client", e);
-                Thread.currentThread().interrupt();
-            }
+            future.completeExceptionally(new RuntimeException("Error while calling procedure: " + procedureName, e));
+            return future;
         }
+        return future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
     }
 
-    public void getName(String msisdn, Consumer<String> onSuccess) {
-        getUserDetailsAsync(msisdn, userDetails -> {
-            onSuccess.accept(userDetails.getName());
-        });
-    }
-
-
-    public void getLastName(String msisdn, Consumer<String> onSuccess) {
-        getUserDetailsAsync(msisdn, userDetails -> {
-            onSuccess.accept(userDetails.getLastName());
-        });
+    /**
+     * @return calls sent and waiting for a response
+     */
+    public int getInFlightCount() {
+        return limits.inFlight();
     }
 
-    public void getUserEmail(String msisdn, Consumer<String> onSuccess) {
-        getUserDetailsAsync(msisdn, userDetails -> {
-            onSuccess.accept(userDetails.getEmail());
-        });
+    /**
+     * @return calls not sent because a cap was reached
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
     }
 
-    public void getPackageId(String msisdn, Consumer<Integer> onSuccess) {
-        getUserDetailsAsync(msisdn, userDetails -> {
-            onSuccess.accept(userDetails.getPackageId());
-        });
+    /**
+     * Gives back the lease of the shared client, which is closed once no operator uses it.
+     */
+    public void close() {
+        if (lease != null) {
+            lease.close();
+        }
     }
-
-
-}
\ No newline at end of file
+}
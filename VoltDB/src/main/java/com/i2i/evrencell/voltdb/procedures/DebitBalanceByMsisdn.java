@@ -0,0 +1,122 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Deducts up to {@code usage} units of one balance type from the subscriber's balance
+ * and reports the outcome in a single transaction, so CHF no longer needs a separate
+ * read and write for every charge.
+ *
+ * <p>A balance whose period has ended is renewed to the package amounts first, the same way
+ * {@link RenewExpiredBalances} does, so a charge never sees an expired period while the renewal job is
+ * still working through the expired balances.
+ *
+ * <p>Result columns: GRANTED, REMAINING, PACKAGE_ID, PERIOD_START (SDATE of the balance). The result has
+ * no row when the MSISDN has no balance, like FOUND = 0 in {@link DebitBalancesByMsisdn}.
+ */
+public class DebitBalanceByMsisdn extends VoltProcedure {
+
+    public static final String DATA = "DATA";
+    public static final String VOICE = "VOICE";
+    public static final String SMS = "SMS";
+
+    public final SQLStmt selectBalance = new SQLStmt(
+            "SELECT B.BALANCE_ID, B.PACKAGE_ID, B.BAL_LVL_MINUTES, B.BAL_LVL_SMS, B.BAL_LVL_DATA, B.SDATE, B.EDATE, " +
+            "P.AMOUNT_MINUTES, P.AMOUNT_SMS, P.AMOUNT_DATA, P.PERIOD " +
+            "FROM CUSTOMER C " +
+            "JOIN BALANCE B ON C.CUST_ID = B.CUST_ID " +
+            "JOIN PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID " +
+            "WHERE C.MSISDN = ?;");
+
+    public final SQLStmt updateData = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_DATA = ? WHERE BALANCE_ID = ?;");
+
+    public final SQLStmt updateMinutes = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ? WHERE BALANCE_ID = ?;");
+
+    public final SQLStmt updateSms = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_SMS = ? WHERE BALANCE_ID = ?;");
+
+    public final SQLStmt renewBalance = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ?, SDATE = ?, EDATE = ?, " +
+            "RESERVED_MINUTES = 0, RESERVED_SMS = 0, RESERVED_DATA = 0, RESERVED_UNTIL = NULL " +
+            "WHERE BALANCE_ID = ?;");
+
+    public VoltTable[] run(String msisdn, String balanceType, int usage) throws VoltAbortException {
+        if (usage < 0) {
+            throw new VoltAbortException("Usage must not be negative: " + usage);
+        }
+
+        VoltTable result = new VoltTable(
+                new VoltTable.ColumnInfo("GRANTED", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("REMAINING", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PACKAGE_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PERIOD_START", VoltType.TIMESTAMP));
+
+        voltQueueSQL(selectBalance, msisdn);
+        VoltTable balanceTable = voltExecuteSQL()[0];
+        if (!balanceTable.advanceRow()) {
+            return new VoltTable[]{result};
+        }
+
+        long balanceId = balanceTable.getLong("BALANCE_ID");
+        TimestampType periodStart = balanceTable.getTimestampAsTimestamp("SDATE");
+        TimestampType periodEnd = balanceTable.getTimestampAsTimestamp("EDATE");
+        int[] levels = {
+                (int) balanceTable.getLong("BAL_LVL_MINUTES"),
+                (int) balanceTable.getLong("BAL_LVL_SMS"),
+                (int) balanceTable.getLong("BAL_LVL_DATA")
+        };
+
+        long now = new TimestampType(getTransactionTime()).getTime();
+        boolean renewed = RenewExpiredBalances.isExpired(periodEnd, now);
+        if (renewed) {
+            int periodDays = (int) balanceTable.getLong("PERIOD");
+            long start = RenewExpiredBalances.periodStart(periodEnd.getTime(), periodDays, now);
+            periodStart = new TimestampType(start);
+            periodEnd = new TimestampType(start + RenewExpiredBalances.periodMicros(periodDays));
+            levels[0] = (int) balanceTable.getLong("AMOUNT_MINUTES");
+            levels[1] = (int) balanceTable.getLong("AMOUNT_SMS");
+            levels[2] = (int) balanceTable.getLong("AMOUNT_DATA");
+        }
+
+        int level;
+        SQLStmt update;
+
+        switch (balanceType) {
+            case DATA -> {
+                level = 2;
+                update = updateData;
+            }
+            case VOICE -> {
+                level = 0;
+                update = updateMinutes;
+            }
+            case SMS -> {
+                level = 1;
+                update = updateSms;
+            }
+            default -> throw new VoltAbortException("Unknown balance type: " + balanceType);
+        }
+
+        int balance = levels[level];
+        int granted = Math.min(Math.max(balance, 0), usage);
+        int remaining = balance - granted;
+        levels[level] = remaining;
+
+        if (renewed) {
+            voltQueueSQL(renewBalance, levels[0], levels[1], levels[2], periodStart, periodEnd, balanceId);
+            voltExecuteSQL(true);
+        } else if (granted > 0) {
+            voltQueueSQL(update, remaining, balanceId);
+            voltExecuteSQL(true);
+        }
+
+        result.addRow(granted, remaining, balanceTable.getLong("PACKAGE_ID"), periodStart);
+        return new VoltTable[]{result};
+    }
+}
@@ -0,0 +1,172 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batch version of {@link DebitBalanceByMsisdn}. The arrays are parallel, entry i deducts up to
+ * {@code usages[i]} units of {@code balanceTypes[i]} from {@code msisdns[i]}. Entries are applied in
+ * array order, so several charges of the same subscriber in one batch see each other's deductions.
+ * Balances whose period has ended are renewed first, as in {@link DebitBalanceByMsisdn}.
+ *
+ * <p>Result columns, one row per entry: FOUND (0 when the MSISDN has no balance), GRANTED, REMAINING,
+ * PACKAGE_ID, PERIOD_START.
+ */
+public class DebitBalancesByMsisdn extends VoltProcedure {
+
+    private static final int MAX_BATCH_SIZE = 200;
+
+    public final SQLStmt selectBalance = new SQLStmt(
+            "SELECT B.BALANCE_ID, B.PACKAGE_ID, B.BAL_LVL_MINUTES, B.BAL_LVL_SMS, B.BAL_LVL_DATA, B.SDATE, B.EDATE, " +
+            "P.AMOUNT_MINUTES, P.AMOUNT_SMS, P.AMOUNT_DATA, P.PERIOD " +
+            "FROM CUSTOMER C " +
+            "JOIN BALANCE B ON C.CUST_ID = B.CUST_ID " +
+            "JOIN PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID " +
+            "WHERE C.MSISDN = ?;");
+
+    public final SQLStmt updateBalance = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ? WHERE BALANCE_ID = ?;");
+
+    public final SQLStmt renewBalance = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ?, SDATE = ?, EDATE = ?, " +
+            "RESERVED_MINUTES = 0, RESERVED_SMS = 0, RESERVED_DATA = 0, RESERVED_UNTIL = NULL " +
+            "WHERE BALANCE_ID = ?;");
+
+    private static class Balance {
+        private final long balanceId;
+        private final long packageId;
+        private TimestampType periodStart;
+        private TimestampType periodEnd;
+        private final int[] levels = new int[3];
+        private boolean changed;
+        private boolean renewed;
+
+        private Balance(VoltTable row, long now) {
+            balanceId = row.getLong("BALANCE_ID");
+            packageId = row.getLong("PACKAGE_ID");
+            periodStart = row.getTimestampAsTimestamp("SDATE");
+            periodEnd = row.getTimestampAsTimestamp("EDATE");
+            levels[0] = (int) row.getLong("BAL_LVL_MINUTES");
+            levels[1] = (int) row.getLong("BAL_LVL_SMS");
+            levels[2] = (int) row.getLong("BAL_LVL_DATA");
+
+            if (RenewExpiredBalances.isExpired(periodEnd, now)) {
+                int periodDays = (int) row.getLong("PERIOD");
+                long start = RenewExpiredBalances.periodStart(periodEnd.getTime(), periodDays, now);
+                periodStart = new TimestampType(start);
+                periodEnd = new TimestampType(start + RenewExpiredBalances.periodMicros(periodDays));
+                levels[0] = (int) row.getLong("AMOUNT_MINUTES");
+                levels[1] = (int) row.getLong("AMOUNT_SMS");
+                levels[2] = (int) row.getLong("AMOUNT_DATA");
+                renewed = true;
+                changed = true;
+            }
+        }
+    }
+
+    public VoltTable[] run(String[] msisdns, String[] balanceTypes, int[] usages) throws VoltAbortException {
+        if (msisdns.length != balanceTypes.length || msisdns.length != usages.length) {
+            throw new VoltAbortException("Debit arrays must have the same length");
+        }
+
+        Map<String, Balance> balances = readBalances(msisdns);
+
+        VoltTable result = new VoltTable(
+                new VoltTable.ColumnInfo("FOUND", VoltType.TINYINT),
+                new VoltTable.ColumnInfo("GRANTED", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("REMAINING", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PACKAGE_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PERIOD_START", VoltType.TIMESTAMP));
+
+        for (int i = 0; i < msisdns.length; i++) {
+            if (usages[i] < 0) {
+                throw new VoltAbortException("Usage must not be negative: " + usages[i]);
+            }
+
+            Balance balance = balances.get(msisdns[i]);
+            if (balance == null) {
+                result.addRow(0, 0, 0, 0, null);
+                continue;
+            }
+
+            int level = switch (balanceTypes[i]) {
+                case DebitBalanceByMsisdn.VOICE -> 0;
+                case DebitBalanceByMsisdn.SMS -> 1;
+                case DebitBalanceByMsisdn.DATA -> 2;
+                default -> throw new VoltAbortException("Unknown balance type: " + balanceTypes[i]);
+            };
+
+            int granted = Math.min(Math.max(balance.levels[level], 0), usages[i]);
+            if (granted > 0) {
+                balance.levels[level] -= granted;
+                balance.changed = true;
+            }
+            result.addRow(1, granted, balance.levels[level], balance.packageId, balance.periodStart);
+        }
+
+        writeBalances(balances);
+        return new VoltTable[]{result};
+    }
+
+    private Map<String, Balance> readBalances(String[] msisdns) {
+        Map<String, Balance> balances = new HashMap<>();
+        String[] queued = new String[MAX_BATCH_SIZE];
+        int count = 0;
+
+        for (String msisdn : msisdns) {
+            if (balances.containsKey(msisdn)) {
+                continue;
+            }
+            balances.put(msisdn, null);
+            voltQueueSQL(selectBalance, msisdn);
+            queued[count++] = msisdn;
+
+            if (count == MAX_BATCH_SIZE) {
+                collectBalances(balances, queued, count);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            collectBalances(balances, queued, count);
+        }
+        return balances;
+    }
+
+    private void collectBalances(Map<String, Balance> balances, String[] queued, int count) {
+        VoltTable[] tables = voltExecuteSQL();
+        long now = new TimestampType(getTransactionTime()).getTime();
+        for (int i = 0; i < count; i++) {
+            if (tables[i].advanceRow()) {
+                balances.put(queued[i], new Balance(tables[i], now));
+            }
+        }
+    }
+
+    private void writeBalances(Map<String, Balance> balances) {
+        int queued = 0;
+        for (Balance balance : balances.values()) {
+            if (balance == null || !balance.changed) {
+                continue;
+            }
+            if (balance.renewed) {
+                voltQueueSQL(renewBalance, balance.levels[0], balance.levels[1], balance.levels[2],
+                        balance.periodStart, balance.periodEnd, balance.balanceId);
+            } else {
+                voltQueueSQL(updateBalance, balance.levels[0], balance.levels[1], balance.levels[2], balance.balanceId);
+            }
+            if (++queued == MAX_BATCH_SIZE) {
+                voltExecuteSQL();
+                queued = 0;
+            }
+        }
+        if (queued > 0) {
+            voltExecuteSQL(true);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Gives the units of up to {@code limit} reservations whose RESERVED_UNTIL has passed back to their
+ * balances. CHF returns the unused units of a grant long before that, so these are the reservations of a
+ * CHF node that stopped without returning them. Units the node charged since it last reported them to
+ * {@link ReserveBalanceByMsisdn} are given back too, at most one grant per balance type.
+ *
+ * <p>The reservations are read in RESERVED_UNTIL order from BALANCE_RESERVED_UNTIL_IDX.
+ *
+ * <p>Result columns: RECLAIMED (number of balances whose reservations were given back).
+ */
+public class ReclaimExpiredReservations extends VoltProcedure {
+
+    private static final int MAX_BATCH_SIZE = 200;
+
+    public final SQLStmt selectExpired = new SQLStmt(
+            "SELECT BALANCE_ID, BAL_LVL_MINUTES, BAL_LVL_SMS, BAL_LVL_DATA, RESERVED_MINUTES, RESERVED_SMS, RESERVED_DATA " +
+            "FROM BALANCE " +
+            "WHERE RESERVED_UNTIL <= ? " +
+            "ORDER BY RESERVED_UNTIL LIMIT ?;");
+
+    public final SQLStmt reclaim = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ?, " +
+            "RESERVED_MINUTES = 0, RESERVED_SMS = 0, RESERVED_DATA = 0, RESERVED_UNTIL = NULL " +
+            "WHERE BALANCE_ID = ?;");
+
+    public VoltTable[] run(int limit) throws VoltAbortException {
+        if (limit <= 0) {
+            throw new VoltAbortException("Limit must be positive: " + limit);
+        }
+
+        voltQueueSQL(selectExpired, new TimestampType(getTransactionTime()), limit);
+        VoltTable expired = voltExecuteSQL()[0];
+
+        long reclaimed = 0;
+        int queued = 0;
+        while (expired.advanceRow()) {
+            voltQueueSQL(reclaim,
+                    expired.getLong("BAL_LVL_MINUTES") + expired.getLong("RESERVED_MINUTES"),
+                    expired.getLong("BAL_LVL_SMS") + expired.getLong("RESERVED_SMS"),
+                    expired.getLong("BAL_LVL_DATA") + expired.getLong("RESERVED_DATA"),
+                    expired.getLong("BALANCE_ID"));
+            reclaimed++;
+
+            if (++queued == MAX_BATCH_SIZE) {
+                voltExecuteSQL();
+                queued = 0;
+            }
+        }
+        if (queued > 0) {
+            voltExecuteSQL(true);
+        }
+
+        VoltTable result = new VoltTable(new VoltTable.ColumnInfo("RECLAIMED", VoltType.BIGINT));
+        result.addRow(reclaimed);
+        return new VoltTable[]{result};
+    }
+}
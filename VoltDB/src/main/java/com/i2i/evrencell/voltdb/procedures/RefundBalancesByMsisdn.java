@@ -0,0 +1,118 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives unused reserved units back to the subscribers' balances. The arrays are parallel, entry i returns
+ * {@code amounts[i]} units of {@code balanceTypes[i]} to {@code msisdns[i]}, so CHF can return a whole
+ * batch of expired quota grants in one call. {@code used[i]} units of the grant were charged since CHF last
+ * reported them to {@link ReserveBalanceByMsisdn}, they stay charged and only leave RESERVED_*. At most the
+ * recorded reservation is given back, the rest was already reclaimed by {@link ReclaimExpiredReservations}.
+ *
+ * <p>The units go back only into the period they were reserved from: an entry whose
+ * {@code periodStarts[i]} (SDATE in microseconds, {@link #NO_PERIOD} for a balance without one) is not
+ * the SDATE of the balance any more is skipped, because the balance was renewed since and refunding would
+ * lift it above the package amount.
+ *
+ * <p>Result columns: REFUNDED (number of balance rows updated).
+ */
+public class RefundBalancesByMsisdn extends VoltProcedure {
+
+    public static final long NO_PERIOD = Long.MIN_VALUE;
+
+    private static final int MAX_BATCH_SIZE = 200;
+
+    public final SQLStmt selectBalance = new SQLStmt(
+            "SELECT B.BALANCE_ID, B.SDATE, B.RESERVED_MINUTES, B.RESERVED_SMS, B.RESERVED_DATA FROM CUSTOMER C " +
+            "JOIN BALANCE B ON C.CUST_ID = B.CUST_ID " +
+            "WHERE C.MSISDN = ?;");
+
+    public final SQLStmt refund = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = BAL_LVL_MINUTES + ?, BAL_LVL_SMS = BAL_LVL_SMS + ?, " +
+            "BAL_LVL_DATA = BAL_LVL_DATA + ?, RESERVED_MINUTES = ?, RESERVED_SMS = ?, RESERVED_DATA = ?, " +
+            "RESERVED_UNTIL = CASE WHEN ? = 0 THEN NULL ELSE RESERVED_UNTIL END " +
+            "WHERE BALANCE_ID = ?;");
+
+    public VoltTable[] run(String[] msisdns, String[] balanceTypes, int[] amounts, int[] used, long[] periodStarts)
+            throws VoltAbortException {
+        if (msisdns.length != balanceTypes.length || msisdns.length != amounts.length
+                || msisdns.length != used.length || msisdns.length != periodStarts.length) {
+            throw new VoltAbortException("Refund arrays must have the same length");
+        }
+
+        long refunded = 0;
+        for (int from = 0; from < msisdns.length; from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, msisdns.length);
+            for (int i = from; i < to; i++) {
+                voltQueueSQL(selectBalance, msisdns[i]);
+            }
+            VoltTable[] balances = voltExecuteSQL();
+
+            // reservations as updated by the earlier entries of this chunk, a balance can appear more than once
+            Map<Long, int[]> reservations = new HashMap<>();
+            int queued = 0;
+            for (int i = from; i < to; i++) {
+                int level = switch (balanceTypes[i]) {
+                    case DebitBalanceByMsisdn.VOICE -> 0;
+                    case DebitBalanceByMsisdn.SMS -> 1;
+                    case DebitBalanceByMsisdn.DATA -> 2;
+                    default -> throw new VoltAbortException("Unknown balance type: " + balanceTypes[i]);
+                };
+                VoltTable balance = balances[i - from];
+                if (amounts[i] < 0 || used[i] < 0 || !balance.advanceRow()
+                        || periodMicros(balance.getTimestampAsTimestamp("SDATE")) != periodStarts[i]) {
+                    continue;
+                }
+                long balanceId = balance.getLong("BALANCE_ID");
+                int[] reserved = reservations.computeIfAbsent(balanceId, id -> new int[]{
+                        (int) balance.getLong("RESERVED_MINUTES"),
+                        (int) balance.getLong("RESERVED_SMS"),
+                        (int) balance.getLong("RESERVED_DATA")
+                });
+
+                int[] returned = new int[3];
+                returned[level] = Math.min(amounts[i], reserved[level]);
+                reserved[level] = Math.max(reserved[level] - amounts[i] - used[i], 0);
+                voltQueueSQL(refund, returned[0], returned[1], returned[2],
+                        reserved[0], reserved[1], reserved[2], reserved[0] + reserved[1] + reserved[2], balanceId);
+                queued++;
+            }
+            if (queued > 0) {
+                for (VoltTable updated : voltExecuteSQL(to == msisdns.length)) {
+                    refunded += updated.asScalarLong();
+                }
+            }
+        }
+
+        VoltTable result = new VoltTable(new VoltTable.ColumnInfo("REFUNDED", VoltType.BIGINT));
+        result.addRow(refunded);
+        return new VoltTable[]{result};
+    }
+
+    private static long periodMicros(TimestampType sdate) {
+        return sdate == null ? NO_PERIOD : sdate.getTime();
+    }
+
+    /**
+     * The {@code periodStarts} parameter for the PERIOD_START values of the debit results the units were
+     * reserved with.
+     */
+    public static long[] periodStarts(Timestamp[] periodStarts) {
+        long[] micros = new long[periodStarts.length];
+        for (int i = 0; i < periodStarts.length; i++) {
+            Timestamp periodStart = periodStarts[i];
+            micros[i] = periodStart == null
+                    ? NO_PERIOD
+                    : periodStart.getTime() * 1000 + periodStart.getNanos() / 1000 % 1000;
+        }
+        return micros;
+    }
+}
@@ -0,0 +1,99 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Renews up to {@code limit} balances whose period has ended: the levels go back to the package amounts,
+ * the reservations of the ended period are dropped and SDATE/EDATE move on by whole package periods (PERIOD, in days) until EDATE is in the future. The
+ * expired balances are read in EDATE order from BALANCE_EDATE_IDX, so a call only touches the balances it
+ * renews and CHF can work through a large expiry in short transactions.
+ *
+ * <p>Result tables: MSISDN, PERIOD_START (new SDATE) per renewed balance, and NEXT_EXPIRY, the earliest
+ * EDATE after the renewal or null when there are no balances.
+ */
+public class RenewExpiredBalances extends VoltProcedure {
+
+    private static final int MAX_BATCH_SIZE = 200;
+    private static final long MICROS_PER_DAY = 86_400_000_000L;
+
+    public final SQLStmt selectExpired = new SQLStmt(
+            "SELECT B.BALANCE_ID, C.MSISDN, B.EDATE, P.AMOUNT_MINUTES, P.AMOUNT_SMS, P.AMOUNT_DATA, P.PERIOD " +
+            "FROM BALANCE B " +
+            "JOIN PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID " +
+            "JOIN CUSTOMER C ON B.CUST_ID = C.CUST_ID " +
+            "WHERE B.EDATE <= ? " +
+            "ORDER BY B.EDATE LIMIT ?;");
+
+    public final SQLStmt renewBalance = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ?, SDATE = ?, EDATE = ?, " +
+            "RESERVED_MINUTES = 0, RESERVED_SMS = 0, RESERVED_DATA = 0, RESERVED_UNTIL = NULL " +
+            "WHERE BALANCE_ID = ?;");
+
+    public final SQLStmt selectNextExpiry = new SQLStmt(
+            "SELECT MIN(EDATE) AS NEXT_EXPIRY FROM BALANCE;");
+
+    public VoltTable[] run(int limit) throws VoltAbortException {
+        if (limit <= 0) {
+            throw new VoltAbortException("Limit must be positive: " + limit);
+        }
+
+        TimestampType now = new TimestampType(getTransactionTime());
+        voltQueueSQL(selectExpired, now, limit);
+        VoltTable expired = voltExecuteSQL()[0];
+
+        VoltTable renewed = new VoltTable(
+                new VoltTable.ColumnInfo("MSISDN", VoltType.STRING),
+                new VoltTable.ColumnInfo("PERIOD_START", VoltType.TIMESTAMP));
+
+        int queued = 0;
+        while (expired.advanceRow()) {
+            int periodDays = (int) expired.getLong("PERIOD");
+            long periodStart = periodStart(expired.getTimestampAsTimestamp("EDATE").getTime(), periodDays, now.getTime());
+            TimestampType start = new TimestampType(periodStart);
+            TimestampType end = new TimestampType(periodStart + periodMicros(periodDays));
+
+            voltQueueSQL(renewBalance,
+                    expired.getLong("AMOUNT_MINUTES"),
+                    expired.getLong("AMOUNT_SMS"),
+                    expired.getLong("AMOUNT_DATA"),
+                    start, end,
+                    expired.getLong("BALANCE_ID"));
+            renewed.addRow(expired.getString("MSISDN"), start);
+
+            if (++queued == MAX_BATCH_SIZE) {
+                voltExecuteSQL();
+                queued = 0;
+            }
+        }
+
+        voltQueueSQL(selectNextExpiry);
+        VoltTable nextExpiry = voltExecuteSQL(true)[queued];
+        return new VoltTable[]{renewed, nextExpiry};
+    }
+
+    /**
+     * Start of the period that contains {@code nowMicros} for a balance whose period ended at
+     * {@code endMicros}, the old end moved on by whole periods. A package without a period renews daily.
+     */
+    static long periodStart(long endMicros, int periodDays, long nowMicros) {
+        long period = periodMicros(periodDays);
+        long skipped = (nowMicros - endMicros) / period;
+        return endMicros + skipped * period;
+    }
+
+    static long periodMicros(int periodDays) {
+        return Math.max(periodDays, 1) * MICROS_PER_DAY;
+    }
+
+    /**
+     * Whether the balance period that ends at {@code edate} is over at {@code nowMicros}. Balances
+     * without an end date never expire.
+     */
+    static boolean isExpired(TimestampType edate, long nowMicros) {
+        return edate != null && edate.getTime() <= nowMicros;
+    }
+}
@@ -0,0 +1,107 @@
+package com.i2i.evrencell.voltdb.procedures;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Reserves up to {@code amount} units of one balance type for a CHF quota grant. The units are taken off
+ * the balance like in {@link DebitBalanceByMsisdn} and also recorded in RESERVED_MINUTES, RESERVED_SMS or
+ * RESERVED_DATA until CHF returns the unused ones with {@link RefundBalancesByMsisdn}.
+ * {@code used} units of the earlier reservations, charged by CHF since it last reported, are removed from
+ * the record.
+ *
+ * <p>RESERVED_UNTIL moves on to {@code holdMillis} from now. A reservation that CHF never returned, after a
+ * crash, is given back by {@link ReclaimExpiredReservations} once that time has passed. Renewing a balance
+ * clears its reservations, their units belonged to the period that ended.
+ *
+ * <p>Result columns as in {@link DebitBalanceByMsisdn}, no row when the MSISDN has no balance.
+ */
+public class ReserveBalanceByMsisdn extends VoltProcedure {
+
+    public final SQLStmt selectBalance = new SQLStmt(
+            "SELECT B.BALANCE_ID, B.PACKAGE_ID, B.BAL_LVL_MINUTES, B.BAL_LVL_SMS, B.BAL_LVL_DATA, B.SDATE, B.EDATE, " +
+            "B.RESERVED_MINUTES, B.RESERVED_SMS, B.RESERVED_DATA, B.RESERVED_UNTIL, " +
+            "P.AMOUNT_MINUTES, P.AMOUNT_SMS, P.AMOUNT_DATA, P.PERIOD " +
+            "FROM CUSTOMER C " +
+            "JOIN BALANCE B ON C.CUST_ID = B.CUST_ID " +
+            "JOIN PACKAGE P ON B.PACKAGE_ID = P.PACKAGE_ID " +
+            "WHERE C.MSISDN = ?;");
+
+    public final SQLStmt updateBalance = new SQLStmt(
+            "UPDATE BALANCE SET BAL_LVL_MINUTES = ?, BAL_LVL_SMS = ?, BAL_LVL_DATA = ?, " +
+            "RESERVED_MINUTES = ?, RESERVED_SMS = ?, RESERVED_DATA = ?, RESERVED_UNTIL = ?, SDATE = ?, EDATE = ? " +
+            "WHERE BALANCE_ID = ?;");
+
+    public VoltTable[] run(String msisdn, String balanceType, int amount, int used, long holdMillis) throws VoltAbortException {
+        if (amount < 0 || used < 0) {
+            throw new VoltAbortException("Amounts must not be negative: " + amount + ", " + used);
+        }
+        int level = switch (balanceType) {
+            case DebitBalanceByMsisdn.VOICE -> 0;
+            case DebitBalanceByMsisdn.SMS -> 1;
+            case DebitBalanceByMsisdn.DATA -> 2;
+            default -> throw new VoltAbortException("Unknown balance type: " + balanceType);
+        };
+
+        VoltTable result = new VoltTable(
+                new VoltTable.ColumnInfo("GRANTED", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("REMAINING", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PACKAGE_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo("PERIOD_START", VoltType.TIMESTAMP));
+
+        voltQueueSQL(selectBalance, msisdn);
+        VoltTable balanceTable = voltExecuteSQL()[0];
+        if (!balanceTable.advanceRow()) {
+            return new VoltTable[]{result};
+        }
+
+        TimestampType periodStart = balanceTable.getTimestampAsTimestamp("SDATE");
+        TimestampType periodEnd = balanceTable.getTimestampAsTimestamp("EDATE");
+        TimestampType reservedUntil = balanceTable.getTimestampAsTimestamp("RESERVED_UNTIL");
+        int[] levels = {
+                (int) balanceTable.getLong("BAL_LVL_MINUTES"),
+                (int) balanceTable.getLong("BAL_LVL_SMS"),
+                (int) balanceTable.getLong("BAL_LVL_DATA")
+        };
+        int[] reserved = {
+                (int) balanceTable.getLong("RESERVED_MINUTES"),
+                (int) balanceTable.getLong("RESERVED_SMS"),
+                (int) balanceTable.getLong("RESERVED_DATA")
+        };
+
+        long now = new TimestampType(getTransactionTime()).getTime();
+        if (RenewExpiredBalances.isExpired(periodEnd, now)) {
+            int periodDays = (int) balanceTable.getLong("PERIOD");
+            long start = RenewExpiredBalances.periodStart(periodEnd.getTime(), periodDays, now);
+            periodStart = new TimestampType(start);
+            periodEnd = new TimestampType(start + RenewExpiredBalances.periodMicros(periodDays));
+            levels[0] = (int) balanceTable.getLong("AMOUNT_MINUTES");
+            levels[1] = (int) balanceTable.getLong("AMOUNT_SMS");
+            levels[2] = (int) balanceTable.getLong("AMOUNT_DATA");
+            reserved[0] = reserved[1] = reserved[2] = 0;
+        } else {
+            reserved[level] = Math.max(reserved[level] - used, 0);
+        }
+
+        int granted = Math.min(Math.max(levels[level], 0), amount);
+        levels[level] -= granted;
+        reserved[level] += granted;
+
+        long holdUntil = now + holdMillis * 1000;
+        if (reserved[0] == 0 && reserved[1] == 0 && reserved[2] == 0) {
+            reservedUntil = null;
+        } else if (reservedUntil == null || reservedUntil.getTime() < holdUntil) {
+            reservedUntil = new TimestampType(holdUntil);
+        }
+
+        voltQueueSQL(updateBalance, levels[0], levels[1], levels[2], reserved[0], reserved[1], reserved[2],
+                reservedUntil, periodStart, periodEnd, balanceTable.getLong("BALANCE_ID"));
+        voltExecuteSQL(true);
+
+        result.addRow(granted, levels[level], balanceTable.getLong("PACKAGE_ID"), periodStart);
+        return new VoltTable[]{result};
+    }
+}